@@ -130,7 +130,8 @@ gebd() {
     [[ ! -z "${MAVEN_FORCE_SLOT}" ]] && SLOT=${MAVEN_FORCE_SLOT} && unset MAVEN_FORCE_SLOT
 
     # assign a category if it exists in cache
-    CATEGORY=$(grep "${PG}:${MA}:" "${CACHEDIR}"/${CUR_STAGE}-cache | awk -F: 'NR==1{print $1}')
+    CATEGORY=$(grep -h "${PG}:${MA}:" "${GENTOO_CACHE}" \
+        "${CACHEDIR}"/${CUR_STAGE}-maven-cache 2>/dev/null | awk -F: 'NR==1{print $1}')
     CATEGORY=${CATEGORY:-${DEFAULT_CATEGORY}}
 
     tsh_log "gebd: CATEGORY is ${CATEGORY}, PA is ${PA}"
@@ -179,18 +180,14 @@ gebd() {
     local cur_stage_ebd="${CUR_STAGE_DIR}"/${CATEGORY}/${PA}/${P}.ebuild
     local final_stage_ebd="${MAVEN_OVERLAY_DIR}"/${CATEGORY}/${PA}/${P}.ebuild
 
-    # refresh cache before execute java-ebuilder
-    pushd "${CACHEDIR}" > /dev/null
-    cat "${GENTOO_CACHE}" ${CUR_STAGE}-maven-cache > ${CUR_STAGE}-cache
-    popd > /dev/null
-
     # generate ebuild file if it does not exist
     if [[ ! -f "${cur_stage_ebd}" ]]; then
         mkdir -p "$(dirname "${cur_stage_ebd}")"
         tsh_log "java-ebuilder: generage ebuild files for ${MID} in ${CUR_STAGE}"
         java-ebuilder -p "${POMDIR}"/${M}.pom -e "${cur_stage_ebd}" -g --workdir "${POMDIR}" \
                       -u ${SRC_URI} --slot ${SLOT:-0} --keywords ~amd64 \
-                      --cache-file "${CACHEDIR}"/${CUR_STAGE}-cache
+                      --cache-file "${GENTOO_CACHE}" \
+                      --cache-file "${CACHEDIR}"/${CUR_STAGE}-maven-cache
         if [[ "$?" -eq 0 ]]; then
             tsh_log "java-ebuilder Returns $?"
         else
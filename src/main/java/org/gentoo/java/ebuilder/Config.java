@@ -6,7 +6,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import org.gentoo.java.ebuilder.maven.JavaVersion;
@@ -20,10 +22,15 @@ import org.gentoo.java.ebuilder.portage.KeywordComparator;
 public class Config {
 
     /**
-     * Path to portage ebuild cache.
+     * Default path to portage ebuild cache.
      */
-    private Path cacheFile = Paths.get(System.getProperty("user.home"),
-            ".java-ebuilder/cache");
+    private static final Path DEFAULT_CACHE_FILE = Paths.get(
+            System.getProperty("user.home"), ".java-ebuilder/cache");
+    /**
+     * Paths to portage ebuild caches in order of their priority. The first
+     * cache is the base cache, the other caches are layered over it.
+     */
+    private final List<Path> cacheFiles = new ArrayList<>(5);
     /**
      * URI that goes to pre-compiled Maven Jar.
      */
@@ -32,6 +39,19 @@ public class Config {
      * whether binjarUri is set.
      */
     private boolean binjarUriExists;
+    /**
+     * Whether cache should be written in binary format.
+     */
+    private boolean binaryCache;
+    /**
+     * Path to new cache file that is compared with the old cache file.
+     */
+    private Path diffCacheNew;
+    /**
+     * Path to old cache file that is compared with the new cache file or null
+     * if caches are not compared.
+     */
+    private Path diffCacheOld;
     /**
      * URI that goes to SRC_URI.
      */
@@ -73,6 +93,11 @@ public class Config {
      * Whether ebuild should be generated.
      */
     private boolean generateEbuild;
+    /**
+     * Whether cache refresh should parse only packages that changed since
+     * previous refresh.
+     */
+    private boolean incrementalRefresh;
     /**
      * Arch keywords.
      */
@@ -81,18 +106,68 @@ public class Config {
      * License name.
      */
     private String license;
+    /**
+     * Number of threads used for parsing text cache when it is loaded. If it
+     * is lower than two, the cache is parsed sequentially.
+     */
+    private int loadThreads = 1;
+    /**
+     * Path to lookup table of maven group ids and artifact ids of portage
+     * packages or null.
+     */
+    private Path lutFile;
+    /**
+     * Whether md5-cache should be used to find out java ebuilds without
+     * opening the ebuilds.
+     */
+    private boolean md5CacheScan;
+    /**
+     * Path to file the scan metrics should be written to or null.
+     */
+    private Path metricsFile;
+    /**
+     * Path to file the numbers of resolved and reused dependencies should be
+     * written to or null.
+     */
+    private Path resolveMetricsFile;
     /**
      * List of paths to pom.xml files.
      */
     private final List<Path> pomFiles = new ArrayList<>(10);
     /**
-     * Path to portage tree.
+     * Paths to portage trees in the order they were specified on command
+     * line, which is also their priority.
+     */
+    private final Set<Path> portageTree = new LinkedHashSet<>(5);
+    /**
+     * Whether cache refresh of git portage trees should parse only packages
+     * that changed since HEAD commit recorded during previous refresh.
+     */
+    private boolean gitDelta;
+    /**
+     * Whether queries should be read from standard input and answered from
+     * the cache.
      */
-    private SortedSet<Path> portageTree = new TreeSet<>();
+    private boolean query;
+    /**
+     * Whether the highest version in maven version range is used instead of
+     * the lowest one when resolving dependencies.
+     */
+    private boolean rangeHighest;
     /**
      * Whether ebuild cache should be refreshed.
      */
     private boolean refreshCache;
+    /**
+     * Number of threads used for parsing portage tree. If it is lower than
+     * two, the tree is parsed sequentially.
+     */
+    private int scanThreads = 1;
+    /**
+     * Whether cache should be written as separate shard for each portage
+     * tree.
+     */
+    private boolean shardCache;
     /**
      * Whether java-ebuilder will explictly unset hasTests of the Maven project.
      */
@@ -113,6 +188,11 @@ public class Config {
      * whether testSrcUri is set and whether the pkg is from maven central.
      */
     private boolean testSrcUriExists;
+    /**
+     * Whether portage trees should be watched for changes after cache
+     * refresh and the cache should be kept up-to-date.
+     */
+    private boolean watch;
     /**
      * Path to workdir.
      */
@@ -140,21 +220,45 @@ public class Config {
     }
 
     /**
-     * Getter for {@link #cacheFile}.
+     * Adds cache file to {@link #cacheFiles}.
+     *
+     * @param cacheFile path to cache file
+     */
+    public void addCacheFile(final Path cacheFile) {
+        cacheFiles.add(cacheFile);
+    }
+
+    /**
+     * Returns path to the base cache, which is also the cache that is
+     * refreshed.
      *
-     * @return {@link #cacheFile}
+     * @return path to the first cache file or the default cache file if no
+     *         cache file was specified
      */
     public Path getCacheFile() {
-        return cacheFile;
+        return cacheFiles.isEmpty() ? DEFAULT_CACHE_FILE : cacheFiles.get(0);
     }
 
     /**
-     * Setter for {@link #cacheFile}.
+     * Sets the only cache file.
      *
-     * @param cacheFile {@link #cacheFile}
+     * @param cacheFile path to cache file
      */
     public void setCacheFile(final Path cacheFile) {
-        this.cacheFile = cacheFile;
+        cacheFiles.clear();
+        cacheFiles.add(cacheFile);
+    }
+
+    /**
+     * Getter for {@link #cacheFiles}.
+     *
+     * @return {@link #cacheFiles} or list with the default cache file if no
+     *         cache file was specified
+     */
+    public List<Path> getCacheFiles() {
+        return cacheFiles.isEmpty()
+                ? Collections.singletonList(DEFAULT_CACHE_FILE)
+                : Collections.unmodifiableList(cacheFiles);
     }
 
     /**
@@ -185,6 +289,60 @@ public class Config {
         this.binjarUriExists = true;
     }
 
+    /**
+     * Getter for {@link #binaryCache}.
+     *
+     * @return {@link #binaryCache}
+     */
+    public boolean isBinaryCache() {
+        return binaryCache;
+    }
+
+    /**
+     * Setter for {@link #binaryCache}.
+     *
+     * @param binaryCache {@link #binaryCache}
+     */
+    public void setBinaryCache(final boolean binaryCache) {
+        this.binaryCache = binaryCache;
+    }
+
+    /**
+     * Getter for {@link #diffCacheNew}.
+     *
+     * @return {@link #diffCacheNew}
+     */
+    public Path getDiffCacheNew() {
+        return diffCacheNew;
+    }
+
+    /**
+     * Setter for {@link #diffCacheNew}.
+     *
+     * @param diffCacheNew {@link #diffCacheNew}
+     */
+    public void setDiffCacheNew(final Path diffCacheNew) {
+        this.diffCacheNew = diffCacheNew;
+    }
+
+    /**
+     * Getter for {@link #diffCacheOld}.
+     *
+     * @return {@link #diffCacheOld}
+     */
+    public Path getDiffCacheOld() {
+        return diffCacheOld;
+    }
+
+    /**
+     * Setter for {@link #diffCacheOld}.
+     *
+     * @param diffCacheOld {@link #diffCacheOld}
+     */
+    public void setDiffCacheOld(final Path diffCacheOld) {
+        this.diffCacheOld = diffCacheOld;
+    }
+
     /**
      * Getter for {@link #downloadUri}.
      *
@@ -355,6 +513,42 @@ public class Config {
         this.license = license;
     }
 
+    /**
+     * Getter for {@link #loadThreads}.
+     *
+     * @return {@link #loadThreads}
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * Setter for {@link #loadThreads}.
+     *
+     * @param loadThreads {@link #loadThreads}
+     */
+    public void setLoadThreads(final int loadThreads) {
+        this.loadThreads = loadThreads;
+    }
+
+    /**
+     * Getter for {@link #lutFile}.
+     *
+     * @return {@link #lutFile}
+     */
+    public Path getLutFile() {
+        return lutFile;
+    }
+
+    /**
+     * Setter for {@link #lutFile}.
+     *
+     * @param lutFile {@link #lutFile}
+     */
+    public void setLutFile(final Path lutFile) {
+        this.lutFile = lutFile;
+    }
+
     /**
      * Getter for {@link #pomFiles}.
      *
@@ -369,7 +563,7 @@ public class Config {
      *
      * @return {@link #portageTree}
      */
-    public SortedSet<Path> getPortageTree() {
+    public Set<Path> getPortageTree() {
         return portageTree;
     }
 
@@ -513,6 +707,132 @@ public class Config {
         this.generateEbuild = generateEbuild;
     }
 
+    /**
+     * Getter for {@link #gitDelta}.
+     *
+     * @return {@link #gitDelta}
+     */
+    public boolean isGitDelta() {
+        return gitDelta;
+    }
+
+    /**
+     * Setter for {@link #gitDelta}.
+     *
+     * @param gitDelta {@link #gitDelta}
+     */
+    public void setGitDelta(final boolean gitDelta) {
+        this.gitDelta = gitDelta;
+    }
+
+    /**
+     * Getter for {@link #incrementalRefresh}.
+     *
+     * @return {@link #incrementalRefresh}
+     */
+    public boolean isIncrementalRefresh() {
+        return incrementalRefresh;
+    }
+
+    /**
+     * Setter for {@link #incrementalRefresh}.
+     *
+     * @param incrementalRefresh {@link #incrementalRefresh}
+     */
+    public void setIncrementalRefresh(final boolean incrementalRefresh) {
+        this.incrementalRefresh = incrementalRefresh;
+    }
+
+    /**
+     * Getter for {@link #md5CacheScan}.
+     *
+     * @return {@link #md5CacheScan}
+     */
+    public boolean isMd5CacheScan() {
+        return md5CacheScan;
+    }
+
+    /**
+     * Setter for {@link #md5CacheScan}.
+     *
+     * @param md5CacheScan {@link #md5CacheScan}
+     */
+    public void setMd5CacheScan(final boolean md5CacheScan) {
+        this.md5CacheScan = md5CacheScan;
+    }
+
+    /**
+     * Getter for {@link #metricsFile}.
+     *
+     * @return {@link #metricsFile}
+     */
+    public Path getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * Setter for {@link #metricsFile}.
+     *
+     * @param metricsFile {@link #metricsFile}
+     */
+    public void setMetricsFile(final Path metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Getter for {@link #resolveMetricsFile}.
+     *
+     * @return {@link #resolveMetricsFile}
+     */
+    public Path getResolveMetricsFile() {
+        return resolveMetricsFile;
+    }
+
+    /**
+     * Setter for {@link #resolveMetricsFile}.
+     *
+     * @param resolveMetricsFile {@link #resolveMetricsFile}
+     */
+    public void setResolveMetricsFile(final Path resolveMetricsFile) {
+        this.resolveMetricsFile = resolveMetricsFile;
+    }
+
+    /**
+     * Getter for {@link #query}.
+     *
+     * @return {@link #query}
+     */
+    public boolean isQuery() {
+        return query;
+    }
+
+    /**
+     * Setter for {@link #query}.
+     *
+     * @param query {@link #query}
+     */
+    public void setQuery(final boolean query) {
+        this.query = query;
+    }
+
+    /**
+     * Getter for {@link #rangeHighest}.
+     *
+     * @return {@link #rangeHighest}
+     */
+    public boolean isRangeHighest() {
+        return rangeHighest;
+    }
+
+    /**
+     * Setter for {@link #rangeHighest}.
+     *
+     * @param rangeHighest {@link #rangeHighest}
+     */
+    public void setRangeHighest(final boolean rangeHighest) {
+        this.rangeHighest = rangeHighest;
+    }
+
     /**
      * Getter for {@link #refreshCache}.
      *
@@ -531,6 +851,42 @@ public class Config {
         this.refreshCache = refreshCache;
     }
 
+    /**
+     * Getter for {@link #scanThreads}.
+     *
+     * @return {@link #scanThreads}
+     */
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    /**
+     * Setter for {@link #scanThreads}.
+     *
+     * @param scanThreads {@link #scanThreads}
+     */
+    public void setScanThreads(final int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    /**
+     * Getter for {@link #shardCache}.
+     *
+     * @return {@link #shardCache}
+     */
+    public boolean isShardCache() {
+        return shardCache;
+    }
+
+    /**
+     * Setter for {@link #shardCache}.
+     *
+     * @param shardCache {@link #shardCache}
+     */
+    public void setShardCache(final boolean shardCache) {
+        this.shardCache = shardCache;
+    }
+
     /**
      * Getter for {@link #skipTests}.
      *
@@ -548,4 +904,22 @@ public class Config {
     public void setSkipTests(final boolean skipTests) {
         this.skipTests = skipTests;
     }
+
+    /**
+     * Getter for {@link #watch}.
+     *
+     * @return {@link #watch}
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * Setter for {@link #watch}.
+     *
+     * @param watch {@link #watch}
+     */
+    public void setWatch(final boolean watch) {
+        this.watch = watch;
+    }
 }
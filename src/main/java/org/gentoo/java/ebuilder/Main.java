@@ -7,11 +7,14 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.Map;
+import org.gentoo.java.ebuilder.maven.CacheDiff;
+import org.gentoo.java.ebuilder.maven.CacheQuery;
 import org.gentoo.java.ebuilder.maven.JavaVersion;
 import org.gentoo.java.ebuilder.maven.MavenCache;
 import org.gentoo.java.ebuilder.maven.MavenEbuilder;
@@ -48,11 +51,20 @@ public class Main {
             refreshCache(config);
         }
 
+        if (config.getDiffCacheOld() != null) {
+            diffCache(config);
+        }
+
         if (config.isGenerateEbuild()) {
             generateEbuild(config);
         }
 
-        config.getStdoutWriter().println("Finished!");
+        // results of queries are read by scripts, so nothing else is printed
+        if (config.isQuery()) {
+            queryCache(config);
+        } else {
+            config.getStdoutWriter().println("Finished!");
+        }
         config.getStdoutWriter().flush();
         config.getErrorWriter().flush();
     }
@@ -63,6 +75,41 @@ public class Main {
      * @param config application configuration
      */
     private static void checkArgs(final Config config) {
+        if (config.isWatch()) {
+            if (config.isShardCache()) {
+                config.getErrorWriter().println("ERROR: --watch cannot be "
+                        + "combined with --shard-cache.");
+                Runtime.getRuntime().exit(1);
+            } else if (config.isGenerateEbuild()) {
+                config.getErrorWriter().println("ERROR: --watch cannot be "
+                        + "combined with --generate-ebuild.");
+                Runtime.getRuntime().exit(1);
+            }
+
+            config.setRefreshCache(true);
+        }
+
+        if (config.isRefreshCache() && config.getCacheFiles().size() > 1) {
+            config.getErrorWriter().println("ERROR: Only one --cache-file "
+                    + "can be specified when refreshing cache.");
+            Runtime.getRuntime().exit(1);
+        }
+
+        if (config.isQuery() && (config.isRefreshCache()
+                || config.isGenerateEbuild()
+                || config.getDiffCacheOld() != null)) {
+            config.getErrorWriter().println("ERROR: --query cannot be "
+                    + "combined with --refresh-cache, --generate-ebuild or "
+                    + "--diff-cache.");
+            Runtime.getRuntime().exit(1);
+        }
+
+        if (config.isBinaryCache() && config.isShardCache()) {
+            config.getErrorWriter().println("ERROR: --binary-cache cannot be "
+                    + "combined with --shard-cache.");
+            Runtime.getRuntime().exit(1);
+        }
+
         if (config.isRefreshCache()) {
             if (config.getPortageTree().isEmpty()) {
                 config.addPortageTree(Paths.get("/usr/portage"));
@@ -75,9 +122,37 @@ public class Main {
                     Runtime.getRuntime().exit(1);
                 }
             }
+
+            if (config.getLutFile() != null
+                    && !config.getLutFile().toFile().exists()) {
+                config.getErrorWriter().println("ERROR: Lookup table "
+                        + config.getLutFile() + " does not exist.");
+                Runtime.getRuntime().exit(1);
+            }
+        } else if (config.getDiffCacheOld() != null) {
+            if (config.isGenerateEbuild()) {
+                config.getErrorWriter().println("ERROR: --diff-cache cannot "
+                        + "be combined with --generate-ebuild.");
+                Runtime.getRuntime().exit(1);
+            }
+
+            for (final Path cacheFile : new Path[]{config.getDiffCacheOld(),
+                config.getDiffCacheNew()}) {
+                if (!cacheFile.toFile().exists()) {
+                    config.getErrorWriter().println("ERROR: Cache file "
+                            + cacheFile + " does not exist.");
+                    Runtime.getRuntime().exit(1);
+                }
+            }
         } else if (!config.getPortageTree().isEmpty()) {
             config.getErrorWriter().println("WARNING: Portage tree is used "
-                    + "only when refreshing cache.");
+                    + "only when refreshing or comparing cache.");
+        }
+
+        if (!config.isRefreshCache() && config.getMetricsFile() != null) {
+            config.getErrorWriter().println("WARNING: Metrics file is used "
+                    + "only when refreshing cache, use --resolve-metrics-file "
+                    + "for numbers of resolved dependencies.");
         }
 
         if (config.isGenerateEbuild()) {
@@ -148,6 +223,9 @@ public class Main {
         } else if (!config.getPomFiles().isEmpty()) {
             config.getErrorWriter().println("WARNING: pom.xml is used only "
                     + "when generating ebuild.");
+        } else if (config.getResolveMetricsFile() != null) {
+            config.getErrorWriter().println("WARNING: Resolve metrics file is "
+                    + "used only when generating ebuild.");
         } else if (config.getSlot() != null) {
             config.getErrorWriter().println("WARNING: SLOT is used only when "
                     + "generating ebuild.");
@@ -156,7 +234,7 @@ public class Main {
                     + "when generating ebuild.");
         }
 
-        if (!config.isRefreshCache()
+        if (!config.isRefreshCache() && config.getDiffCacheOld() == null
                 && !config.getCacheFile().toFile().exists()) {
             config.getErrorWriter().println("ERROR: Cache file does not exist. "
                     + "First you must generate it using --refresh-cache.");
@@ -164,6 +242,44 @@ public class Main {
         }
     }
 
+    /**
+     * Compares caches and prints artifacts that were added, removed or
+     * changed. If portage trees are specified, ebuilds in them whose
+     * dependencies would resolve differently with the new cache are printed
+     * too.
+     *
+     * @param config application configuration
+     */
+    private static void diffCache(final Config config) {
+        config.getStdoutWriter().print("Comparing caches...");
+
+        final CacheDiff cacheDiff = CacheDiff.compute(
+                config.getDiffCacheOld(), config.getDiffCacheNew());
+
+        config.getStdoutWriter().println("done");
+
+        cacheDiff.getAdded().forEach((artifact) -> config.getStdoutWriter().
+                println("added " + artifact));
+        cacheDiff.getRemoved().forEach((artifact) -> config.getStdoutWriter().
+                println("removed " + artifact));
+        cacheDiff.getChanged().forEach((artifact) -> config.getStdoutWriter().
+                println("changed " + artifact));
+
+        if (config.getPortageTree().isEmpty() || cacheDiff.isEmpty()) {
+            return;
+        }
+
+        // dependencies of the ebuilds are resolved using the new cache
+        config.setCacheFile(config.getDiffCacheNew());
+
+        final MavenCache mavenCache = new MavenCache();
+        mavenCache.loadCache(config);
+
+        cacheDiff.findChangedEbuilds(config.getPortageTree(), mavenCache).
+                forEach((ebuild) -> config.getStdoutWriter().println(
+                "regenerate " + ebuild));
+    }
+
     private static void dumpMavenProjects(final Config config,
             final List<MavenProject> mavenProjects) {
         int i = 0;
@@ -202,6 +318,10 @@ public class Main {
 
         final MavenEbuilder mavenEbuilder = new MavenEbuilder();
         mavenEbuilder.generateEbuild(config, mavenProjects, mavenCache);
+
+        if (config.getResolveMetricsFile() != null) {
+            mavenCache.writeMetrics(config.getResolveMetricsFile());
+        }
     }
 
     /**
@@ -216,6 +336,9 @@ public class Main {
             final String arg = args[i];
 
             switch (arg) {
+                case "--binary-cache":
+                    config.setBinaryCache(true);
+                    break;
                 case "--binjar-uri":
                     i++;
 
@@ -229,6 +352,14 @@ public class Main {
                     }
 
                     break;
+                case "--diff-cache":
+                    i++;
+                    config.setDiffCacheOld(Paths.get(args[i]).toAbsolutePath().
+                            normalize());
+                    i++;
+                    config.setDiffCacheNew(Paths.get(args[i]).toAbsolutePath().
+                            normalize());
+                    break;
                 case "--download-uri":
                 case "-u":
                     i++;
@@ -262,6 +393,12 @@ public class Main {
                 case "-g":
                     config.setGenerateEbuild(true);
                     break;
+                case "--git-delta":
+                    config.setGitDelta(true);
+                    break;
+                case "--incremental":
+                    config.setIncrementalRefresh(true);
+                    break;
                 case "--keywords":
                 case "-k":
                     i++;
@@ -272,11 +409,41 @@ public class Main {
                     i++;
                     config.setLicense(args[i]);
                     break;
+                case "--load-threads":
+                    i++;
+
+                    try {
+                        config.setLoadThreads(Integer.parseInt(args[i], 10));
+                    } catch (final NumberFormatException ex) {
+                        config.getErrorWriter().println("ERROR: Number of "
+                                + "threads " + args[i] + " is not valid.");
+                        Runtime.getRuntime().exit(1);
+                    }
+
+                    break;
+                case "--lut":
+                    i++;
+                    config.setLutFile(Paths.get(args[i]).toAbsolutePath().
+                            normalize());
+                    break;
+                case "--md5-cache-scan":
+                    config.setMd5CacheScan(true);
+                    break;
+                case "--metrics-file":
+                    i++;
+                    config.setMetricsFile(Paths.get(args[i]).toAbsolutePath().
+                            normalize());
+                    break;
                 case "--pom":
                 case "-p":
                     i++;
                     config.addPomFile(Paths.get(args[i]));
                     break;
+                case "--resolve-metrics-file":
+                    i++;
+                    config.setResolveMetricsFile(Paths.get(args[i]).
+                            toAbsolutePath().normalize());
+                    break;
                 case "--portage-tree":
                 case "-t":
                     i++;
@@ -285,13 +452,34 @@ public class Main {
                     break;
                 case "--cache-file":
                     i++;
-                    config.setCacheFile(Paths.get(args[i]).toAbsolutePath().
+                    config.addCacheFile(Paths.get(args[i]).toAbsolutePath().
                             normalize());
                     break;
+                case "--query":
+                    config.setQuery(true);
+                    break;
+                case "--range-highest":
+                    config.setRangeHighest(true);
+                    break;
                 case "--refresh-cache":
                 case "-c":
                     config.setRefreshCache(true);
                     break;
+                case "--scan-threads":
+                    i++;
+
+                    try {
+                        config.setScanThreads(Integer.parseInt(args[i], 10));
+                    } catch (final NumberFormatException ex) {
+                        config.getErrorWriter().println("ERROR: Number of "
+                                + "threads " + args[i] + " is not valid.");
+                        Runtime.getRuntime().exit(1);
+                    }
+
+                    break;
+                case "--shard-cache":
+                    config.setShardCache(true);
+                    break;
                 case "--skip-tests":
                     config.setSkipTests(true);
                     break;
@@ -312,6 +500,9 @@ public class Main {
                                 + " is not valid.");
                     }
 
+                    break;
+                case "--watch":
+                    config.setWatch(true);
                     break;
                 case "--workdir":
                 case "-w":
@@ -370,6 +561,21 @@ public class Main {
         }
     }
 
+    /**
+     * Answers queries read from standard input using the cache.
+     *
+     * @param config application configuration
+     */
+    private static void queryCache(final Config config) {
+        final CacheQuery cacheQuery = new CacheQuery(config);
+
+        @SuppressWarnings("UseOfSystemOutOrSystemErr")
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8));
+
+        cacheQuery.run(reader, config.getStdoutWriter());
+    }
+
     /**
      * Processes cache refresh.
      *
@@ -377,6 +583,11 @@ public class Main {
      */
     private static void refreshCache(final Config config) {
         final PortageParser portageParser = new PortageParser();
-        portageParser.parseTree(config);
+
+        if (config.isWatch()) {
+            portageParser.watchTree(config);
+        } else {
+            portageParser.parseTree(config);
+        }
     }
 }
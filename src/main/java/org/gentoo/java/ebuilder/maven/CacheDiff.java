@@ -0,0 +1,599 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.gentoo.java.ebuilder.portage.BinaryCache;
+import org.gentoo.java.ebuilder.portage.CacheGroupIndex;
+import org.gentoo.java.ebuilder.portage.CacheItem;
+import org.gentoo.java.ebuilder.portage.PortageParser;
+import org.gentoo.java.ebuilder.portage.TextCacheReader;
+
+/**
+ * Difference of two caches by maven artifacts. Cache items of both caches are
+ * read as streams sorted by group id, artifact id and maven version and then
+ * merged, so every artifact is compared only once and only cache items of
+ * single artifact are held in memory. Records of caches written by refresh
+ * are already in this order. Artifact is changed if any of its cache
+ * items differs in a field that affects resolution of dependencies. The
+ * difference is used to find generated ebuilds whose dependencies would
+ * resolve differently with the new cache.
+ *
+ * @author fordfrog
+ */
+public class CacheDiff {
+
+    /**
+     * Comparator of cache items by group id, artifact id and maven version.
+     */
+    private static final Comparator<CacheItem> ITEM_COMPARATOR
+            = Comparator.comparing(CacheItem::getGroupId).
+                    thenComparing(CacheItem::getArtifactId).
+                    thenComparing(CacheItem::getParsedMavenVersion);
+    /**
+     * Prefix of dependency comments in generated ebuilds.
+     */
+    private static final String PREFIX_COMMENT = "# ";
+    /**
+     * Separator of maven coordinates and dependency atom in dependency
+     * comments.
+     */
+    private static final String SEPARATOR_ATOM = " -> ";
+    /**
+     * Artifacts (groupId:artifactId) that are present only in the new cache.
+     */
+    private final List<String> added = new ArrayList<>(100);
+    /**
+     * Artifacts (groupId:artifactId) whose cache items differ.
+     */
+    private final List<String> changed = new ArrayList<>(100);
+    /**
+     * Group ids that are present only in one of the caches.
+     */
+    private final Set<String> changedGroupIds = new HashSet<>(10);
+    /**
+     * Artifacts (groupId:artifactId) that are present only in the old cache.
+     */
+    private final List<String> removed = new ArrayList<>(100);
+
+    /**
+     * Computes difference of the caches.
+     *
+     * @param oldCacheFile old cache file path
+     * @param newCacheFile new cache file path
+     *
+     * @return cache difference
+     */
+    public static CacheDiff compute(final Path oldCacheFile,
+            final Path newCacheFile) {
+        final CacheDiff result = new CacheDiff();
+
+        try (final Stream<CacheItem> oldItems = streamCacheItems(oldCacheFile);
+                final Stream<CacheItem> newItems
+                = streamCacheItems(newCacheFile)) {
+            result.merge(oldItems.iterator(), newItems.iterator());
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns stream of cache items that have maven coordinates from the
+     * cache file sorted by group id, artifact id and maven version. If the
+     * cache file is shard index, sorted streams of the shards are merged and
+     * for the same maven version items of earlier shards come first. The
+     * stream has to be closed.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return stream of sorted cache items
+     */
+    static Stream<CacheItem> streamCacheItems(final Path cacheFile) {
+        final List<Path> files = PortageParser.listCacheFiles(cacheFile);
+
+        if (files.size() == 1) {
+            return streamFileCacheItems(files.get(0));
+        }
+
+        final List<Stream<CacheItem>> streams = new ArrayList<>(files.size());
+        final List<Iterator<CacheItem>> iterators
+                = new ArrayList<>(files.size());
+
+        for (final Path file : files) {
+            final Stream<CacheItem> stream = streamFileCacheItems(file);
+            streams.add(stream);
+            iterators.add(stream.iterator());
+        }
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                new MergingIterator(iterators), Spliterator.ORDERED), false).
+                onClose(() -> streams.forEach(Stream::close));
+    }
+
+    /**
+     * Returns stream of cache items that have maven coordinates from single
+     * cache file sorted by group id, artifact id and maven version. Binary
+     * cache and text cache with valid sorted group index are read record by
+     * record, other text caches are read whole and sorted.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return stream of sorted cache items
+     */
+    private static Stream<CacheItem> streamFileCacheItems(
+            final Path cacheFile) {
+        final Stream<CacheItem> result;
+
+        if (BinaryCache.isBinaryCache(cacheFile)) {
+            result = new BinaryCache(cacheFile).streamCacheItems().
+                    filter(CacheDiff::hasMavenId);
+        } else {
+            final CacheGroupIndex index = CacheGroupIndex.read(cacheFile);
+
+            if (index != null && index.isSorted()) {
+                try {
+                    result = Files.lines(cacheFile, StandardCharsets.UTF_8).
+                            filter(CacheDiff::isRecord).
+                            map(CacheItem::new).
+                            filter(CacheDiff::hasMavenId);
+                } catch (final IOException ex) {
+                    throw new RuntimeException("Failed to read cache file @ "
+                            + cacheFile, ex);
+                }
+            } else {
+                // sorting is stable, so items with the same maven version
+                // keep the order in which they win
+                result = new TextCacheReader(cacheFile).readCacheItems(1).
+                        stream().
+                        filter(CacheDiff::hasMavenId).
+                        sorted(ITEM_COMPARATOR);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether the cache item has maven coordinates.
+     *
+     * @param cacheItem cache item
+     *
+     * @return true if group id, artifact id and maven version are set,
+     *         otherwise false
+     */
+    private static boolean hasMavenId(final CacheItem cacheItem) {
+        return cacheItem.getGroupId() != null
+                && cacheItem.getArtifactId() != null
+                && cacheItem.getMavenVersion() != null;
+    }
+
+    /**
+     * Checks whether the line of text cache is a record, that is it is not
+     * the version line, a header or an empty line.
+     *
+     * @param line cache file line
+     *
+     * @return true if the line is a record, otherwise false
+     */
+    private static boolean isRecord(final String line) {
+        return !line.isEmpty() && line.charAt(0) != '#'
+                && line.indexOf(':') != -1;
+    }
+
+    /**
+     * Checks whether the cache items are of the same artifact.
+     *
+     * @param o1 cache item
+     * @param o2 cache item
+     *
+     * @return true if group ids and artifact ids are the same, otherwise
+     *         false
+     */
+    private static boolean isSameArtifact(final CacheItem o1,
+            final CacheItem o2) {
+        return o1.getGroupId().equals(o2.getGroupId())
+                && o1.getArtifactId().equals(o2.getArtifactId());
+    }
+
+    /**
+     * Checks whether the cache items are the same for dependency resolution.
+     *
+     * @param o1 cache item
+     * @param o2 cache item
+     *
+     * @return true if the cache items resolve to the same dependency,
+     *         otherwise false
+     */
+    private static boolean isSame(final CacheItem o1, final CacheItem o2) {
+        return o1.getCategory().equals(o2.getCategory())
+                && o1.getPkg().equals(o2.getPkg())
+                && o1.getVersion().equals(o2.getVersion())
+                && o1.getSlot().equals(o2.getSlot())
+                && Objects.equals(o1.getUseFlag(), o2.getUseFlag())
+                && Objects.equals(o1.getMavenVersion(), o2.getMavenVersion());
+    }
+
+    /**
+     * Returns artifact key of the cache item.
+     *
+     * @param cacheItem cache item
+     *
+     * @return groupId:artifactId
+     */
+    private static String getKey(final CacheItem cacheItem) {
+        return cacheItem.getGroupId() + ':' + cacheItem.getArtifactId();
+    }
+
+    /**
+     * Creates new instance of CacheDiff.
+     */
+    private CacheDiff() {
+    }
+
+    /**
+     * Finds ebuilds in the directories whose dependencies would resolve
+     * differently with the new cache. Dependencies are read from the
+     * <code># groupId:artifactId:version -&gt; atom</code> comments that are
+     * written to generated ebuilds. Only dependencies of changed artifacts
+     * are resolved again.
+     *
+     * @param directories directories that are searched for ebuilds
+     * @param mavenCache  maven cache loaded from the new cache file
+     *
+     * @return sorted list of ebuild paths
+     */
+    public List<Path> findChangedEbuilds(final Collection<Path> directories,
+            final MavenCache mavenCache) {
+        final List<Path> result = new ArrayList<>(100);
+
+        if (isEmpty()) {
+            return result;
+        }
+
+        final Set<String> artifacts = new HashSet<>(
+                added.size() + changed.size() + removed.size());
+        artifacts.addAll(added);
+        artifacts.addAll(changed);
+        artifacts.addAll(removed);
+
+        for (final Path directory : directories) {
+            final List<Path> ebuilds;
+
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                ebuilds = paths.filter((path) -> path.getFileName().
+                        toString().endsWith(".ebuild")
+                        && Files.isRegularFile(path)).
+                        sorted().collect(Collectors.toList());
+            } catch (final IOException ex) {
+                throw new RuntimeException("Failed to list ebuilds @ "
+                        + directory, ex);
+            }
+
+            for (final Path ebuild : ebuilds) {
+                if (resolvesDifferently(ebuild, artifacts, mavenCache)) {
+                    result.add(ebuild);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Getter for {@link #added}.
+     *
+     * @return {@link #added}
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * Getter for {@link #changed}.
+     *
+     * @return {@link #changed}
+     */
+    public List<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Getter for {@link #removed}.
+     *
+     * @return {@link #removed}
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Checks whether the caches do not differ.
+     *
+     * @return true if no artifact was added, removed or changed
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Merges sorted cache items of both caches and records artifacts that
+     * were added, removed or changed.
+     *
+     * @param oldItems sorted cache items of old cache
+     * @param newItems sorted cache items of new cache
+     */
+    private void merge(final Iterator<CacheItem> oldItems,
+            final Iterator<CacheItem> newItems) {
+        final Set<String> oldGroupIds = new HashSet<>(1_000);
+        final Set<String> newGroupIds = new HashSet<>(1_000);
+        final ArtifactReader oldArtifacts = new ArtifactReader(oldItems);
+        final ArtifactReader newArtifacts = new ArtifactReader(newItems);
+        List<CacheItem> oldArtifact = oldArtifacts.next();
+        List<CacheItem> newArtifact = newArtifacts.next();
+
+        while (oldArtifact != null || newArtifact != null) {
+            final int result;
+
+            if (oldArtifact == null) {
+                result = 1;
+            } else if (newArtifact == null) {
+                result = -1;
+            } else {
+                final CacheItem oldItem = oldArtifact.get(0);
+                final CacheItem newItem = newArtifact.get(0);
+                final int groupResult
+                        = oldItem.getGroupId().compareTo(newItem.getGroupId());
+
+                result = groupResult != 0 ? groupResult : oldItem.
+                        getArtifactId().compareTo(newItem.getArtifactId());
+            }
+
+            if (result < 0) {
+                oldGroupIds.add(oldArtifact.get(0).getGroupId());
+                removed.add(getKey(oldArtifact.get(0)));
+                oldArtifact = oldArtifacts.next();
+            } else if (result > 0) {
+                newGroupIds.add(newArtifact.get(0).getGroupId());
+                added.add(getKey(newArtifact.get(0)));
+                newArtifact = newArtifacts.next();
+            } else {
+                boolean same = oldArtifact.size() == newArtifact.size();
+
+                for (int i = 0; same && i < oldArtifact.size(); i++) {
+                    same = isSame(oldArtifact.get(i), newArtifact.get(i));
+                }
+
+                if (!same) {
+                    changed.add(getKey(newArtifact.get(0)));
+                }
+
+                oldGroupIds.add(oldArtifact.get(0).getGroupId());
+                newGroupIds.add(newArtifact.get(0).getGroupId());
+                oldArtifact = oldArtifacts.next();
+                newArtifact = newArtifacts.next();
+            }
+        }
+
+        // presence of group decides how missing artifacts of the group are
+        // reported in the ebuild
+        oldGroupIds.stream().filter((groupId) -> !newGroupIds.contains(
+                groupId)).forEach(changedGroupIds::add);
+        newGroupIds.stream().filter((groupId) -> !oldGroupIds.contains(
+                groupId)).forEach(changedGroupIds::add);
+    }
+
+    /**
+     * Checks whether some dependency of the ebuild resolves differently with
+     * the new cache.
+     *
+     * @param ebuild     ebuild path
+     * @param artifacts  keys of added, removed and changed artifacts
+     * @param mavenCache maven cache loaded from the new cache file
+     *
+     * @return true if some dependency resolves differently, otherwise false
+     */
+    private boolean resolvesDifferently(final Path ebuild,
+            final Set<String> artifacts, final MavenCache mavenCache) {
+        final List<String> lines;
+
+        try {
+            lines = Files.readAllLines(ebuild, StandardCharsets.UTF_8);
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read ebuild @ " + ebuild,
+                    ex);
+        }
+
+        for (final String line : lines) {
+            final int separator = line.indexOf(SEPARATOR_ATOM);
+
+            if (!line.startsWith(PREFIX_COMMENT) || separator == -1) {
+                continue;
+            }
+
+            // comments of test dependencies start with the USE flag, version
+            // ranges can contain spaces
+            final int useFlagEnd
+                    = line.indexOf(' ', PREFIX_COMMENT.length());
+            final int coordinatesStart = useFlagEnd != -1
+                    && useFlagEnd < separator
+                    && line.charAt(useFlagEnd - 1) == '?'
+                    ? useFlagEnd + 1 : PREFIX_COMMENT.length();
+            final String[] coordinates = line.substring(coordinatesStart,
+                    separator).split(":", 3);
+
+            if (coordinates.length != 3) {
+                continue;
+            }
+
+            if (!artifacts.contains(coordinates[0] + ':' + coordinates[1])
+                    && !changedGroupIds.contains(coordinates[0])) {
+                continue;
+            }
+
+            final String atom = line.substring(
+                    separator + SEPARATOR_ATOM.length());
+
+            if (!atom.equals(mavenCache.getDependency(coordinates[0],
+                    coordinates[1], coordinates[2]))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reader of cache items of sorted stream grouped by artifacts.
+     */
+    private static class ArtifactReader {
+
+        /**
+         * Sorted cache items.
+         */
+        private final Iterator<CacheItem> cacheItems;
+        /**
+         * Cache item that was read but belongs to the next artifact or null.
+         */
+        private CacheItem pending;
+
+        /**
+         * Creates new instance of ArtifactReader.
+         *
+         * @param cacheItems {@link #cacheItems}
+         */
+        ArtifactReader(final Iterator<CacheItem> cacheItems) {
+            this.cacheItems = cacheItems;
+        }
+
+        /**
+         * Reads cache items of the next artifact.
+         *
+         * @return cache items of the artifact sorted by maven version or
+         *         null if there are no more cache items
+         */
+        List<CacheItem> next() {
+            if (pending == null && !cacheItems.hasNext()) {
+                return null;
+            }
+
+            final List<CacheItem> result = new ArrayList<>(10);
+            result.add(pending == null ? cacheItems.next() : pending);
+            pending = null;
+
+            while (cacheItems.hasNext()) {
+                final CacheItem cacheItem = cacheItems.next();
+
+                if (!isSameArtifact(result.get(0), cacheItem)) {
+                    pending = cacheItem;
+
+                    break;
+                }
+
+                result.add(cacheItem);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Iterator that merges sorted iterators. For the same group id, artifact
+     * id and maven version cache items of earlier iterators come first.
+     */
+    private static class MergingIterator implements Iterator<CacheItem> {
+
+        /**
+         * Iterators with their current cache items, ordered by the current
+         * cache items and by index of the iterator.
+         */
+        private final PriorityQueue<Head> heads;
+
+        /**
+         * Creates new instance of MergingIterator.
+         *
+         * @param iterators sorted iterators in order of their priority
+         */
+        MergingIterator(final List<Iterator<CacheItem>> iterators) {
+            heads = new PriorityQueue<>(Math.max(1, iterators.size()),
+                    Comparator.comparing((final Head head) -> head.cacheItem,
+                            ITEM_COMPARATOR).
+                            thenComparingInt((final Head head) -> head.index));
+
+            for (int i = 0; i < iterators.size(); i++) {
+                if (iterators.get(i).hasNext()) {
+                    heads.add(new Head(iterators.get(i), i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public CacheItem next() {
+            final Head head = heads.poll();
+
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+
+            final CacheItem result = head.cacheItem;
+
+            if (head.iterator.hasNext()) {
+                head.cacheItem = head.iterator.next();
+                heads.add(head);
+            }
+
+            return result;
+        }
+
+        /**
+         * Iterator with its current cache item.
+         */
+        private static class Head {
+
+            /**
+             * Current cache item.
+             */
+            private CacheItem cacheItem;
+            /**
+             * Index of the iterator.
+             */
+            private final int index;
+            /**
+             * Iterator.
+             */
+            private final Iterator<CacheItem> iterator;
+
+            /**
+             * Creates new instance of Head and reads the first cache item.
+             *
+             * @param iterator {@link #iterator}
+             * @param index    {@link #index}
+             */
+            Head(final Iterator<CacheItem> iterator, final int index) {
+                this.iterator = iterator;
+                this.index = index;
+                cacheItem = iterator.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.gentoo.java.ebuilder.Config;
+import org.gentoo.java.ebuilder.portage.CacheItem;
+
+/**
+ * Answers queries about cache items from a stream of queries, one result line
+ * for every query line. The caches are loaded only once as
+ * {@link MavenCache}, so binary caches are only mapped to memory and groups
+ * of indexed text caches are read when they are requested, and scripts do
+ * not need to scan the cache files for every artifact. Index of portage
+ * packages is built on the first <code>providers</code> query. Supported
+ * queries are:
+ * <ul>
+ * <li><code>atom groupId:artifactId:version</code> - dependency atom that
+ * the version resolves to</li>
+ * <li><code>category groupId:artifactId</code> - portage category of the
+ * artifact or empty line</li>
+ * <li><code>exists groupId:artifactId</code> - <code>yes</code> or
+ * <code>no</code></li>
+ * <li><code>providers category/pkg</code> - space separated artifacts
+ * (groupId:artifactId) provided by the package or empty line</li>
+ * <li><code>add cache-line</code> - adds cache line to the loaded cache and
+ * prints <code>ok</code></li>
+ * </ul>
+ * Invalid queries are answered with line starting with <code>error</code>.
+ *
+ * @author fordfrog
+ */
+public class CacheQuery {
+
+    /**
+     * Cache items that were added by queries.
+     */
+    private final List<CacheItem> addedItems = new ArrayList<>(10);
+    /**
+     * Cache files in order of their priority.
+     */
+    private final List<Path> cacheFiles;
+    /**
+     * Maven cache.
+     */
+    private final MavenCache mavenCache = new MavenCache();
+    /**
+     * Map of portage packages (category/pkg) and artifacts they provide or
+     * null if no package was queried yet.
+     */
+    private Map<String, Set<String>> packages;
+
+    /**
+     * Creates new instance of CacheQuery and loads the cache files. Cache
+     * files other than the first one are layered over it and they may be
+     * missing, for the same maven version the item from earlier cache file
+     * is used. Progress of loading is written to error writer, so that
+     * standard output contains only query results.
+     *
+     * @param config application configuration
+     */
+    public CacheQuery(final Config config) {
+        cacheFiles = config.getCacheFiles();
+
+        final Config loadConfig = new Config(config.getErrorWriter(),
+                config.getErrorWriter());
+        cacheFiles.forEach(loadConfig::addCacheFile);
+        loadConfig.setLoadThreads(config.getLoadThreads());
+        loadConfig.setRangeHighest(config.isRangeHighest());
+        mavenCache.loadCache(loadConfig);
+    }
+
+    /**
+     * Answers single query.
+     *
+     * @param query query line
+     *
+     * @return result line
+     */
+    public String query(final String query) {
+        final int space = query.indexOf(' ');
+        final String command = space == -1 ? query : query.substring(0, space);
+        final String argument
+                = space == -1 ? "" : query.substring(space + 1).trim();
+
+        switch (command) {
+            case "":
+                return "";
+            case "add":
+                final CacheItem cacheItem = new CacheItem(argument);
+
+                if (cacheItem.getGroupId() == null
+                        || cacheItem.getArtifactId() == null
+                        || cacheItem.getMavenVersion() == null) {
+                    return "error cache line without maven coordinates: "
+                            + argument;
+                }
+
+                mavenCache.addCacheItem(cacheItem);
+                addedItems.add(cacheItem);
+
+                if (packages != null) {
+                    addProvider(cacheItem);
+                }
+
+                return "ok";
+            case "atom":
+                final String[] coordinates = argument.split(":");
+
+                if (coordinates.length != 3) {
+                    return "error expected groupId:artifactId:version: "
+                            + argument;
+                }
+
+                return mavenCache.getDependency(coordinates[0],
+                        coordinates[1], coordinates[2]);
+            case "category":
+                final List<CacheItem> versions = getCacheItems(argument);
+
+                return versions.isEmpty() ? "" : versions.get(0).getCategory();
+            case "exists":
+                return getCacheItems(argument).isEmpty() ? "no" : "yes";
+            case "providers":
+                if (packages == null) {
+                    readPackages();
+                }
+
+                return String.join(" ", packages.getOrDefault(argument,
+                        Collections.emptySet()));
+            default:
+                return "error unknown query: " + query;
+        }
+    }
+
+    /**
+     * Reads queries from the reader until end of input and writes one result
+     * line for every query.
+     *
+     * @param reader queries reader
+     * @param writer results writer
+     */
+    public void run(final BufferedReader reader, final PrintWriter writer) {
+        try {
+            String line = reader.readLine();
+
+            while (line != null) {
+                String result;
+
+                try {
+                    result = query(line);
+                } catch (final RuntimeException ex) {
+                    result = "error " + ex.getMessage();
+                }
+
+                writer.println(result);
+                line = reader.readLine();
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read queries", ex);
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Adds artifact of the cache item to artifacts provided by its portage
+     * package.
+     *
+     * @param cacheItem cache item with maven coordinates
+     */
+    private void addProvider(final CacheItem cacheItem) {
+        packages.computeIfAbsent(
+                cacheItem.getCategory() + '/' + cacheItem.getPkg(),
+                (key) -> new LinkedHashSet<>(2)).add(
+                cacheItem.getGroupId() + ':' + cacheItem.getArtifactId());
+    }
+
+    /**
+     * Returns cache items of the artifact.
+     *
+     * @param artifact groupId:artifactId
+     *
+     * @return cache items sorted by maven version, empty list if the
+     *         artifact is not present
+     */
+    private List<CacheItem> getCacheItems(final String artifact) {
+        final String[] coordinates = artifact.split(":");
+
+        if (coordinates.length != 2) {
+            return Collections.emptyList();
+        }
+
+        return mavenCache.getCacheItems(coordinates[0], coordinates[1]);
+    }
+
+    /**
+     * Reads index of portage packages by streaming records of the cache
+     * files, cache items are not kept in memory.
+     */
+    private void readPackages() {
+        packages = new HashMap<>(10_000);
+        boolean base = true;
+
+        for (final Path cacheFile : cacheFiles) {
+            if (base || Files.exists(cacheFile)) {
+                try (final Stream<CacheItem> cacheItems
+                        = CacheDiff.streamCacheItems(cacheFile)) {
+                    cacheItems.forEachOrdered(this::addProvider);
+                }
+            }
+
+            base = false;
+        }
+
+        addedItems.forEach(this::addProvider);
+    }
+}
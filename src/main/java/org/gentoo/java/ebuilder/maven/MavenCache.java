@@ -1,16 +1,29 @@
 package org.gentoo.java.ebuilder.maven;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.gentoo.java.ebuilder.Config;
+import org.gentoo.java.ebuilder.portage.BinaryCache;
+import org.gentoo.java.ebuilder.portage.CacheGroupIndex;
 import org.gentoo.java.ebuilder.portage.CacheItem;
 import org.gentoo.java.ebuilder.portage.MavenVersion;
 import org.gentoo.java.ebuilder.portage.PortageParser;
+import org.gentoo.java.ebuilder.portage.TextCacheReader;
+import org.gentoo.java.ebuilder.portage.VersionRange;
 
 /**
  * Cache for resolving maven artifacts into portage ebuilds.
@@ -20,17 +33,73 @@ import org.gentoo.java.ebuilder.portage.PortageParser;
 public class MavenCache {
 
     /**
-     * Cache containing map of group ids, artifact ids and corresponding cache
-     * items.
+     * Comparator of cache items by maven version.
      */
-    private final Map<String, Map<String, List<CacheItem>>> cache
-            = new HashMap<>();
+    private static final Comparator<CacheItem> MAVEN_VERSION_COMPARATOR
+            = (final CacheItem o1, final CacheItem o2) -> {
+                return o1.getParsedMavenVersion().compareTo(
+                        o2.getParsedMavenVersion());
+            };
+    /**
+     * Version of metrics report format.
+     */
+    private static final int METRICS_VERSION = 1;
+    /**
+     * Maximum number of resolved dependencies that are remembered.
+     */
+    private static final int MAX_RESOLVED = 10_000;
+    /**
+     * Layer of cache items that were added after the cache was loaded or
+     * null if no cache item was added. It has the lowest priority.
+     */
+    private HeapLayer addedLayer;
+    /**
+     * Loaded cache layers in order of their priority.
+     */
+    private final List<CacheLayer> layers = new ArrayList<>(5);
+    /**
+     * Whether the highest version in maven version range is used instead of
+     * the lowest one.
+     */
+    private boolean rangeHighest;
+    /**
+     * Recently resolved dependencies by groupId:artifactId:version:match.
+     * The same dependencies are resolved repeatedly, like the ones shared by
+     * modules of multi-module projects. Least recently used dependencies are
+     * removed when the map is full.
+     */
+    private final Map<String, String> resolved
+            = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, String> eldest) {
+            return size() > MAX_RESOLVED;
+        }
+    };
+    /**
+     * Number of dependencies that were found in {@link #resolved}.
+     */
+    private long resolvedHits;
+    /**
+     * Number of dependencies that were not found in {@link #resolved}.
+     */
+    private long resolvedMisses;
+    /**
+     * Version indexes of artifacts (groupId:artifactId) that were already
+     * requested.
+     */
+    private final Map<String, VersionIndex> versionIndexes
+            = new HashMap<>(1_000);
 
     /**
      * Searches for system dependency using maven group id, artifact id and
      * version. First version that is the same or greater than specified version
      * is returned. In case there is no such version, the highest version from
      * the available ebuilds is returned.
+     * Version range resolves to the lowest available version in the range or
+     * to the highest one if {@link Config#isRangeHighest()} is set.
      *
      * @param groupId    maven group id
      * @param artifactId maven artifact id
@@ -40,30 +109,326 @@ public class MavenCache {
      */
     public String getDependency(final String groupId, final String artifactId,
             final String version) {
-        final Map<String, List<CacheItem>> artifactIds = cache.get(groupId);
+        return getDependency(groupId, artifactId, version,
+                VersionMatch.CEILING);
+    }
+
+    /**
+     * Searches for system dependency using maven group id, artifact id and
+     * version. Available versions of the artifact are searched using binary
+     * search in version index of the artifact.
+     *
+     * @param groupId    maven group id
+     * @param artifactId maven artifact id
+     * @param version    maven version
+     * @param match      how the version is matched
+     *
+     * @return dependency string
+     */
+    public String getDependency(final String groupId, final String artifactId,
+            final String version, final VersionMatch match) {
+        final String key
+                = groupId + ':' + artifactId + ':' + version + ':' + match;
+        String result = resolved.get(key);
+
+        if (result != null) {
+            resolvedHits++;
+
+            return result;
+        }
+
+        resolvedMisses++;
+        result = resolveDependency(groupId, artifactId, version, match);
+        resolved.put(key, result);
+
+        return result;
+    }
+
+    /**
+     * Adds cache item with maven coordinates after the loaded cache layers,
+     * so for the same maven version the loaded cache item is used.
+     * Dependencies that were already resolved are forgotten as they might
+     * resolve differently now.
+     *
+     * @param cacheItem cache item
+     */
+    void addCacheItem(final CacheItem cacheItem) {
+        if (addedLayer == null) {
+            addedLayer = new HeapLayer();
+            layers.add(addedLayer);
+        }
+
+        addedLayer.addCacheItem(cacheItem, false);
+        addedLayer.sort();
+        versionIndexes.remove(
+                cacheItem.getGroupId() + ':' + cacheItem.getArtifactId());
+        resolved.clear();
+    }
+
+    /**
+     * Checks whether some cache layer contains the group id.
+     *
+     * @param groupId maven group id
+     *
+     * @return true if the group id is present, otherwise false
+     */
+    boolean containsGroupId(final String groupId) {
+        return layers.stream().anyMatch(
+                (layer) -> layer.containsGroupId(groupId));
+    }
+
+    /**
+     * Getter for {@link #resolvedHits}.
+     *
+     * @return {@link #resolvedHits}
+     */
+    public long getResolvedHits() {
+        return resolvedHits;
+    }
+
+    /**
+     * Getter for {@link #resolvedMisses}.
+     *
+     * @return {@link #resolvedMisses}
+     */
+    public long getResolvedMisses() {
+        return resolvedMisses;
+    }
+
+    /**
+     * Loads caches from specified paths. Every cache file is loaded as
+     * separate layer, lookups merge cache items of all layers and for the
+     * same maven version the item from earlier layer is used. Cache files
+     * other than the first one are optional and they do not need to contain
+     * the version line, so that they can be simple append-only files.
+     *
+     * @param config application configuration
+     */
+    public void loadCache(final Config config) {
+        config.getStdoutWriter().print("Reading in maven cache...");
+
+        layers.clear();
+        addedLayer = null;
+        versionIndexes.clear();
+        resolved.clear();
+        rangeHighest = config.isRangeHighest();
+
+        for (final Path cacheFile : config.getCacheFiles()) {
+            final boolean base = layers.isEmpty();
+
+            if (base || Files.exists(cacheFile)) {
+                layers.add(loadLayer(config, cacheFile, base));
+            }
+        }
+
+        config.getStdoutWriter().println("done");
+    }
+
+    /**
+     * Writes JSON report with numbers of resolved and reused dependencies.
+     *
+     * @param path report path
+     */
+    public void writeMetrics(final Path path) {
+        try (final Writer writer = new OutputStreamWriter(
+                Files.newOutputStream(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"version\": " + METRICS_VERSION + ",\n");
+            writer.write("  \"timestamp\": " + System.currentTimeMillis()
+                    + ",\n");
+            writer.write("  \"resolvedDependencies\": " + resolvedMisses
+                    + ",\n");
+            writer.write("  \"reusedDependencies\": " + resolvedHits + "\n");
+            writer.write("}\n");
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to write metrics file @ "
+                    + path, ex);
+        }
+    }
+
+    /**
+     * Returns cache items of the artifact from all layers.
+     *
+     * @param groupId    maven group id
+     * @param artifactId maven artifact id
+     *
+     * @return cache items sorted by maven version
+     */
+    List<CacheItem> getCacheItems(final String groupId,
+            final String artifactId) {
+        List<CacheItem> result = Collections.emptyList();
+        boolean merged = false;
+
+        for (final CacheLayer layer : layers) {
+            final List<CacheItem> cacheItems
+                    = layer.getCacheItems(groupId, artifactId);
 
-        if (artifactIds == null) {
+            if (cacheItems.isEmpty()) {
+                continue;
+            } else if (result.isEmpty()) {
+                result = cacheItems;
+            } else {
+                if (!merged) {
+                    result = new ArrayList<>(result);
+                    merged = true;
+                }
+
+                result.addAll(cacheItems);
+            }
+        }
+
+        // sorting is stable, so items of earlier layers win
+        if (merged) {
+            result.sort(MAVEN_VERSION_COMPARATOR);
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolves system dependency using version index of the artifact.
+     *
+     * @param groupId    maven group id
+     * @param artifactId maven artifact id
+     * @param version    maven version
+     * @param match      how the version is matched
+     *
+     * @return dependency string
+     */
+    private String resolveDependency(final String groupId,
+            final String artifactId, final String version,
+            final VersionMatch match) {
+        if (!containsGroupId(groupId)) {
             return "!!!groupId-not-found!!!";
         }
 
-        final List<CacheItem> versions = artifactIds.get(artifactId);
+        final VersionIndex versionIndex = versionIndexes.computeIfAbsent(
+                groupId + ':' + artifactId, (key) -> new VersionIndex(
+                        getCacheItems(groupId, artifactId)));
 
-        if (versions == null) {
+        if (versionIndex.isEmpty()) {
             return "!!!artifactId-not-found!!!";
         }
 
-        final MavenVersion mavenVersion = new MavenVersion(version);
-        CacheItem cacheItem = null;
+        return resolve(versionIndex, version, match, rangeHighest);
+    }
+
+    /**
+     * Loads cache layer from specified path. If the cache file is shard
+     * index, all the shards are loaded. Binary cache is only mapped to memory
+     * and searched in place. If all cache files contain valid group index,
+     * only the indexes are read and groups are loaded when they are requested
+     * for the first time.
+     *
+     * @param config    application configuration
+     * @param cacheFile cache file path
+     * @param base      whether the cache is base cache, cache layered over it
+     *                  does not need to contain the version line
+     *
+     * @return cache layer
+     */
+    private CacheLayer loadLayer(final Config config, final Path cacheFile,
+            final boolean base) {
+        if (BinaryCache.isBinaryCache(cacheFile)) {
+            return new MappedLayer(new BinaryCache(cacheFile));
+        }
+
+        final List<Path> cacheFiles = PortageParser.listCacheFiles(cacheFile);
+        final List<CacheGroupIndex> indexes = readGroupIndexes(cacheFiles);
+
+        if (indexes != null) {
+            return new LazyLayer(indexes);
+        }
+
+        final HeapLayer heapLayer = new HeapLayer();
+
+        // shards are read in order of their priority and sorting is stable,
+        // so for the same maven version the item from earlier shard is used
+        for (final Path file : cacheFiles) {
+            final TextCacheReader reader = new TextCacheReader(file);
+
+            if ("1.0".equals(reader.getVersion())) {
+                config.getStdoutWriter().print("(warning: format is not "
+                        + "up-to-date, consider refreshing the cache)...");
+            } else if (!PortageParser.CACHE_VERSION.equals(
+                    reader.getVersion())
+                    && (base || reader.getVersion() != null)) {
+                config.getErrorWriter().println("ERROR: Unsupported "
+                        + "version of cache. Please refresh the cache "
+                        + "using command line switch --refresh-cache.");
+                Runtime.getRuntime().exit(1);
+            }
+
+            // only records of single cache file can be in order, records
+            // that were added to the file after it was written are not
+            long sortedRecords = 0;
+
+            for (final String header : reader.getHeaders()) {
+                if (header.startsWith(CacheGroupIndex.PREFIX_SORTED)
+                        && cacheFiles.size() == 1) {
+                    sortedRecords = Long.parseLong(header.substring(
+                            CacheGroupIndex.PREFIX_SORTED.length()));
+                }
+            }
+
+            for (final CacheItem cacheItem
+                    : reader.readCacheItems(config.getLoadThreads())) {
+                heapLayer.addCacheItem(cacheItem, sortedRecords-- > 0);
+            }
+        }
+
+        heapLayer.sort();
 
-        for (final CacheItem curCacheItem : versions) {
-            if (curCacheItem.getParsedMavenVersion().compareTo(mavenVersion)
-                    >= 0) {
-                cacheItem = curCacheItem;
+        return heapLayer;
+    }
 
-                break;
+    /**
+     * Reads group indexes of the cache files.
+     *
+     * @param cacheFiles cache file paths
+     *
+     * @return list of group indexes or null if some of the cache files does
+     *         not contain valid group index
+     */
+    private static List<CacheGroupIndex> readGroupIndexes(
+            final List<Path> cacheFiles) {
+        final List<CacheGroupIndex> result = new ArrayList<>(cacheFiles.size());
+
+        for (final Path cacheFile : cacheFiles) {
+            final CacheGroupIndex index = CacheGroupIndex.read(cacheFile);
+
+            if (index == null) {
+                return null;
             }
+
+            result.add(index);
         }
 
+        return result;
+    }
+
+    /**
+     * Resolves system dependency from version index of the artifact.
+     *
+     * @param versionIndex version index of the artifact
+     * @param version      maven version or version range
+     * @param match        how the version is matched, it is not used for
+     *                     version range
+     * @param rangeHighest whether the highest version in version range is
+     *                     used instead of the lowest one
+     *
+     * @return dependency string
+     */
+    static String resolve(final VersionIndex versionIndex,
+            final String version, final VersionMatch match,
+            final boolean rangeHighest) {
+        final CacheItem cacheItem = VersionRange.isRange(version)
+                ? versionIndex.find(new VersionRange(version), rangeHighest)
+                : versionIndex.find(MavenVersion.of(version), match);
+
         if (cacheItem == null) {
             return "!!!suitable-mavenVersion-not-found!!!";
         }
@@ -93,90 +458,218 @@ public class MavenCache {
     }
 
     /**
-     * Loads cache from specified path.
+     * Strips all -r* from the version string.
      *
-     * @param config application configuration
+     * @param version version string
+     *
+     * @return stripped version string
      */
-    public void loadCache(final Config config) {
-        config.getStdoutWriter().print("Reading in maven cache...");
+    private static String stripExtraFromVersion(final String version) {
+        return version.replaceAll("-r\\d+", "");
+    }
 
-        cache.clear();
+    /**
+     * Loaded cache that can be searched for cache items of an artifact.
+     */
+    private interface CacheLayer {
 
-        try (final BufferedReader reader = new BufferedReader(
-                new FileReader(config.getCacheFile().toFile()))) {
-            String line = reader.readLine();
+        /**
+         * Checks whether the cache contains the group id.
+         *
+         * @param groupId maven group id
+         *
+         * @return true if the group id is present, otherwise false
+         */
+        boolean containsGroupId(String groupId);
 
-            if ("1.0".equals(line)) {
-                config.getStdoutWriter().print("(warning: format is not "
-                        + "up-to-date, consider refreshing the cache)...");
-            } else if (!PortageParser.CACHE_VERSION.equals(line)) {
-                config.getErrorWriter().println("ERROR: Unsupported version of "
-                        + "cache. Please refresh the cache using command line "
-                        + "switch --refresh-cache.");
-                Runtime.getRuntime().exit(1);
-            }
+        /**
+         * Returns cache items of the artifact.
+         *
+         * @param groupId    maven group id
+         * @param artifactId maven artifact id
+         *
+         * @return cache items sorted by maven version, empty list if the
+         *         artifact is not present
+         */
+        List<CacheItem> getCacheItems(String groupId, String artifactId);
+    }
 
-            line = reader.readLine();
+    /**
+     * Cache layer with all cache items loaded to heap.
+     */
+    private static class HeapLayer implements CacheLayer {
 
-            while (line != null) {
-                if (!line.isEmpty() && line.charAt(0) != '#') {
-                    addCacheItem(new CacheItem(line));
-                }
+        /**
+         * Cache containing map of group ids, artifact ids and corresponding
+         * cache items.
+         */
+        private final Map<String, Map<String, List<CacheItem>>> cache
+                = new HashMap<>();
+        /**
+         * Lists of cache items that are not sorted by maven version.
+         */
+        private final Set<List<CacheItem>> unsorted
+                = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        @Override
+        public boolean containsGroupId(final String groupId) {
+            return cache.containsKey(groupId);
+        }
+
+        @Override
+        public List<CacheItem> getCacheItems(final String groupId,
+                final String artifactId) {
+            final Map<String, List<CacheItem>> artifactIds
+                    = cache.get(groupId);
 
-                line = reader.readLine();
+            if (artifactIds == null || !artifactIds.containsKey(artifactId)) {
+                return Collections.emptyList();
             }
-        } catch (final IOException ex) {
-            throw new RuntimeException("Failed to load cache", ex);
+
+            return artifactIds.get(artifactId);
         }
 
-        for (final Map<String, List<CacheItem>> artifactIds : cache.values()) {
-            for (final List<CacheItem> versions : artifactIds.values()) {
-                versions.sort((final CacheItem o1, final CacheItem o2) -> {
-                    return o1.getParsedMavenVersion().compareTo(
-                            o2.getParsedMavenVersion());
-                });
+        /**
+         * Adds cache item to the cache if it contains maven id.
+         *
+         * @param cacheItem cache item
+         * @param inOrder   whether the cache item is known to be in order of
+         *                  maven version after the already added cache items
+         *                  of the artifact
+         */
+        void addCacheItem(final CacheItem cacheItem, final boolean inOrder) {
+            if (cacheItem.getGroupId() == null) {
+                return;
+            }
+
+            Map<String, List<CacheItem>> artifactIds
+                    = cache.get(cacheItem.getGroupId());
+
+            if (artifactIds == null) {
+                artifactIds = new HashMap<>();
+                cache.put(cacheItem.getGroupId(), artifactIds);
+            }
+
+            List<CacheItem> versions
+                    = artifactIds.get(cacheItem.getArtifactId());
+
+            if (versions == null) {
+                versions = new ArrayList<>(10);
+                artifactIds.put(cacheItem.getArtifactId(), versions);
+            }
+
+            versions.add(cacheItem);
+
+            if (!inOrder) {
+                unsorted.add(versions);
             }
         }
 
-        config.getStdoutWriter().println("done");
+        /**
+         * Sorts cache items of artifacts that are not in order by maven
+         * version.
+         */
+        void sort() {
+            for (final List<CacheItem> versions : unsorted) {
+                versions.sort(MAVEN_VERSION_COMPARATOR);
+            }
+
+            unsorted.clear();
+        }
     }
 
     /**
-     * Adds cache item to the cache if it contains maven id.
-     *
-     * @param cacheItem cache item
+     * Cache layer that loads groups from text cache files using their group
+     * indexes. Every group is loaded and sorted only once, when it is
+     * requested for the first time.
      */
-    private void addCacheItem(final CacheItem cacheItem) {
-        if (cacheItem.getGroupId() == null) {
-            return;
-        }
+    private static class LazyLayer implements CacheLayer {
 
-        Map<String, List<CacheItem>> artifactIds
-                = cache.get(cacheItem.getGroupId());
+        /**
+         * Loaded groups.
+         */
+        private final Map<String, HeapLayer> groups = new HashMap<>(100);
+        /**
+         * Group indexes of cache files in order of their priority.
+         */
+        private final List<CacheGroupIndex> indexes;
 
-        if (artifactIds == null) {
-            artifactIds = new HashMap<>();
-            cache.put(cacheItem.getGroupId(), artifactIds);
+        /**
+         * Creates new instance of LazyLayer.
+         *
+         * @param indexes {@link #indexes}
+         */
+        LazyLayer(final List<CacheGroupIndex> indexes) {
+            this.indexes = indexes;
         }
 
-        List<CacheItem> versions = artifactIds.get(cacheItem.getArtifactId());
+        @Override
+        public boolean containsGroupId(final String groupId) {
+            return indexes.stream().anyMatch(
+                    (index) -> index.containsGroupId(groupId));
+        }
 
-        if (versions == null) {
-            versions = new ArrayList<>(10);
-            artifactIds.put(cacheItem.getArtifactId(), versions);
+        @Override
+        public List<CacheItem> getCacheItems(final String groupId,
+                final String artifactId) {
+            return groups.computeIfAbsent(groupId, this::loadGroup).
+                    getCacheItems(groupId, artifactId);
         }
 
-        versions.add(cacheItem);
+        /**
+         * Loads group from all cache files. Items of the group need to be
+         * sorted only if they come from more than one cache file or the
+         * cache file is not sorted.
+         *
+         * @param groupId maven group id
+         *
+         * @return layer with cache items of the group
+         */
+        private HeapLayer loadGroup(final String groupId) {
+            final HeapLayer result = new HeapLayer();
+
+            final boolean inOrder
+                    = indexes.size() == 1 && indexes.get(0).isSorted();
+
+            for (final CacheGroupIndex index : indexes) {
+                index.readGroup(groupId).forEach(
+                        (cacheItem) -> result.addCacheItem(cacheItem, inOrder));
+            }
+
+            result.sort();
+
+            return result;
+        }
     }
 
     /**
-     * Strips all -r* from the version string.
-     *
-     * @param version version string
-     *
-     * @return stripped version string
+     * Cache layer backed by memory mapped binary cache.
      */
-    private String stripExtraFromVersion(final String version) {
-        return version.replaceAll("-r\\d+", "");
+    private static class MappedLayer implements CacheLayer {
+
+        /**
+         * Binary cache.
+         */
+        private final BinaryCache binaryCache;
+
+        /**
+         * Creates new instance of MappedLayer.
+         *
+         * @param binaryCache {@link #binaryCache}
+         */
+        MappedLayer(final BinaryCache binaryCache) {
+            this.binaryCache = binaryCache;
+        }
+
+        @Override
+        public boolean containsGroupId(final String groupId) {
+            return binaryCache.containsGroupId(groupId);
+        }
+
+        @Override
+        public List<CacheItem> getCacheItems(final String groupId,
+                final String artifactId) {
+            return binaryCache.getCacheItems(groupId, artifactId);
+        }
     }
 }
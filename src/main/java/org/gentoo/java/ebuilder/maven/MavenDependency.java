@@ -51,7 +51,7 @@ public class MavenDependency {
         this.version = version;
         this.scope = scope;
         this.systemDependency = systemDependency;
-        mavenVersion = new MavenVersion(version);
+        mavenVersion = MavenVersion.of(version);
     }
 
     /**
@@ -213,7 +213,7 @@ public class MavenEbuilder {
         if ("junit".equals(dependency.getGroupId())
                 && "junit".equals(dependency.getArtifactId())) {
             if (dependency.getMavenVersion().
-                    compareTo(new MavenVersion("3.9.9")) < 1) {
+                    compareTo(MavenVersion.of("3.9.9")) < 1) {
                 return "junit";
             } else {
                 return "junit-4";
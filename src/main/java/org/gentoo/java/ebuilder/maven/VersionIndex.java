@@ -0,0 +1,290 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.util.List;
+import org.gentoo.java.ebuilder.portage.CacheItem;
+import org.gentoo.java.ebuilder.portage.MavenVersion;
+import org.gentoo.java.ebuilder.portage.VersionRange;
+
+/**
+ * Sorted index of versions of single artifact. Sort keys of the versions
+ * (see {@link MavenVersion#getSortKey()}) are kept in primitive array, so
+ * binary search compares primitive keys and only versions with the same
+ * numbers compare their qualifiers. Versions with numbers that do not fit
+ * into the key are compared as {@link MavenVersion}s.
+ *
+ * @author fordfrog
+ */
+class VersionIndex {
+
+    /**
+     * Cache items sorted by maven version.
+     */
+    private final CacheItem[] cacheItems;
+    /**
+     * Comparison keys of the cache items.
+     */
+    private final long[] keys;
+    /**
+     * Parsed maven versions of the cache items.
+     */
+    private final MavenVersion[] versions;
+
+    /**
+     * Creates new instance of VersionIndex.
+     *
+     * @param cacheItems cache items sorted by maven version, for the same
+     *                   maven version the first cache item wins
+     */
+    VersionIndex(final List<CacheItem> cacheItems) {
+        this.cacheItems = cacheItems.toArray(new CacheItem[cacheItems.size()]);
+        keys = new long[this.cacheItems.length];
+        versions = new MavenVersion[this.cacheItems.length];
+
+        for (int i = 0; i < this.cacheItems.length; i++) {
+            versions[i] = this.cacheItems[i].getParsedMavenVersion();
+            keys[i] = versions[i].getSortKey();
+        }
+    }
+
+    /**
+     * Searches for cache item matching the version.
+     *
+     * @param version requested maven version
+     * @param match   how the version is matched
+     *
+     * @return cache item or null if no version matches, for the same maven
+     *         version the first cache item is returned
+     */
+    CacheItem find(final MavenVersion version, final VersionMatch match) {
+        final long key = version.getSortKey();
+        final int lower = lowerBound(key, version, 0, cacheItems.length);
+
+        switch (match) {
+            case CEILING:
+                return lower < cacheItems.length ? cacheItems[lower] : null;
+            case EXACT:
+                return lower < cacheItems.length
+                        && compare(lower, key, version) == 0
+                        ? cacheItems[lower] : null;
+            case FLOOR:
+                if (lower < cacheItems.length
+                        && compare(lower, key, version) == 0) {
+                    return cacheItems[lower];
+                } else if (lower == 0) {
+                    return null;
+                }
+
+                // the first item of the highest lower version
+                return cacheItems[lowerBound(keys[lower - 1],
+                        versions[lower - 1], 0, lower - 1)];
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported version match " + match);
+        }
+    }
+
+    /**
+     * Searches for cache item whose version is in the version range. Every
+     * restriction of the range is bounded by two binary searches, so only
+     * the boundary versions of every restriction are compared.
+     *
+     * @param range   requested version range
+     * @param highest whether the highest version in the range is returned
+     *                instead of the lowest one
+     *
+     * @return cache item or null if no version is in the range, for the same
+     *         maven version the first cache item is returned
+     */
+    CacheItem find(final VersionRange range, final boolean highest) {
+        int result = -1;
+
+        for (final VersionRange.Restriction restriction
+                : range.getRestrictions()) {
+            final int index = highest
+                    ? findHighest(restriction) : findLowest(restriction);
+
+            if (index == -1) {
+                continue;
+            } else if (result == -1) {
+                result = index;
+            } else {
+                final int comparison
+                        = versions[index].compareTo(versions[result]);
+
+                if (highest ? comparison > 0 : comparison < 0) {
+                    result = index;
+                }
+            }
+        }
+
+        return result == -1 ? null : cacheItems[result];
+    }
+
+    /**
+     * Checks whether the index does not contain any version.
+     *
+     * @return true if the index is empty, otherwise false
+     */
+    boolean isEmpty() {
+        return cacheItems.length == 0;
+    }
+
+    /**
+     * Compares version of cache item with the requested version.
+     *
+     * @param index   index of cache item
+     * @param key     comparison key of the requested version
+     * @param version requested version
+     *
+     * @return negative number, zero or positive number if the version of the
+     *         cache item is lower, the same or greater than the requested
+     *         version
+     */
+    private int compare(final int index, final long key,
+            final MavenVersion version) {
+        if (keys[index] == MavenVersion.NO_SORT_KEY
+                || key == MavenVersion.NO_SORT_KEY) {
+            return versions[index].compareTo(version);
+        } else if (keys[index] != key) {
+            return Long.compare(keys[index], key);
+        }
+
+        return versions[index].getQualifier().compareTo(version.getQualifier());
+    }
+
+    /**
+     * Searches for the first cache item of the highest version in the
+     * restriction.
+     *
+     * @param restriction version range restriction
+     *
+     * @return index of the cache item or -1 if no version is in the
+     *         restriction
+     */
+    private int findHighest(final VersionRange.Restriction restriction) {
+        final MavenVersion upper = restriction.getUpper();
+        final int end;
+
+        if (upper == null) {
+            end = cacheItems.length;
+        } else if (restriction.isUpperInclusive()) {
+            end = upperBound(upper.getSortKey(), upper, 0, cacheItems.length);
+        } else {
+            end = lowerBound(upper.getSortKey(), upper, 0, cacheItems.length);
+        }
+
+        if (end == 0) {
+            return -1;
+        }
+
+        final MavenVersion lower = restriction.getLower();
+
+        if (lower != null) {
+            final int result = compare(end - 1, lower.getSortKey(), lower);
+
+            if (result < 0 || result == 0 && !restriction.isLowerInclusive()) {
+                return -1;
+            }
+        }
+
+        return lowerBound(keys[end - 1], versions[end - 1], 0, end - 1);
+    }
+
+    /**
+     * Searches for the first cache item of the lowest version in the
+     * restriction.
+     *
+     * @param restriction version range restriction
+     *
+     * @return index of the cache item or -1 if no version is in the
+     *         restriction
+     */
+    private int findLowest(final VersionRange.Restriction restriction) {
+        final MavenVersion lower = restriction.getLower();
+        final int start;
+
+        if (lower == null) {
+            start = 0;
+        } else if (restriction.isLowerInclusive()) {
+            start = lowerBound(lower.getSortKey(), lower, 0, cacheItems.length);
+        } else {
+            start = upperBound(lower.getSortKey(), lower, 0, cacheItems.length);
+        }
+
+        if (start == cacheItems.length) {
+            return -1;
+        }
+
+        final MavenVersion upper = restriction.getUpper();
+
+        if (upper != null) {
+            final int result = compare(start, upper.getSortKey(), upper);
+
+            if (result > 0 || result == 0 && !restriction.isUpperInclusive()) {
+                return -1;
+            }
+        }
+
+        return start;
+    }
+
+    /**
+     * Searches for the first cache item whose version is the same or greater
+     * than the requested version.
+     *
+     * @param key     comparison key of the requested version
+     * @param version requested version
+     * @param from    first index of the searched range
+     * @param to      index after the end of the searched range
+     *
+     * @return index of the cache item or <code>to</code> if all versions are
+     *         lower
+     */
+    private int lowerBound(final long key, final MavenVersion version,
+            final int from, final int to) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (compare(middle, key, version) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Searches for the first cache item whose version is greater than the
+     * requested version.
+     *
+     * @param key     comparison key of the requested version
+     * @param version requested version
+     * @param from    first index of the searched range
+     * @param to      index after the end of the searched range
+     *
+     * @return index of the cache item or <code>to</code> if all versions are
+     *         the same or lower
+     */
+    private int upperBound(final long key, final MavenVersion version,
+            final int from, final int to) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (compare(middle, key, version) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+}
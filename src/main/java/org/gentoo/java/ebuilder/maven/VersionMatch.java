@@ -0,0 +1,25 @@
+package org.gentoo.java.ebuilder.maven;
+
+/**
+ * Ways of matching requested maven version against available versions of an
+ * artifact.
+ *
+ * @author fordfrog
+ */
+public enum VersionMatch {
+
+    /**
+     * The lowest available version that is the same or greater than the
+     * requested version.
+     */
+    CEILING,
+    /**
+     * The highest available version that is the same or lower than the
+     * requested version.
+     */
+    FLOOR,
+    /**
+     * Available version that is the same as the requested version.
+     */
+    EXACT
+}
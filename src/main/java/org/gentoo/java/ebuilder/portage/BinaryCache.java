@@ -0,0 +1,744 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Binary cache format. The file consists of:
+ * <ol>
+ * <li>header: {@link #MAGIC}, format version, number of strings, number of
+ * records, number of groups and length of string data (all integers are big
+ * endian)</li>
+ * <li>string table: offsets of the strings followed by their UTF-8 data,
+ * strings are unique and sorted, so comparing string ids is the same as
+ * comparing the strings</li>
+ * <li>records of fixed width: string ids of cache item fields (-1 stands for
+ * null) followed by parsed components of maven version, records are sorted
+ * by group id, artifact id and maven version, records without group id are
+ * at the end</li>
+ * <li>group index: string id of group id, index of first record and number
+ * of records of the group, sorted by group id</li>
+ * </ol>
+ * Records with the same group id, artifact id and maven version keep the
+ * order of the text cache, so lookups return the same results as with the
+ * text cache. The file is mapped to memory and searched in place, so
+ * concurrent processes share single copy of it in page cache.
+ *
+ * @author fordfrog
+ */
+public class BinaryCache {
+
+    /**
+     * Magic bytes at the beginning of binary cache file.
+     */
+    static final byte[] MAGIC = "JEBCACHE".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Binary cache format version.
+     */
+    static final int FORMAT_VERSION = 2;
+    /**
+     * Size of header in bytes.
+     */
+    static final int HEADER_SIZE = MAGIC.length + 5 * 4;
+    /**
+     * Number of integers in group index entry.
+     */
+    static final int GROUP_INTS = 3;
+    /**
+     * Number of integers in record.
+     */
+    static final int RECORD_INTS = 13;
+    /**
+     * Record field index of category.
+     */
+    static final int FIELD_CATEGORY = 0;
+    /**
+     * Record field index of package.
+     */
+    static final int FIELD_PKG = 1;
+    /**
+     * Record field index of version.
+     */
+    static final int FIELD_VERSION = 2;
+    /**
+     * Record field index of slot.
+     */
+    static final int FIELD_SLOT = 3;
+    /**
+     * Record field index of USE flag.
+     */
+    static final int FIELD_USE_FLAG = 4;
+    /**
+     * Record field index of group id.
+     */
+    static final int FIELD_GROUP_ID = 5;
+    /**
+     * Record field index of artifact id.
+     */
+    static final int FIELD_ARTIFACT_ID = 6;
+    /**
+     * Record field index of maven version.
+     */
+    static final int FIELD_MAVEN_VERSION = 7;
+    /**
+     * Record field index of comma separated java eclasses.
+     */
+    static final int FIELD_JAVA_ECLASSES = 8;
+    /**
+     * Record field index of major version.
+     */
+    static final int FIELD_MAJOR = 9;
+    /**
+     * Record field index of minor version.
+     */
+    static final int FIELD_MINOR = 10;
+    /**
+     * Record field index of incremental version.
+     */
+    static final int FIELD_INCREMENTAL = 11;
+    /**
+     * Record field index of version qualifier.
+     */
+    static final int FIELD_QUALIFIER = 12;
+
+    /**
+     * Checks whether the file is binary cache.
+     *
+     * @param path file path
+     *
+     * @return true if the file starts with {@link #MAGIC}, otherwise false
+     */
+    public static boolean isBinaryCache(final Path path) {
+        final byte[] bytes = new byte[MAGIC.length];
+
+        try (final InputStream input = Files.newInputStream(path)) {
+            int read = 0;
+
+            while (read < bytes.length) {
+                final int count = input.read(bytes, read, bytes.length - read);
+
+                if (count == -1) {
+                    return false;
+                }
+
+                read += count;
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ " + path,
+                    ex);
+        }
+
+        return Arrays.equals(bytes, MAGIC);
+    }
+
+    /**
+     * Writes cache items to binary cache.
+     *
+     * @param path       binary cache path
+     * @param cacheItems cache items in the order of the text cache
+     */
+    static void write(final Path path, final List<CacheItem> cacheItems) {
+        final TreeSet<String> uniqueStrings = new TreeSet<>();
+        final List<Record> records = new ArrayList<>(cacheItems.size());
+
+        for (final CacheItem cacheItem : cacheItems) {
+            final Record record = new Record(cacheItem);
+            records.add(record);
+            record.addStrings(uniqueStrings);
+        }
+
+        final String[] strings = uniqueStrings.toArray(new String[0]);
+        final Map<String, Integer> ids = new HashMap<>(strings.length * 2);
+
+        for (int i = 0; i < strings.length; i++) {
+            ids.put(strings[i], i);
+        }
+
+        // sorting is stable, so items of the same version keep text order
+        records.sort(Comparator.comparing(
+                (final Record record) -> record.cacheItem.getGroupId(),
+                Comparator.nullsLast(Comparator.naturalOrder())).
+                thenComparing((final Record record)
+                        -> record.cacheItem.getArtifactId(),
+                        Comparator.nullsLast(Comparator.naturalOrder())).
+                thenComparing((final Record record) -> record.version,
+                        Comparator.nullsLast(Comparator.naturalOrder())));
+
+        final byte[][] stringBytes = new byte[strings.length][];
+        int stringDataLength = 0;
+
+        for (int i = 0; i < strings.length; i++) {
+            stringBytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            stringDataLength += stringBytes[i].length;
+        }
+
+        final List<int[]> groups = new ArrayList<>(1_000);
+
+        for (int i = 0; i < records.size(); i++) {
+            final String groupId = records.get(i).cacheItem.getGroupId();
+
+            if (groupId == null) {
+                break;
+            }
+
+            final int id = ids.get(groupId);
+
+            if (groups.isEmpty() || groups.get(groups.size() - 1)[0] != id) {
+                groups.add(new int[]{id, i, 0});
+            }
+
+            groups.get(groups.size() - 1)[2]++;
+        }
+
+        try (final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING), 65_536))) {
+            output.write(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(strings.length);
+            output.writeInt(records.size());
+            output.writeInt(groups.size());
+            output.writeInt(stringDataLength);
+
+            int offset = 0;
+
+            for (final byte[] bytes : stringBytes) {
+                output.writeInt(offset);
+                offset += bytes.length;
+            }
+
+            output.writeInt(offset);
+
+            for (final byte[] bytes : stringBytes) {
+                output.write(bytes);
+            }
+
+            // records are aligned to integers
+            for (int i = stringDataLength; i % 4 != 0; i++) {
+                output.write(0);
+            }
+
+            for (final Record record : records) {
+                record.write(output, ids);
+            }
+
+            for (final int[] group : groups) {
+                for (final int value : group) {
+                    output.writeInt(value);
+                }
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to write cache file @ " + path,
+                    ex);
+        }
+    }
+
+    /**
+     * Mapped binary cache.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Number of groups.
+     */
+    private final int groupCount;
+    /**
+     * Position of group index.
+     */
+    private final int groupsStart;
+    /**
+     * Number of records.
+     */
+    private final int recordCount;
+    /**
+     * Position of records.
+     */
+    private final int recordsStart;
+    /**
+     * Number of strings.
+     */
+    private final int stringCount;
+    /**
+     * Position of string data.
+     */
+    private final int stringDataStart;
+    /**
+     * Position of string offsets.
+     */
+    private final int stringOffsetsStart;
+
+    /**
+     * Creates new instance of BinaryCache. The file is mapped to memory and
+     * only the header is validated, records are decoded on demand, so the
+     * instance is cheap to create and processes that use the same cache file
+     * share its pages.
+     *
+     * @param path binary cache path
+     */
+    public BinaryCache(final Path path) {
+        try (final FileChannel channel
+                = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ " + path,
+                    ex);
+        }
+
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new RuntimeException("Cache file @ " + path
+                    + " is not valid binary cache");
+        }
+
+        final byte[] magic = new byte[MAGIC.length];
+
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = buffer.get(i);
+        }
+
+        if (!Arrays.equals(magic, MAGIC)
+                || buffer.getInt(MAGIC.length) != FORMAT_VERSION) {
+            throw new RuntimeException("Cache file @ " + path
+                    + " is not supported binary cache");
+        }
+
+        stringCount = buffer.getInt(MAGIC.length + 4);
+
+        recordCount = buffer.getInt(MAGIC.length + 8);
+        groupCount = buffer.getInt(MAGIC.length + 12);
+
+        final int stringDataLength = buffer.getInt(MAGIC.length + 16);
+        stringOffsetsStart = HEADER_SIZE;
+        stringDataStart = stringOffsetsStart + (stringCount + 1) * 4;
+        recordsStart = (stringDataStart + stringDataLength + 3) / 4 * 4;
+        groupsStart = recordsStart + recordCount * RECORD_INTS * 4;
+
+        if (groupsStart + groupCount * GROUP_INTS * 4 != buffer.limit()) {
+            throw new RuntimeException("Cache file @ " + path
+                    + " is truncated or corrupted");
+        }
+    }
+
+    /**
+     * Checks whether the cache contains the group id.
+     *
+     * @param groupId maven group id
+     *
+     * @return true if the group id is present, otherwise false
+     */
+    public boolean containsGroupId(final String groupId) {
+        return findGroup(findString(groupId)) != -1;
+    }
+
+    /**
+     * Returns cache items of the artifact. Group and artifact are searched
+     * using binary search in the mapped file and only records of the artifact
+     * are decoded.
+     *
+     * @param groupId    maven group id
+     * @param artifactId maven artifact id
+     *
+     * @return cache items sorted by maven version, empty list if the artifact
+     *         is not present
+     */
+    public List<CacheItem> getCacheItems(final String groupId,
+            final String artifactId) {
+        final int group = findGroup(findString(groupId));
+        final int artifactIdId = findString(artifactId);
+
+        if (group == -1 || artifactIdId == -1) {
+            return Collections.emptyList();
+        }
+
+        final int first = getGroupField(group, 1);
+        final int end = first + getGroupField(group, 2);
+        int low = first;
+        int high = end;
+
+        // records of the group are sorted by artifact id
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (getField(middle, FIELD_ARTIFACT_ID) < artifactIdId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        final List<CacheItem> result = new ArrayList<>(10);
+
+        for (int record = low; record < end
+                && getField(record, FIELD_ARTIFACT_ID) == artifactIdId;
+                record++) {
+            result.add(getCacheItem(record));
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes all records of the cache.
+     *
+     * @return cache items sorted by group id, artifact id and maven version,
+     *         cache items without group id are at the end
+     */
+    public List<CacheItem> readCacheItems() {
+        final List<CacheItem> result = new ArrayList<>(recordCount);
+
+        for (int record = 0; record < recordCount; record++) {
+            result.add(getCacheItem(record));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns stream of all records of the cache. Records are decoded one by
+     * one as the stream is consumed.
+     *
+     * @return stream of cache items sorted by group id, artifact id and
+     *         maven version, cache items without group id are at the end
+     */
+    public Stream<CacheItem> streamCacheItems() {
+        return IntStream.range(0, recordCount).mapToObj(this::getCacheItem);
+    }
+
+    /**
+     * Searches group index for the group id.
+     *
+     * @param groupIdId string id of group id
+     *
+     * @return group index or -1 if the group is not present
+     */
+    private int findGroup(final int groupIdId) {
+        if (groupIdId == -1) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = groupCount - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int id = getGroupField(middle, 0);
+
+            if (id < groupIdId) {
+                low = middle + 1;
+            } else if (id > groupIdId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Searches string table for the string.
+     *
+     * @param string string
+     *
+     * @return string id or -1 if the string is not present
+     */
+    private int findString(final String string) {
+        if (string == null) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = stringCount - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int result = compareString(middle, string);
+
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compares string of the string table with the string the same way as
+     * {@link String#compareTo(java.lang.String)} does, which is the order of
+     * the string table. UTF-8 data are decoded to UTF-16 characters in place,
+     * so no string is created.
+     *
+     * @param id     string id
+     * @param string string
+     *
+     * @return negative number, zero or positive number if string of the
+     *         string table is less than, equal to or greater than the string
+     */
+    private int compareString(final int id, final String string) {
+        final int end = stringDataStart
+                + buffer.getInt(stringOffsetsStart + id * 4 + 4);
+        int position = stringDataStart
+                + buffer.getInt(stringOffsetsStart + id * 4);
+        int index = 0;
+        // low surrogate of supplementary character that was decoded last
+        char lowSurrogate = 0;
+
+        while (true) {
+            final char character;
+
+            if (lowSurrogate != 0) {
+                character = lowSurrogate;
+                lowSurrogate = 0;
+            } else if (position < end) {
+                final int first = buffer.get(position++) & 0xff;
+                final int codePoint;
+
+                if (first < 0x80) {
+                    codePoint = first;
+                } else if (first < 0xe0) {
+                    codePoint = (first & 0x1f) << 6
+                            | buffer.get(position++) & 0x3f;
+                } else if (first < 0xf0) {
+                    codePoint = (first & 0x0f) << 12
+                            | (buffer.get(position++) & 0x3f) << 6
+                            | buffer.get(position++) & 0x3f;
+                } else {
+                    codePoint = (first & 0x07) << 18
+                            | (buffer.get(position++) & 0x3f) << 12
+                            | (buffer.get(position++) & 0x3f) << 6
+                            | buffer.get(position++) & 0x3f;
+                }
+
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    character = Character.highSurrogate(codePoint);
+                    lowSurrogate = Character.lowSurrogate(codePoint);
+                } else {
+                    character = (char) codePoint;
+                }
+            } else {
+                return index == string.length() ? 0 : -1;
+            }
+
+            if (index == string.length()) {
+                return 1;
+            }
+
+            final char other = string.charAt(index++);
+
+            if (character != other) {
+                return character - other;
+            }
+        }
+    }
+
+    /**
+     * Creates cache item from record.
+     *
+     * @param record record index
+     *
+     * @return cache item
+     */
+    private CacheItem getCacheItem(final int record) {
+        final String mavenVersion
+                = getString(getField(record, FIELD_MAVEN_VERSION));
+        final MavenVersion parsedMavenVersion = mavenVersion == null
+                ? null : MavenVersion.of(mavenVersion,
+                        getField(record, FIELD_MAJOR),
+                        getField(record, FIELD_MINOR),
+                        getField(record, FIELD_INCREMENTAL),
+                        getString(getField(record, FIELD_QUALIFIER)));
+        final String javaEclasses
+                = getString(getField(record, FIELD_JAVA_ECLASSES));
+
+        return new CacheItem(getString(getField(record, FIELD_CATEGORY)),
+                getString(getField(record, FIELD_PKG)),
+                getString(getField(record, FIELD_VERSION)),
+                getString(getField(record, FIELD_SLOT)),
+                getString(getField(record, FIELD_USE_FLAG)),
+                getString(getField(record, FIELD_GROUP_ID)),
+                getString(getField(record, FIELD_ARTIFACT_ID)),
+                mavenVersion, javaEclasses, parsedMavenVersion);
+    }
+
+    /**
+     * Returns field of record.
+     *
+     * @param record record index
+     * @param field  field index
+     *
+     * @return field value
+     */
+    private int getField(final int record, final int field) {
+        return buffer.getInt(recordsStart + (record * RECORD_INTS + field) * 4);
+    }
+
+    /**
+     * Returns field of group index entry.
+     *
+     * @param group group index
+     * @param field field index (0 = string id of group id, 1 = first record,
+     *              2 = number of records)
+     *
+     * @return field value
+     */
+    private int getGroupField(final int group, final int field) {
+        return buffer.getInt(groupsStart + (group * GROUP_INTS + field) * 4);
+    }
+
+    /**
+     * Decodes string from string table.
+     *
+     * @param id string id or -1 for null
+     *
+     * @return string or null
+     */
+    private String getString(final int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        final int start = buffer.getInt(stringOffsetsStart + id * 4);
+        final int end = buffer.getInt(stringOffsetsStart + id * 4 + 4);
+        final byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(stringDataStart + start + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cache item with parsed maven version that is being written.
+     */
+    private static class Record {
+
+        /**
+         * Cache item.
+         */
+        private final CacheItem cacheItem;
+        /**
+         * Comma separated java eclasses or null.
+         */
+        private final String javaEclasses;
+        /**
+         * Parsed maven version or null if the item has no maven version.
+         */
+        private final MavenVersion version;
+
+        /**
+         * Creates new instance of Record.
+         *
+         * @param cacheItem {@link #cacheItem}
+         */
+        Record(final CacheItem cacheItem) {
+            this.cacheItem = cacheItem;
+
+            javaEclasses = cacheItem.getJavaEclasses() == null
+                    ? null : String.join(",", cacheItem.getJavaEclasses());
+            version = cacheItem.getParsedMavenVersion();
+        }
+
+        /**
+         * Adds strings of the record to the set.
+         *
+         * @param strings set of strings
+         */
+        void addStrings(final TreeSet<String> strings) {
+            addString(strings, cacheItem.getCategory());
+            addString(strings, cacheItem.getPkg());
+            addString(strings, cacheItem.getVersion());
+            addString(strings, cacheItem.getSlot());
+            addString(strings, cacheItem.getUseFlag());
+            addString(strings, cacheItem.getGroupId());
+            addString(strings, cacheItem.getArtifactId());
+            addString(strings, cacheItem.getMavenVersion());
+            addString(strings, javaEclasses);
+
+            if (version != null) {
+                addString(strings, version.getQualifier());
+            }
+        }
+
+        /**
+         * Writes the record.
+         *
+         * @param output output stream
+         * @param ids    map of strings and their ids
+         *
+         * @throws IOException Thrown if I/O problem occurred.
+         */
+        void write(final DataOutputStream output, final Map<String, Integer> ids)
+                throws IOException {
+            output.writeInt(getId(ids, cacheItem.getCategory()));
+            output.writeInt(getId(ids, cacheItem.getPkg()));
+            output.writeInt(getId(ids, cacheItem.getVersion()));
+            output.writeInt(getId(ids, cacheItem.getSlot()));
+            output.writeInt(getId(ids, cacheItem.getUseFlag()));
+            output.writeInt(getId(ids, cacheItem.getGroupId()));
+            output.writeInt(getId(ids, cacheItem.getArtifactId()));
+            output.writeInt(getId(ids, cacheItem.getMavenVersion()));
+            output.writeInt(getId(ids, javaEclasses));
+
+            if (version == null) {
+                output.writeInt(0);
+                output.writeInt(0);
+                output.writeInt(0);
+                output.writeInt(-1);
+            } else {
+                output.writeInt(version.getMajorVersion());
+                output.writeInt(version.getMinorVersion());
+                output.writeInt(version.getIncrementalVersion());
+                output.writeInt(getId(ids, version.getQualifier()));
+            }
+        }
+
+        /**
+         * Adds string to the set if it is not null.
+         *
+         * @param strings set of strings
+         * @param string  string
+         */
+        private static void addString(final TreeSet<String> strings,
+                final String string) {
+            if (string != null) {
+                strings.add(string);
+            }
+        }
+
+        /**
+         * Returns id of the string.
+         *
+         * @param ids    map of strings and their ids
+         * @param string string
+         *
+         * @return string id or -1 if the string is null
+         */
+        private static int getId(final Map<String, Integer> ids,
+                final String string) {
+            return string == null ? -1 : ids.get(string);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Index of groups in text cache file. Records of the cache file are grouped
+ * by group id and the header of the cache file contains length of records
+ * and offset and length of records of every group, so records of single
+ * group can be read without reading the whole cache file. Offsets are
+ * relative to the first record. Records without group id are at the end and
+ * they are not indexed.
+ *
+ * @author fordfrog
+ */
+public class CacheGroupIndex {
+
+    /**
+     * Prefix of header line with number of records that are sorted by group
+     * id, artifact id and maven version. Records that are added to the cache
+     * file by other tools are after these records.
+     */
+    public static final String PREFIX_SORTED = "#sorted=";
+    /**
+     * Order of records in the cache file: by group id, artifact id and maven
+     * version, which is the order in which
+     * {@link org.gentoo.java.ebuilder.maven.MavenCache} needs them, and by
+     * category, package and version among equal maven versions, which
+     * decides which item wins. Records without group id are at the end.
+     */
+    static final Comparator<CacheItem> RECORD_ORDER = Comparator.comparing(
+            CacheItem::getGroupId,
+            Comparator.nullsLast(Comparator.naturalOrder())).
+            thenComparing(CacheItem::getArtifactId,
+                    Comparator.nullsLast(Comparator.naturalOrder())).
+            thenComparing(CacheItem::getParsedMavenVersion,
+                    Comparator.nullsLast(Comparator.naturalOrder())).
+            thenComparing(CacheItem::getCategory).
+            thenComparing(CacheItem::getPkg).
+            thenComparing(CacheItem::getVersion);
+
+    /**
+     * Prefix of header line with group offset, length and group id.
+     */
+    private static final String PREFIX_GROUP = "#group=";
+    /**
+     * Prefix of header line with length of all records.
+     */
+    private static final String PREFIX_RECORDS = "#records=";
+    /**
+     * Cache file path.
+     */
+    private final Path cacheFile;
+    /**
+     * Map of group ids and offsets and lengths of their records.
+     */
+    private final Map<String, long[]> groups;
+    /**
+     * Position of the first record in the cache file.
+     */
+    private final long recordsStart;
+    /**
+     * Whether records are sorted by group id, artifact id and maven version.
+     */
+    private final boolean sorted;
+
+    /**
+     * Reads group index from header of the cache file. The index is used
+     * only if the cache file has the expected size, cache files that were
+     * modified by other tools (like fill-cache) are not indexed correctly
+     * anymore.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return group index or null if the cache file does not contain valid
+     *         group index
+     */
+    public static CacheGroupIndex read(final Path cacheFile) {
+        final Map<String, long[]> groups = new HashMap<>(1_000);
+        long recordsStart = 0;
+        long recordsLength = -1;
+        boolean sorted = false;
+
+        try (final BufferedReader reader = Files.newBufferedReader(cacheFile,
+                StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+
+            if (!PortageParser.CACHE_VERSION.equals(line)) {
+                return null;
+            }
+
+            recordsStart += line.length() + 1;
+            line = reader.readLine();
+
+            while (line != null && line.startsWith("#")) {
+                if (line.startsWith(PREFIX_SORTED)) {
+                    sorted = true;
+                } else if (line.startsWith(PREFIX_RECORDS)) {
+                    recordsLength = Long.parseLong(
+                            line.substring(PREFIX_RECORDS.length()));
+                } else if (line.startsWith(PREFIX_GROUP)) {
+                    final String[] parts = line.substring(
+                            PREFIX_GROUP.length()).split(":", 3);
+                    groups.put(parts[2], new long[]{Long.parseLong(parts[0]),
+                        Long.parseLong(parts[1])});
+                }
+
+                recordsStart
+                        += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                line = reader.readLine();
+            }
+
+            if (recordsLength == -1
+                    || Files.size(cacheFile) != recordsStart + recordsLength) {
+                return null;
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ "
+                    + cacheFile, ex);
+        } catch (final RuntimeException ex) {
+            // broken index only means that the cache is read whole
+            return null;
+        }
+
+        return new CacheGroupIndex(cacheFile, groups, recordsStart, sorted);
+    }
+
+    /**
+     * Writes group index header lines followed by cache items, which have to
+     * be sorted by {@link #RECORD_ORDER}. Records are UTF-8 encoded only
+     * once into a buffer whose size gives offsets and lengths of the groups,
+     * then the header and the buffer are written to the output.
+     *
+     * @param output     cache file output stream
+     * @param cacheItems cache items sorted by {@link #RECORD_ORDER}
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    static void writeRecords(final OutputStream output,
+            final List<CacheItem> cacheItems) throws IOException {
+        final ByteArrayOutputStream records
+                = new ByteArrayOutputStream(100 * cacheItems.size() + 1);
+        final Writer recordsWriter
+                = new OutputStreamWriter(records, StandardCharsets.UTF_8);
+        final StringBuilder header = new StringBuilder(64 * 1_000);
+        String groupId = null;
+        int groupStart = 0;
+        long sortedCount = 0;
+
+        for (final CacheItem cacheItem : cacheItems) {
+            if (!Objects.equals(cacheItem.getGroupId(), groupId)) {
+                recordsWriter.flush();
+                appendGroup(header, groupId, groupStart, records.size());
+                groupId = cacheItem.getGroupId();
+                groupStart = records.size();
+            }
+
+            if (groupId != null) {
+                sortedCount++;
+            }
+
+            PortageParser.writeCacheItem(recordsWriter, cacheItem);
+        }
+
+        recordsWriter.flush();
+        appendGroup(header, groupId, groupStart, records.size());
+
+        output.write((PREFIX_SORTED + sortedCount + '\n'
+                + PREFIX_RECORDS + records.size() + '\n' + header).
+                getBytes(StandardCharsets.UTF_8));
+        records.writeTo(output);
+    }
+
+    /**
+     * Appends header line of the group if the group has a group id and some
+     * records.
+     *
+     * @param header  header lines
+     * @param groupId group id or null
+     * @param start   offset of the first record of the group
+     * @param end     offset after the last record of the group
+     */
+    private static void appendGroup(final StringBuilder header,
+            final String groupId, final int start, final int end) {
+        if (groupId != null && end > start) {
+            header.append(PREFIX_GROUP).append(start).append(':').
+                    append(end - start).append(':').append(groupId).
+                    append('\n');
+        }
+    }
+
+    /**
+     * Creates new instance of CacheGroupIndex.
+     *
+     * @param cacheFile    {@link #cacheFile}
+     * @param groups       {@link #groups}
+     * @param recordsStart {@link #recordsStart}
+     * @param sorted       {@link #sorted}
+     */
+    private CacheGroupIndex(final Path cacheFile,
+            final Map<String, long[]> groups, final long recordsStart,
+            final boolean sorted) {
+        this.cacheFile = cacheFile;
+        this.groups = groups;
+        this.recordsStart = recordsStart;
+        this.sorted = sorted;
+    }
+
+    /**
+     * Checks whether the cache file contains records of the group.
+     *
+     * @param groupId maven group id
+     *
+     * @return true if the group is present, otherwise false
+     */
+    public boolean containsGroupId(final String groupId) {
+        return groups.containsKey(groupId);
+    }
+
+    /**
+     * Getter for {@link #sorted}.
+     *
+     * @return {@link #sorted}
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Reads cache items of the group from the cache file.
+     *
+     * @param groupId maven group id
+     *
+     * @return list of cache items in the order of the cache file, empty list
+     *         if the group is not present
+     */
+    public List<CacheItem> readGroup(final String groupId) {
+        final long[] group = groups.get(groupId);
+        final List<CacheItem> result = new ArrayList<>(10);
+
+        if (group == null) {
+            return result;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) group[1]);
+
+        try (final FileChannel channel
+                = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, recordsStart + group[0]
+                        + buffer.position()) == -1) {
+                    break;
+                }
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ "
+                    + cacheFile, ex);
+        }
+
+        for (final CacheItem cacheItem : TextCacheReader.parseCacheItems(
+                buffer.array(), 0, buffer.position())) {
+            if (!groupId.equals(cacheItem.getGroupId())) {
+                throw new RuntimeException("Group index of cache file @ "
+                        + cacheFile + " is not valid. Please refresh the "
+                        + "cache using command line switch --refresh-cache.");
+            }
+
+            result.add(cacheItem);
+        }
+
+        return result;
+    }
+}
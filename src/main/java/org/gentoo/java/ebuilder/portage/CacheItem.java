@@ -1,9 +1,11 @@
 package org.gentoo.java.ebuilder.portage;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Container for cache item information.
@@ -12,6 +14,23 @@ import java.util.List;
  */
 public class CacheItem {
 
+    /**
+     * Canonical instances of category, slot, USE flag and group id strings.
+     */
+    private static final ConcurrentMap<String, String> CANONICAL_STRINGS
+            = new ConcurrentHashMap<>(4_096);
+    /**
+     * Shared immutable lists of java eclasses by comma separated eclasses.
+     * There are only few distinct combinations of eclasses, so all cache
+     * items with the same eclasses share single list.
+     */
+    private static final Map<String, List<String>> JAVA_ECLASSES
+            = new ConcurrentHashMap<>(50);
+    /**
+     * Maximum number of canonical strings. When the limit is reached, new
+     * strings are not shared.
+     */
+    private static final int MAX_CANONICAL_STRINGS = 50_000;
     /**
      * Maven artifact id.
      */
@@ -25,7 +44,8 @@ public class CacheItem {
      */
     private final String groupId;
     /**
-     * List of inherited java eclasses, in the order as they are inherited.
+     * Immutable list of inherited java eclasses, in the order as they are
+     * inherited.
      */
     private final List<String> javaEclasses;
     /**
@@ -33,9 +53,10 @@ public class CacheItem {
      */
     private final String mavenVersion;
     /**
-     * Parsed maven version.
+     * Parsed maven version, it is parsed when it is needed for the first
+     * time.
      */
-    private final MavenVersion parsedMavenVersion;
+    private MavenVersion parsedMavenVersion;
     /**
      * Portage package.
      */
@@ -71,19 +92,48 @@ public class CacheItem {
             final String version, final String slot, final String useFlag,
             final String groupId, final String artifactId,
             final String mavenVersion, final List<String> javaEclasses) {
-        this.category = category;
+        this.category = canonicalize(category);
         this.pkg = pkg;
         this.version = version;
-        this.slot = slot;
-        this.useFlag = useFlag;
-        this.groupId = groupId;
+        this.slot = canonicalize(slot);
+        this.useFlag = canonicalize(useFlag);
+        this.groupId = canonicalize(groupId);
         this.artifactId = artifactId;
         this.mavenVersion = mavenVersion;
-        this.javaEclasses
-                = Collections.unmodifiableList(new ArrayList<>(javaEclasses));
+        this.javaEclasses = getSharedJavaEclasses(
+                String.join(",", javaEclasses));
+    }
 
-        parsedMavenVersion = mavenVersion == null
-                ? null : new MavenVersion(mavenVersion);
+    /**
+     * Creates new instance of CacheItem with already parsed maven version.
+     *
+     * @param category           {@link #category}
+     * @param pkg                {@link #pkg}
+     * @param version            {@link #version}
+     * @param slot               {@link #slot}
+     * @param useFlag            {@link #useFlag}
+     * @param groupId            {@link #groupId}
+     * @param artifactId         {@link #artifactId}
+     * @param mavenVersion       {@link #mavenVersion}
+     * @param javaEclasses       comma separated java eclasses or null
+     * @param parsedMavenVersion {@link #parsedMavenVersion}
+     */
+    CacheItem(final String category, final String pkg, final String version,
+            final String slot, final String useFlag, final String groupId,
+            final String artifactId, final String mavenVersion,
+            final String javaEclasses,
+            final MavenVersion parsedMavenVersion) {
+        this.category = canonicalize(category);
+        this.pkg = pkg;
+        this.version = version;
+        this.slot = canonicalize(slot);
+        this.useFlag = canonicalize(useFlag);
+        this.groupId = canonicalize(groupId);
+        this.artifactId = artifactId;
+        this.mavenVersion = mavenVersion;
+        this.javaEclasses = javaEclasses == null
+                ? null : getSharedJavaEclasses(javaEclasses);
+        this.parsedMavenVersion = parsedMavenVersion;
     }
 
     /**
@@ -92,22 +142,30 @@ public class CacheItem {
      * @param line line from cache file
      */
     public CacheItem(final String line) {
-        final String[] parts = line.split(":");
+        this(line.split(":"));
+    }
 
+    /**
+     * Creates new instance of CacheItem.
+     *
+     * @param parts fields of line from cache file, without trailing empty
+     *              fields
+     */
+    CacheItem(final String[] parts) {
         try {
-            category = parts[0];
+            category = canonicalize(parts[0]);
             pkg = parts[1];
             version = parts[2];
-            slot = parts[3];
+            slot = canonicalize(parts[3]);
 
             if (parts.length > 4) {
-                useFlag = parts[4].isEmpty() ? null : parts[4];
+                useFlag = parts[4].isEmpty() ? null : canonicalize(parts[4]);
             } else {
                 useFlag = null;
             }
 
             if (parts.length > 5) {
-                groupId = parts[5].isEmpty() ? null : parts[5];
+                groupId = parts[5].isEmpty() ? null : canonicalize(parts[5]);
                 artifactId = parts[6].isEmpty() ? null : parts[6];
                 mavenVersion = parts[7].isEmpty() ? null : parts[7];
             } else {
@@ -117,17 +175,58 @@ public class CacheItem {
             }
 
             if (parts.length > 8 && !parts[0].isEmpty()) {
-                javaEclasses = Arrays.asList(parts[8].split(","));
+                javaEclasses = getSharedJavaEclasses(parts[8]);
             } else {
                 javaEclasses = null;
             }
         } catch (final ArrayIndexOutOfBoundsException ex) {
-            throw new RuntimeException("Failed to parse cache line: " + line,
-                    ex);
+            throw new RuntimeException("Failed to parse cache line: "
+                    + String.join(":", parts), ex);
         }
+    }
 
-        parsedMavenVersion = mavenVersion == null
-                ? null : new MavenVersion(mavenVersion);
+    /**
+     * Returns shared immutable list of java eclasses.
+     *
+     * @param javaEclasses comma separated java eclasses
+     *
+     * @return list of java eclasses
+     */
+    private static List<String> getSharedJavaEclasses(
+            final String javaEclasses) {
+        return JAVA_ECLASSES.computeIfAbsent(javaEclasses,
+                (key) -> Collections.unmodifiableList(Arrays.asList(
+                        key.isEmpty() ? new String[0] : key.split(","))));
+    }
+
+    /**
+     * Returns canonical instance of the string. Category, slot, USE flag and
+     * group id have only few distinct values (few thousands in the whole
+     * portage tree), so sharing them saves memory of every loaded cache.
+     * Local map is used instead of {@link String#intern()}, so the strings
+     * do not grow JVM string table that is shared with the rest of the
+     * application and the number of shared strings is bounded.
+     *
+     * @param string string or null
+     *
+     * @return canonical string or null
+     */
+    private static String canonicalize(final String string) {
+        if (string == null) {
+            return null;
+        }
+
+        final String result = CANONICAL_STRINGS.get(string);
+
+        if (result != null) {
+            return result;
+        } else if (CANONICAL_STRINGS.size() >= MAX_CANONICAL_STRINGS) {
+            return string;
+        }
+
+        final String previous = CANONICAL_STRINGS.putIfAbsent(string, string);
+
+        return previous == null ? string : previous;
     }
 
     /**
@@ -163,7 +262,7 @@ public class CacheItem {
      * @return {@link #javaEclasses}
      */
     public List<String> getJavaEclasses() {
-        return Collections.unmodifiableList(javaEclasses);
+        return javaEclasses;
     }
 
     /**
@@ -181,6 +280,10 @@ public class CacheItem {
      * @return {@link #parsedMavenVersion}
      */
     public MavenVersion getParsedMavenVersion() {
+        if (parsedMavenVersion == null && mavenVersion != null) {
+            parsedMavenVersion = MavenVersion.of(mavenVersion);
+        }
+
         return parsedMavenVersion;
     }
 
@@ -0,0 +1,419 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Manifest of scanned packages that is stored next to the cache file. For
+ * every package directory it records stamp of the package files and cache
+ * items produced by the package so that unchanged packages do not have to be
+ * parsed again during cache refresh. The manifest also records scan mode it
+ * was produced with, manifest of other scan mode is not used.
+ *
+ * @author fordfrog
+ */
+class CacheManifest {
+
+    /**
+     * Manifest version.
+     */
+    static final String MANIFEST_VERSION = "1.1";
+    /**
+     * Prefix of line with scan mode.
+     */
+    private static final String PREFIX_MODE = "#mode=";
+    /**
+     * Prefix of line with package information.
+     */
+    private static final String PREFIX_PACKAGE = "P\t";
+
+    /**
+     * Returns scan mode of the manifest. Packages are scanned differently
+     * with and without md5-cache scan. Lookup table is not part of the mode
+     * as cache items are kept in the manifest without the lookup table
+     * applied.
+     *
+     * @param md5CacheScan whether java ebuilds are looked up in md5-cache
+     *
+     * @return scan mode
+     */
+    static String getMode(final boolean md5CacheScan) {
+        return md5CacheScan ? "md5-cache" : "ebuild";
+    }
+
+    /**
+     * Returns path of the manifest that belongs to the cache file.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return manifest path
+     */
+    static Path getPath(final Path cacheFile) {
+        return cacheFile.resolveSibling(cacheFile.getFileName() + ".manifest");
+    }
+
+    /**
+     * Computes stamp of the package. The stamp consists of names, sizes and
+     * modification times of the package ebuilds and their md5-cache entries.
+     *
+     * @param pkg package path
+     *
+     * @return package stamp
+     */
+    static String getStamp(final Path pkg) {
+        return Long.toHexString(getStampHash(pkg));
+    }
+
+    /**
+     * Computes hash of names, sizes and modification times of the package
+     * ebuilds and their md5-cache entries.
+     *
+     * @param pkg package path
+     *
+     * @return package stamp hash
+     */
+    static long getStampHash(final Path pkg) {
+        final List<String> ebuilds = new ArrayList<>(10);
+        PortageParser.listEbuilds(pkg).forEach(
+                (ebuild) -> ebuilds.add(ebuild.getFileName().toString()));
+        Collections.sort(ebuilds);
+
+        final Path md5Cache = pkg.getParent().resolveSibling("metadata").
+                resolve("md5-cache").resolve(pkg.getParent().getFileName());
+        long hash = ebuilds.size();
+
+        // size and modification time of every file are read by single call
+        for (final String ebuild : ebuilds) {
+            final BasicFileAttributes file = readAttributes(pkg.resolve(ebuild));
+            final BasicFileAttributes metadata = readAttributes(
+                    md5Cache.resolve(ebuild.substring(0,
+                            ebuild.length() - ".ebuild".length())));
+
+            hash = 31 * hash + ebuild.hashCode();
+            hash = 31 * hash + (file == null ? 0 : file.size());
+            hash = 31 * hash + (file == null
+                    ? 0 : file.lastModifiedTime().toMillis());
+            hash = 31 * hash + (metadata == null ? 0 : metadata.size());
+            hash = 31 * hash + (metadata == null
+                    ? 0 : metadata.lastModifiedTime().toMillis());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Reads basic attributes of the file.
+     *
+     * @param file file path
+     *
+     * @return file attributes or null if the file does not exist
+     */
+    private static BasicFileAttributes readAttributes(final Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (final NoSuchFileException ex) {
+            return null;
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read attributes @ " + file,
+                    ex);
+        }
+    }
+
+    /**
+     * Loads manifest from specified path. If the manifest does not exist, its
+     * version is not supported or it was produced with other scan mode, empty
+     * manifest is returned.
+     *
+     * @param path manifest path
+     * @param mode scan mode, see {@link #getMode(boolean)}
+     *
+     * @return manifest
+     */
+    static CacheManifest load(final Path path, final String mode) {
+        final CacheManifest manifest = new CacheManifest(mode);
+
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+
+        try (final BufferedReader reader
+                = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+
+            if (!MANIFEST_VERSION.equals(line)) {
+                return manifest;
+            }
+
+            line = reader.readLine();
+
+            if (!(PREFIX_MODE + mode).equals(line)) {
+                return manifest;
+            }
+
+            line = reader.readLine();
+
+            String pkg = null;
+            String stamp = null;
+            int ebuilds = 0;
+            List<CacheItem> cacheItems = null;
+
+            while (line != null) {
+                if (line.startsWith(PREFIX_PACKAGE)) {
+                    if (pkg != null) {
+                        manifest.put(pkg, stamp,
+                                createResult(cacheItems, ebuilds));
+                    }
+
+                    final String[] parts = line.split("\t");
+                    pkg = parts[1];
+                    stamp = parts[2];
+                    ebuilds = Integer.parseInt(parts[3], 10);
+                    cacheItems = new ArrayList<>(5);
+                } else if (!line.isEmpty() && pkg != null) {
+                    cacheItems.add(new CacheItem(line));
+                }
+
+                line = reader.readLine();
+            }
+
+            if (pkg != null) {
+                manifest.put(pkg, stamp, createResult(cacheItems, ebuilds));
+            }
+        } catch (final IOException | RuntimeException ex) {
+            // broken manifest only means that the tree will be parsed fully
+            return new CacheManifest(mode);
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Creates package scan result from stored cache items.
+     *
+     * @param cacheItems cache items of the package
+     * @param ebuilds    number of ebuilds in the package
+     *
+     * @return scan result
+     */
+    private static ScanResult createResult(final List<CacheItem> cacheItems,
+            final int ebuilds) {
+        final ScanResult result = new ScanResult(cacheItems.size());
+        final Set<String> versions = new HashSet<>(cacheItems.size());
+
+        for (final CacheItem cacheItem : cacheItems) {
+            result.addCacheItem(cacheItem);
+
+            // eclasses are counted once per ebuild, not per maven id
+            if (versions.add(cacheItem.getVersion())) {
+                result.countEclasses(cacheItem.getJavaEclasses());
+            }
+        }
+
+        result.addProcessedEbuilds(ebuilds);
+        result.incrementProcessedPackages();
+
+        return result;
+    }
+
+    /**
+     * Map of package paths and their entries.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(1_000);
+    /**
+     * Scan mode of the manifest.
+     */
+    private final String mode;
+
+    /**
+     * Creates new instance of CacheManifest.
+     *
+     * @param mode {@link #mode}
+     */
+    CacheManifest(final String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Copies entry of the package from other manifest.
+     *
+     * @param source source manifest
+     * @param pkg    package path
+     *
+     * @return scan result of the package or null if the package is not in
+     *         the source manifest
+     */
+    ScanResult copy(final CacheManifest source, final String pkg) {
+        final Entry entry = source.entries.get(pkg);
+
+        if (entry == null) {
+            return null;
+        }
+
+        entries.put(pkg, entry);
+
+        return entry.result;
+    }
+
+    /**
+     * Returns scan result of the package if the package did not change.
+     *
+     * @param pkg   package path
+     * @param stamp current package stamp
+     *
+     * @return stored scan result or null if the package is not in the
+     *         manifest or it has changed
+     */
+    ScanResult get(final String pkg, final String stamp) {
+        final Entry entry = entries.get(pkg);
+
+        if (entry == null || !entry.stamp.equals(stamp)) {
+            return null;
+        }
+
+        return entry.result;
+    }
+
+    /**
+     * Returns cache items of all packages of the portage tree that are stored
+     * in the manifest. Items are ordered by package path.
+     *
+     * @param tree portage tree path
+     *
+     * @return list of cache items
+     */
+    List<CacheItem> getCacheItems(final Path tree) {
+        final List<CacheItem> result = new ArrayList<>(1_000);
+
+        for (final String pkg : getPackages(tree)) {
+            final Entry entry = entries.get(pkg);
+
+            if (entry != null) {
+                result.addAll(entry.result.getCacheItems());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns sorted paths of packages of the portage tree that are stored in
+     * the manifest.
+     *
+     * @param tree portage tree path
+     *
+     * @return list of package paths
+     */
+    List<String> getPackages(final Path tree) {
+        final String prefix = tree.toString() + File.separatorChar;
+
+        return entries.keySet().stream().
+                filter((pkg) -> pkg.startsWith(prefix)).
+                sorted().
+                collect(Collectors.toList());
+    }
+
+    /**
+     * Puts package scan result to the manifest.
+     *
+     * @param pkg    package path
+     * @param stamp  package stamp
+     * @param result package scan result
+     */
+    void put(final String pkg, final String stamp, final ScanResult result) {
+        entries.put(pkg, new Entry(stamp, result));
+    }
+
+    /**
+     * Removes package from the manifest.
+     *
+     * @param pkg package path
+     *
+     * @return true if the package was in the manifest, otherwise false
+     */
+    boolean remove(final String pkg) {
+        return entries.remove(pkg) != null;
+    }
+
+    /**
+     * Writes manifest to specified path. Packages are sorted by their path.
+     *
+     * @param path manifest path
+     */
+    void write(final Path path) {
+        try (final Writer writer = new OutputStreamWriter(
+                Files.newOutputStream(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                StandardCharsets.UTF_8)) {
+            writer.write(MANIFEST_VERSION);
+            writer.write('\n');
+            writer.write(PREFIX_MODE);
+            writer.write(mode);
+            writer.write('\n');
+
+            for (final Map.Entry<String, Entry> entry
+                    : new TreeMap<>(entries).entrySet()) {
+                writer.write(PREFIX_PACKAGE);
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue().stamp);
+                writer.write('\t');
+                writer.write(Integer.toString(
+                        entry.getValue().result.getProcessedEbuilds()));
+                writer.write('\n');
+
+                for (final CacheItem cacheItem
+                        : entry.getValue().result.getCacheItems()) {
+                    PortageParser.writeCacheItem(writer, cacheItem);
+                }
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to write cache manifest @ "
+                    + path, ex);
+        }
+    }
+
+    /**
+     * Manifest entry of single package.
+     */
+    private static class Entry {
+
+        /**
+         * Package scan result.
+         */
+        private final ScanResult result;
+        /**
+         * Package stamp.
+         */
+        private final String stamp;
+
+        /**
+         * Creates new instance of Entry.
+         *
+         * @param stamp  {@link #stamp}
+         * @param result {@link #result}
+         */
+        Entry(final String stamp, final ScanResult result) {
+            this.stamp = stamp;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache split into shards, one shard per portage tree. Each shard is a
+ * regular cache file that contains path of the tree and stamp of the tree in
+ * its header, so shard of a tree that did not change can be used without
+ * parsing the tree. The cache file itself then contains only index of the
+ * shards, in order of their priority.
+ *
+ * @author fordfrog
+ */
+class CacheShards {
+
+    /**
+     * Version of the shard index, it is the first line of the cache file.
+     */
+    static final String INDEX_VERSION = "shards-1.0";
+    /**
+     * Prefix of shard header line that contains stamp of the tree.
+     */
+    private static final String PREFIX_STAMP = "#stamp=";
+    /**
+     * Prefix of shard header line that contains path of the tree.
+     */
+    private static final String PREFIX_TREE = "#tree=";
+
+    /**
+     * Returns header lines of shard.
+     *
+     * @param tree  portage tree path
+     * @param stamp portage tree stamp
+     *
+     * @return list of header lines
+     */
+    static List<String> getHeaders(final Path tree, final String stamp) {
+        return Arrays.asList(PREFIX_TREE + tree, PREFIX_STAMP + stamp);
+    }
+
+    /**
+     * Returns path of shard of the portage tree. Shards are stored in
+     * directory &lt;cache file&gt;.shards and their names are derived from
+     * the tree path.
+     *
+     * @param cacheFile cache file path
+     * @param tree      portage tree path
+     *
+     * @return shard path
+     */
+    static Path getPath(final Path cacheFile, final Path tree) {
+        final String name = tree.toString().replaceAll("[^A-Za-z0-9._-]+", "_").
+                replaceAll("^_+", "");
+
+        return cacheFile.resolveSibling(cacheFile.getFileName() + ".shards").
+                resolve(name.isEmpty() ? "root" : name);
+    }
+
+    /**
+     * Computes stamp of the portage tree. Stamp of git checkout is computed
+     * from its HEAD commit, see {@link #getGitStamp(java.nio.file.Path,
+     * java.lang.String)}. Stamp of other trees is computed from stamps of all
+     * their packages, the stamps of the packages are stored to the map so
+     * that they do not have to be computed again when the tree is scanned.
+     *
+     * @param tree          portage tree path
+     * @param packageStamps map to which stamps of the packages are put by
+     *                      package paths
+     *
+     * @return tree stamp
+     */
+    static String getStamp(final Path tree,
+            final Map<String, String> packageStamps) {
+        final String gitHead = GitTree.getHead(tree);
+
+        if (gitHead != null) {
+            final String gitStamp = getGitStamp(tree, gitHead);
+
+            if (gitStamp != null) {
+                return gitStamp;
+            }
+        }
+
+        final List<Path> categories = PortageParser.listCategories(tree);
+        Collections.sort(categories);
+
+        long hash = categories.size();
+
+        for (final Path category : categories) {
+            final List<Path> packages = PortageParser.listPackages(category);
+            Collections.sort(packages);
+
+            hash = 31 * hash + category.getFileName().hashCode();
+
+            for (final Path pkg : packages) {
+                final long packageHash = CacheManifest.getStampHash(pkg);
+                packageStamps.put(pkg.toString(),
+                        Long.toHexString(packageHash));
+
+                hash = 31 * hash + pkg.getFileName().hashCode();
+                hash = 31 * hash + packageHash;
+            }
+        }
+
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Computes stamp of git checkout of the portage tree without visiting its
+     * packages. The stamp consists of HEAD commit, size and modification time
+     * of files that changed since HEAD (including untracked files) and
+     * modification times of md5-cache category directories, as md5-cache is
+     * generated locally and is not tracked by git.
+     *
+     * @param tree    portage tree path
+     * @param gitHead HEAD commit of the tree
+     *
+     * @return tree stamp or null if git failed
+     */
+    private static String getGitStamp(final Path tree, final String gitHead) {
+        final Set<String> changedPaths
+                = GitTree.getChangedPaths(tree, gitHead);
+
+        if (changedPaths == null) {
+            return null;
+        }
+
+        final List<String> paths = new ArrayList<>(changedPaths);
+        Collections.sort(paths);
+
+        long hash = paths.size();
+
+        for (final String path : paths) {
+            hash = 31 * hash + path.hashCode();
+            hash = 31 * hash + getFileHash(tree.resolve(path));
+        }
+
+        final Path md5Cache = tree.resolve("metadata").resolve("md5-cache");
+        final List<Path> categories = PortageParser.listCategories(tree);
+        Collections.sort(categories);
+
+        for (final Path category : categories) {
+            hash = 31 * hash + getFileHash(
+                    md5Cache.resolve(category.getFileName().toString()));
+        }
+
+        return "git-" + gitHead + '-' + Long.toHexString(hash);
+    }
+
+    /**
+     * Computes hash of size and modification time of the file.
+     *
+     * @param file file path
+     *
+     * @return hash or 0 if the file does not exist
+     */
+    private static long getFileHash(final Path file) {
+        try {
+            final BasicFileAttributes attributes
+                    = Files.readAttributes(file, BasicFileAttributes.class);
+
+            return 31 * attributes.size()
+                    + attributes.lastModifiedTime().toMillis();
+        } catch (final NoSuchFileException ex) {
+            return 0;
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read attributes of file @ "
+                    + file, ex);
+        }
+    }
+
+    /**
+     * Reads shard of the portage tree if it is up-to-date.
+     *
+     * @param shard shard path
+     * @param tree  portage tree path
+     * @param stamp current portage tree stamp
+     *
+     * @return scan result with cache items of the shard or null if the shard
+     *         does not exist or it is not up-to-date
+     */
+    static ScanResult read(final Path shard, final Path tree,
+            final String stamp) {
+        if (!Files.exists(shard)) {
+            return null;
+        }
+
+        final ScanResult result = new ScanResult(1_000);
+        final Set<String> ebuilds = new HashSet<>(1_000);
+
+        try (final BufferedReader reader
+                = Files.newBufferedReader(shard, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+
+            if (!PortageParser.CACHE_VERSION.equals(line)) {
+                return null;
+            }
+
+            boolean treeMatches = false;
+            boolean stampMatches = false;
+            line = reader.readLine();
+
+            while (line != null) {
+                if (line.startsWith(PREFIX_TREE)) {
+                    treeMatches = line.substring(PREFIX_TREE.length()).
+                            equals(tree.toString());
+                } else if (line.startsWith(PREFIX_STAMP)) {
+                    stampMatches = line.substring(PREFIX_STAMP.length()).
+                            equals(stamp);
+                } else if (!line.isEmpty() && line.charAt(0) != '#') {
+                    if (!treeMatches || !stampMatches) {
+                        return null;
+                    }
+
+                    final CacheItem cacheItem = new CacheItem(line);
+                    result.addCacheItem(cacheItem);
+
+                    // eclasses are counted once per ebuild, not per maven id
+                    if (ebuilds.add(cacheItem.getCategory() + '/'
+                            + cacheItem.getPkg() + '-'
+                            + cacheItem.getVersion())) {
+                        result.countEclasses(cacheItem.getJavaEclasses());
+                    }
+                }
+
+                line = reader.readLine();
+            }
+
+            if (!treeMatches || !stampMatches) {
+                return null;
+            }
+        } catch (final IOException | RuntimeException ex) {
+            // broken shard only means that the tree will be parsed again
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads shard index from the cache file.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return list of shard paths or null if the cache file is not shard
+     *         index
+     */
+    static List<Path> readIndex(final Path cacheFile) {
+        try (final BufferedReader reader
+                = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+
+            if (!INDEX_VERSION.equals(line)) {
+                return null;
+            }
+
+            final List<Path> result = new ArrayList<>(5);
+            line = reader.readLine();
+
+            while (line != null) {
+                if (!line.isEmpty() && line.charAt(0) != '#') {
+                    result.add(cacheFile.resolveSibling(line));
+                }
+
+                line = reader.readLine();
+            }
+
+            return result;
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ "
+                    + cacheFile, ex);
+        }
+    }
+
+    /**
+     * Writes shard index to the cache file. Shard paths are stored relative
+     * to the cache file directory.
+     *
+     * @param cacheFile cache file path
+     * @param shards    shard paths in order of their priority
+     * @param headers   additional header lines
+     */
+    static void writeIndex(final Path cacheFile, final List<Path> shards,
+            final List<String> headers) {
+        try (final Writer writer = new OutputStreamWriter(
+                Files.newOutputStream(cacheFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                StandardCharsets.UTF_8)) {
+            writer.write(INDEX_VERSION);
+            writer.write('\n');
+
+            for (final String header : headers) {
+                writer.write(header);
+                writer.write('\n');
+            }
+
+            for (final Path shard : shards) {
+                writer.write(cacheFile.getParent().relativize(shard).
+                        toString());
+                writer.write('\n');
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to write cache file @ "
+                    + cacheFile, ex);
+        }
+    }
+}
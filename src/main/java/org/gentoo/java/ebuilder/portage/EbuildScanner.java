@@ -0,0 +1,801 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single pass scanner of ebuild contents. It works directly on the raw bytes
+ * of the ebuild and recognizes only the constructs that are needed for the
+ * cache: inherit commands, variable assignments (including quoted values
+ * spread across several lines) and comments. Everything else is skipped line
+ * by line. Positions of the assignments are recorded so that values of other
+ * variables are decoded only if SLOT refers to them.
+ * <p>
+ * Java eclasses are taken from the last inherit command and ebuild with
+ * inherit command without java eclass is not a java ebuild. Comment starts at
+ * any '#', even inside quotes, and it ends the value unless the quoted value
+ * continues on the next line.</p>
+ *
+ * @author fordfrog
+ */
+class EbuildScanner {
+
+    /**
+     * Current ant utilities eclass name as bytes.
+     */
+    private static final byte[] ECLASS_ANT_TASKS
+            = "ant-tasks".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Prefix of java eclasses as bytes.
+     */
+    private static final byte[] ECLASS_PREFIX_JAVA
+            = "java-".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Inherit command as bytes.
+     */
+    private static final byte[] INHERIT
+            = "inherit".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * JAVA_PKG_OPT_USE variable name as bytes.
+     */
+    private static final byte[] VAR_JAVA_PKG_OPT_USE
+            = "JAVA_PKG_OPT_USE".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * MAVEN_ID variable name as bytes.
+     */
+    private static final byte[] VAR_MAVEN_ID
+            = "MAVEN_ID".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * MAVEN_PROVIDES variable name as bytes.
+     */
+    private static final byte[] VAR_MAVEN_PROVIDES
+            = "MAVEN_PROVIDES".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * SLOT variable name as bytes.
+     */
+    private static final byte[] VAR_SLOT
+            = "SLOT".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Checks on byte level whether ebuild contents contains inherit command
+     * with java eclass. The check is tolerant, it can accept some non-java
+     * ebuilds (these are then rejected by the scanner), but it never rejects
+     * ebuild that the scanner would accept. That is why inherit command is
+     * recognized anywhere after blank or ';', not only at the beginning of
+     * line, so that it is found also after assignments like
+     * <code>FOO=bar; inherit java-pkg-2</code>.
+     *
+     * @param content ebuild contents
+     *
+     * @return true if the ebuild might inherit java eclass, otherwise false
+     */
+    static boolean hasJavaInherit(final byte[] content) {
+        int pos = 0;
+
+        while (pos < content.length) {
+            if (isCommand(content, pos, INHERIT) && (pos == 0
+                    || isBlank(content[pos - 1]) || content[pos - 1] == '\n'
+                    || content[pos - 1] == ';')) {
+                pos += INHERIT.length;
+
+                while (pos < content.length && content[pos] != '\n'
+                        && content[pos] != '#' && content[pos] != ';') {
+                    if (isBlank(content[pos]) || content[pos] == '\\') {
+                        pos++;
+
+                        // line continuation
+                        if (content[pos - 1] == '\\' && pos < content.length
+                                && content[pos] == '\n') {
+                            pos++;
+                        }
+                    } else {
+                        final int start = pos;
+                        pos = skipWord(content, pos);
+
+                        if (isJavaEclass(content, start, pos)) {
+                            return true;
+                        }
+                    }
+                }
+            } else {
+                pos++;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the bytes between specified positions contain the byte.
+     *
+     * @param content ebuild contents
+     * @param start   start position
+     * @param end     end position (exclusive)
+     * @param b       byte to look for
+     *
+     * @return true if the byte was found, otherwise false
+     */
+    private static boolean contains(final byte[] content, final int start,
+            final int end, final byte b) {
+        for (int i = start; i < end; i++) {
+            if (content[i] == b) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns position of the end of the line.
+     *
+     * @param content ebuild contents
+     * @param pos     position in the line
+     *
+     * @return position of the new line character or end of the contents
+     */
+    private static int getLineEnd(final byte[] content, final int pos) {
+        int result = pos;
+
+        while (result < content.length && content[result] != '\n') {
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether the byte is a blank character. All control characters
+     * except new line are treated as blanks.
+     *
+     * @param b byte to check
+     *
+     * @return true if the byte is blank, otherwise false
+     */
+    private static boolean isBlank(final byte b) {
+        return b >= 0 && b <= ' ' && b != '\n';
+    }
+
+    /**
+     * Checks whether the bytes at specified position contain the command
+     * followed by a blank.
+     *
+     * @param content ebuild contents
+     * @param pos     position in the contents
+     * @param command command name
+     *
+     * @return true if the command is at the position, otherwise false
+     */
+    private static boolean isCommand(final byte[] content, final int pos,
+            final byte[] command) {
+        return startsWith(content, pos, command)
+                && pos + command.length < content.length
+                && isBlank(content[pos + command.length]);
+    }
+
+    /**
+     * Checks whether the word between specified positions is a java eclass
+     * name.
+     *
+     * @param content ebuild contents
+     * @param start   start position of the word
+     * @param end     end position of the word (exclusive)
+     *
+     * @return true if the word is java eclass, otherwise false
+     */
+    private static boolean isJavaEclass(final byte[] content, final int start,
+            final int end) {
+        return startsWith(content, start, ECLASS_PREFIX_JAVA)
+                || end - start == ECLASS_ANT_TASKS.length
+                && startsWith(content, start, ECLASS_ANT_TASKS);
+    }
+
+    /**
+     * Checks whether the character can be part of variable name.
+     *
+     * @param b     character to check
+     * @param first whether the character is the first character of the name
+     *
+     * @return true if the character can be part of variable name, otherwise
+     *         false
+     */
+    private static boolean isNameChar(final int b, final boolean first) {
+        return b >= 'A' && b <= 'Z' || b >= 'a' && b <= 'z' || b == '_'
+                || !first && b >= '0' && b <= '9';
+    }
+
+    /**
+     * Skips blank characters.
+     *
+     * @param content ebuild contents
+     * @param pos     start position
+     *
+     * @return position of the first non-blank character
+     */
+    private static int skipBlanks(final byte[] content, final int pos) {
+        int result = pos;
+
+        while (result < content.length && isBlank(content[result])) {
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Skips the rest of the line including the new line character.
+     *
+     * @param content ebuild contents
+     * @param pos     start position
+     *
+     * @return position of the first character of the next line
+     */
+    private static int skipLine(final byte[] content, final int pos) {
+        return getLineEnd(content, pos) + 1;
+    }
+
+    /**
+     * Skips word of inherit command.
+     *
+     * @param content ebuild contents
+     * @param pos     start position
+     *
+     * @return position right after the word
+     */
+    private static int skipWord(final byte[] content, final int pos) {
+        int result = pos;
+
+        while (result < content.length && content[result] != '\n'
+                && content[result] != '\\' && content[result] != '#'
+                && content[result] != ';' && !isBlank(content[result])) {
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether the bytes at specified position start with the prefix.
+     *
+     * @param bytes  bytes to check
+     * @param pos    position in the bytes
+     * @param prefix prefix
+     *
+     * @return true if bytes at the position start with the prefix, otherwise
+     *         false
+     */
+    private static boolean startsWith(final byte[] bytes, final int pos,
+            final byte[] prefix) {
+        if (pos < 0 || pos + prefix.length > bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Number of recorded assignments.
+     */
+    private int assignments;
+    /**
+     * Ebuild contents.
+     */
+    private final byte[] content;
+    /**
+     * Buffer for decoding values.
+     */
+    private byte[] decodeBuffer = new byte[64];
+    /**
+     * Java eclasses from the last inherit command, in the order of
+     * appearance, or empty list if some inherit command does not inherit
+     * java eclass.
+     */
+    private List<String> javaEclasses = Collections.emptyList();
+    /**
+     * Whether some inherit command does not inherit java eclass.
+     */
+    private boolean nonJavaInherit;
+    /**
+     * Value of the last JAVA_PKG_OPT_USE assignment or null.
+     */
+    private String javaPkgOptUse;
+    /**
+     * Value of the last MAVEN_ID assignment or null.
+     */
+    private String mavenId;
+    /**
+     * Artifact ids from all MAVEN_PROVIDES assignments.
+     */
+    private List<String> mavenProvides = Collections.emptyList();
+    /**
+     * Positions of assignments, each assignment occupies three items: start
+     * of the name, end of the name and start of the value.
+     */
+    private int[] positions = new int[96];
+    /**
+     * Value of the last SLOT assignment or null.
+     */
+    private String slot;
+
+    /**
+     * Creates new instance of EbuildScanner and scans the contents.
+     *
+     * @param content ebuild contents
+     */
+    EbuildScanner(final byte[] content) {
+        this.content = content;
+        scan();
+    }
+
+    /**
+     * Replaces references of variables assigned in the ebuild ($NAME and
+     * ${NAME}) with values of their last assignments. References of
+     * variables that are not assigned in the ebuild are kept as they are.
+     * The values are not expanded recursively.
+     *
+     * @param value value to expand
+     *
+     * @return expanded value
+     */
+    String expandVariables(final String value) {
+        int pos = value.indexOf('$');
+
+        if (pos == -1) {
+            return value;
+        }
+
+        final StringBuilder sbResult = new StringBuilder(value.length() + 10);
+        int copied = 0;
+
+        while (pos != -1) {
+            final boolean braced
+                    = pos + 1 < value.length() && value.charAt(pos + 1) == '{';
+            final int start = braced ? pos + 2 : pos + 1;
+            int end = start;
+
+            while (end < value.length()
+                    && isNameChar(value.charAt(end), end == start)) {
+                end++;
+            }
+
+            final int referenceEnd;
+
+            if (end == start) {
+                referenceEnd = -1;
+            } else if (braced) {
+                referenceEnd = end < value.length() && value.charAt(end) == '}'
+                        ? end + 1 : -1;
+            } else {
+                referenceEnd = end;
+            }
+
+            final String variable = referenceEnd == -1
+                    ? null : getVariable(value.substring(start, end));
+
+            if (variable == null) {
+                pos = value.indexOf('$', pos + 1);
+            } else {
+                sbResult.append(value, copied, pos);
+                sbResult.append(variable);
+                copied = referenceEnd;
+                pos = value.indexOf('$', referenceEnd);
+            }
+        }
+
+        sbResult.append(value, copied, value.length());
+
+        return sbResult.toString();
+    }
+
+    /**
+     * Getter for {@link #javaEclasses}.
+     *
+     * @return {@link #javaEclasses}
+     */
+    List<String> getJavaEclasses() {
+        return javaEclasses;
+    }
+
+    /**
+     * Getter for {@link #javaPkgOptUse}.
+     *
+     * @return {@link #javaPkgOptUse}
+     */
+    String getJavaPkgOptUse() {
+        return javaPkgOptUse;
+    }
+
+    /**
+     * Getter for {@link #mavenId}.
+     *
+     * @return {@link #mavenId}
+     */
+    String getMavenId() {
+        return mavenId;
+    }
+
+    /**
+     * Getter for {@link #mavenProvides}.
+     *
+     * @return {@link #mavenProvides}
+     */
+    List<String> getMavenProvides() {
+        return mavenProvides;
+    }
+
+    /**
+     * Getter for {@link #slot}.
+     *
+     * @return {@link #slot}
+     */
+    String getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns value of the last assignment of the variable.
+     *
+     * @param name variable name
+     *
+     * @return variable value or null if the variable is not assigned in the
+     *         ebuild
+     */
+    String getVariable(final String name) {
+        for (int i = (assignments - 1) * 3; i >= 0; i -= 3) {
+            final int start = positions[i];
+
+            if (positions[i + 1] - start != name.length()) {
+                continue;
+            }
+
+            boolean matches = true;
+
+            for (int j = 0; j < name.length() && matches; j++) {
+                matches = content[start + j] == name.charAt(j);
+            }
+
+            if (matches) {
+                return decodeValue(positions[i + 2]);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Appends byte to {@link #decodeBuffer}.
+     *
+     * @param length current length of decoded value
+     * @param b      byte to append
+     *
+     * @return new length of decoded value
+     */
+    private int append(final int length, final byte b) {
+        if (length == decodeBuffer.length) {
+            decodeBuffer = Arrays.copyOf(decodeBuffer, length * 2);
+        }
+
+        decodeBuffer[length] = b;
+
+        return length + 1;
+    }
+
+    /**
+     * Decodes value of assignment that starts at specified position.
+     *
+     * @param pos start position of the value
+     *
+     * @return decoded value
+     */
+    private String decodeValue(final int pos) {
+        final int length = readValue(pos, true);
+
+        return new String(decodeBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether the assignment at specified position assigns the
+     * variable.
+     *
+     * @param start start position of the name
+     * @param end   end position of the name
+     * @param name  variable name
+     *
+     * @return true if the assignment assigns the variable, otherwise false
+     */
+    private boolean isVariable(final int start, final int end,
+            final byte[] name) {
+        return end - start == name.length && startsWith(content, start, name);
+    }
+
+    /**
+     * Reads value of assignment. Quotes are removed and backslash escapes
+     * are resolved if the value is decoded. Command substitutions and
+     * parameter expansions are kept as they are. The value ends at '#'. If
+     * the '#' is inside quotes and the rest of the line does not contain
+     * the closing quote, the quoted value continues on the next line.
+     *
+     * @param pos    start position of the value
+     * @param decode whether the value should be decoded to
+     *               {@link #decodeBuffer}
+     *
+     * @return length of decoded value if decoded, otherwise position right
+     *         after the value
+     */
+    private int readValue(final int pos, final boolean decode) {
+        int length = 0;
+        int depth = 0;
+        int i = pos;
+
+        while (i < content.length) {
+            final byte b = content[i];
+
+            if (b == '#') {
+                break;
+            } else if (b == '"' && depth == 0) {
+                i++;
+
+                while (i < content.length && content[i] != '"') {
+                    if (content[i] == '#') {
+                        final int lineEnd = getLineEnd(content, i);
+
+                        if (contains(content, i, lineEnd, (byte) '"')) {
+                            // comment hides the closing quote
+                            i = lineEnd - 1;
+
+                            if (decode) {
+                                length = trimEnd(length);
+                            }
+
+                            break;
+                        }
+
+                        i = lineEnd;
+
+                        continue;
+                    }
+
+                    if (content[i] == '\\' && i + 1 < content.length
+                            && (content[i + 1] == '"' || content[i + 1] == '\\'
+                            || content[i + 1] == '$' || content[i + 1] == '`'
+                            || content[i + 1] == '\n')) {
+                        i++;
+
+                        if (content[i] == '\n') {
+                            i++;
+
+                            continue;
+                        }
+                    }
+
+                    if (decode) {
+                        length = append(length, content[i]);
+                    }
+
+                    i++;
+                }
+
+                i++;
+            } else if (b == '\'' && depth == 0) {
+                i++;
+
+                while (i < content.length && content[i] != '\'') {
+                    if (content[i] == '#') {
+                        final int lineEnd = getLineEnd(content, i);
+
+                        if (contains(content, i, lineEnd, (byte) '\'')) {
+                            // comment hides the closing quote
+                            i = lineEnd - 1;
+
+                            if (decode) {
+                                length = trimEnd(length);
+                            }
+
+                            break;
+                        }
+
+                        i = lineEnd;
+
+                        continue;
+                    }
+
+                    if (decode) {
+                        length = append(length, content[i]);
+                    }
+
+                    i++;
+                }
+
+                i++;
+            } else if (b == '\\' && depth == 0 && i + 1 < content.length) {
+                if (content[i + 1] != '\n' && decode) {
+                    length = append(length, content[i + 1]);
+                }
+
+                i += 2;
+            } else if (depth == 0 && (b == '\n' || b == ';' || isBlank(b))) {
+                break;
+            } else {
+                // command substitutions and parameter expansions can contain
+                // blanks
+                if (b == '$' && i + 1 < content.length
+                        && (content[i + 1] == '(' || content[i + 1] == '{')) {
+                    depth++;
+
+                    if (decode) {
+                        length = append(length, b);
+                    }
+
+                    i++;
+                } else if (depth > 0 && (b == ')' || b == '}')) {
+                    depth--;
+                } else if (depth > 0 && b == '\n') {
+                    // unbalanced expansion, do not read the whole file
+                    break;
+                }
+
+                if (decode) {
+                    length = append(length, content[i]);
+                }
+
+                i++;
+            }
+        }
+
+        return decode ? length : Math.min(i, content.length);
+    }
+
+    /**
+     * Removes trailing blanks from decoded value.
+     *
+     * @param length length of decoded value
+     *
+     * @return length of decoded value without trailing blanks
+     */
+    private int trimEnd(final int length) {
+        int result = length;
+
+        while (result > 0 && isBlank(decodeBuffer[result - 1])) {
+            result--;
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads inherit command and sets {@link #javaEclasses} to java eclasses
+     * of the command. If the command does not inherit java eclass, the
+     * ebuild is not java ebuild even if other inherit command inherits java
+     * eclass.
+     *
+     * @param pos position right after inherit command name
+     *
+     * @return position right after the inherit command
+     */
+    private int readInherit(final int pos) {
+        final List<String> eclasses = new ArrayList<>(3);
+        int i = pos;
+
+        while (i < content.length && content[i] != '\n' && content[i] != '#'
+                && content[i] != ';') {
+            if (isBlank(content[i])) {
+                i++;
+            } else if (content[i] == '\\') {
+                i += 2;
+            } else {
+                final int start = i;
+                i = skipWord(content, i);
+
+                if (isJavaEclass(content, start, i)) {
+                    eclasses.add(new String(content, start, i - start,
+                            StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        if (eclasses.isEmpty()) {
+            nonJavaInherit = true;
+        }
+
+        javaEclasses = nonJavaInherit ? Collections.emptyList() : eclasses;
+
+        return i;
+    }
+
+    /**
+     * Records assignment and reads its value if it is one of the variables
+     * the cache is interested in.
+     *
+     * @param nameStart  start position of the name
+     * @param nameEnd    end position of the name
+     * @param valueStart start position of the value
+     *
+     * @return position right after the value
+     */
+    private int readAssignment(final int nameStart, final int nameEnd,
+            final int valueStart) {
+        if (positions.length == assignments * 3) {
+            positions = Arrays.copyOf(positions,
+                    positions.length * 2);
+        }
+
+        positions[assignments * 3] = nameStart;
+        positions[assignments * 3 + 1] = nameEnd;
+        positions[assignments * 3 + 2] = valueStart;
+        assignments++;
+
+        if (isVariable(nameStart, nameEnd, VAR_SLOT)) {
+            slot = decodeValue(valueStart);
+        } else if (isVariable(nameStart, nameEnd, VAR_JAVA_PKG_OPT_USE)) {
+            javaPkgOptUse = decodeValue(valueStart);
+        } else if (isVariable(nameStart, nameEnd, VAR_MAVEN_ID)) {
+            mavenId = decodeValue(valueStart);
+        } else if (isVariable(nameStart, nameEnd, VAR_MAVEN_PROVIDES)) {
+            final String value = decodeValue(valueStart).trim();
+
+            if (!value.isEmpty()) {
+                if (mavenProvides.isEmpty()) {
+                    mavenProvides = new ArrayList<>(5);
+                }
+
+                Collections.addAll(mavenProvides, value.split("\\s+"));
+            }
+        }
+
+        return readValue(valueStart, false);
+    }
+
+    /**
+     * Scans the contents. Each line is checked for inherit command or
+     * variable assignment at its beginning, other lines are skipped.
+     */
+    private void scan() {
+        int pos = 0;
+
+        while (pos < content.length) {
+            pos = skipBlanks(content, pos);
+
+            if (pos >= content.length) {
+                break;
+            }
+
+            if (isCommand(content, pos, INHERIT)) {
+                pos = readInherit(pos + INHERIT.length);
+            } else if (isNameChar(content[pos], true)) {
+                int nameEnd = pos + 1;
+
+                while (nameEnd < content.length
+                        && isNameChar(content[nameEnd], false)) {
+                    nameEnd++;
+                }
+
+                if (nameEnd < content.length && content[nameEnd] == '=') {
+                    pos = readAssignment(pos, nameEnd, nameEnd + 1);
+
+                    // more assignments can follow on the same line
+                    pos = skipBlanks(content, pos);
+
+                    if (pos < content.length && content[pos] != '\n'
+                            && content[pos] != '#') {
+                        if (content[pos] == ';') {
+                            pos++;
+                        }
+
+                        continue;
+                    }
+                }
+            }
+
+            pos = skipLine(content, pos);
+        }
+    }
+}
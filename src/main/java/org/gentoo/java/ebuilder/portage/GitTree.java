@@ -0,0 +1,129 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Queries git checkout of portage tree using local git command.
+ *
+ * @author fordfrog
+ */
+class GitTree {
+
+    /**
+     * Returns HEAD commit of portage tree.
+     *
+     * @param tree portage tree path
+     *
+     * @return HEAD commit or null if the tree is not a git checkout or git
+     *         failed
+     */
+    static String getHead(final Path tree) {
+        if (!Files.exists(tree.resolve(".git"))) {
+            return null;
+        }
+
+        final String output = git(tree, "rev-parse", "--verify", "HEAD");
+
+        return output == null || output.trim().isEmpty()
+                ? null : output.trim();
+    }
+
+    /**
+     * Returns paths that changed in the working tree since specified commit,
+     * including untracked files. Paths are relative to the tree root.
+     *
+     * @param tree  portage tree path
+     * @param since commit to compare the working tree with
+     *
+     * @return set of changed paths or null if git failed, for example
+     *         because the commit is not available in the history
+     */
+    static Set<String> getChangedPaths(final Path tree, final String since) {
+        final String changed = git(tree, "diff", "--name-only", "--no-renames",
+                "-z", since);
+
+        if (changed == null) {
+            return null;
+        }
+
+        final String untracked = git(tree, "ls-files", "--others",
+                "--exclude-standard", "-z");
+
+        if (untracked == null) {
+            return null;
+        }
+
+        final Set<String> result = new LinkedHashSet<>(100);
+        addPaths(result, changed);
+        addPaths(result, untracked);
+
+        return result;
+    }
+
+    /**
+     * Adds NUL separated paths to the set.
+     *
+     * @param paths  set of paths
+     * @param output NUL separated paths
+     */
+    private static void addPaths(final Set<String> paths, final String output) {
+        Arrays.stream(output.split("\0")).
+                filter((path) -> !path.isEmpty()).
+                forEach(paths::add);
+    }
+
+    /**
+     * Runs git command in the tree.
+     *
+     * @param tree      portage tree path
+     * @param arguments git arguments
+     *
+     * @return standard output of the command or null if the command failed
+     */
+    private static String git(final Path tree, final String... arguments) {
+        final List<String> command = new ArrayList<>(arguments.length + 3);
+        command.add("git");
+        command.add("-C");
+        command.add(tree.toString());
+        command.addAll(Arrays.asList(arguments));
+
+        try {
+            final Process process = new ProcessBuilder(command).
+                    redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    4_096);
+
+            try (final InputStream input = process.getInputStream()) {
+                final byte[] buffer = new byte[8_192];
+                int count = input.read(buffer);
+
+                while (count != -1) {
+                    output.write(buffer, 0, count);
+                    count = input.read(buffer);
+                }
+            }
+
+            if (process.waitFor() != 0) {
+                return null;
+            }
+
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } catch (final IOException ex) {
+            return null;
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Lookup table of maven group ids and artifact ids of portage packages that
+ * do not specify them in the ebuild. The table is JSON file in format
+ * <code>{"category": {"pkg": {"slot": [["groupId", "artifactId"], ...]}}}</code>
+ * and it is indexed by category, package and slot.
+ *
+ * @author fordfrog
+ */
+public class LookupTable {
+
+    /**
+     * Map of keys created from category, package and slot and lists of
+     * group id and artifact id pairs.
+     */
+    private final Map<String, List<String[]>> mavenIds;
+    /**
+     * Stamp of the lookup table file content.
+     */
+    private final String stamp;
+
+    /**
+     * Reads lookup table from the file.
+     *
+     * @param lutFile lookup table file path
+     *
+     * @return lookup table
+     */
+    public static LookupTable read(final Path lutFile) {
+        final byte[] content;
+
+        try {
+            content = Files.readAllBytes(lutFile);
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read lookup table @ "
+                    + lutFile, ex);
+        }
+
+        final Map<String, List<String[]>> mavenIds = new HashMap<>(1_000);
+
+        try {
+            final Object categories = new JsonParser(
+                    new String(content, StandardCharsets.UTF_8)).parse();
+
+            for (final Map.Entry<String, Object> category
+                    : asObject(categories).entrySet()) {
+                for (final Map.Entry<String, Object> pkg
+                        : asObject(category.getValue()).entrySet()) {
+                    for (final Map.Entry<String, Object> slot
+                            : asObject(pkg.getValue()).entrySet()) {
+                        final List<Object> ids = asArray(slot.getValue());
+                        final List<String[]> pairs = new ArrayList<>(
+                                ids.size());
+
+                        for (final Object id : ids) {
+                            final List<Object> pair = asArray(id);
+
+                            if (pair.size() != 2) {
+                                throw new IllegalArgumentException(
+                                        "Expected group id and artifact id "
+                                        + "of " + category.getKey() + "/"
+                                        + pkg.getKey() + ":" + slot.getKey());
+                            }
+
+                            pairs.add(new String[]{asString(pair.get(0)),
+                                asString(pair.get(1))});
+                        }
+
+                        mavenIds.put(getKey(category.getKey(), pkg.getKey(),
+                                slot.getKey()), pairs);
+                    }
+                }
+            }
+        } catch (final IllegalArgumentException ex) {
+            throw new RuntimeException("Failed to parse lookup table @ "
+                    + lutFile, ex);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+
+        return new LookupTable(mavenIds, Long.toHexString(crc.getValue()));
+    }
+
+    /**
+     * Casts JSON value to JSON array.
+     *
+     * @param value JSON value
+     *
+     * @return list of values
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> asArray(final Object value) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected array but found "
+                    + value);
+        }
+
+        return (List<Object>) value;
+    }
+
+    /**
+     * Casts JSON value to JSON object.
+     *
+     * @param value JSON value
+     *
+     * @return map of members
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(final Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected object but found "
+                    + value);
+        }
+
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Casts JSON value to string.
+     *
+     * @param value JSON value
+     *
+     * @return string
+     */
+    private static String asString(final Object value) {
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Expected string but found "
+                    + value);
+        }
+
+        return (String) value;
+    }
+
+    /**
+     * Creates key of lookup table entry.
+     *
+     * @param category portage category
+     * @param pkg      portage package
+     * @param slot     portage slot
+     *
+     * @return key
+     */
+    private static String getKey(final String category, final String pkg,
+            final String slot) {
+        return category + '/' + pkg + ':' + slot;
+    }
+
+    /**
+     * Creates new instance of LookupTable.
+     *
+     * @param mavenIds {@link #mavenIds}
+     * @param stamp    {@link #stamp}
+     */
+    private LookupTable(final Map<String, List<String[]>> mavenIds,
+            final String stamp) {
+        this.mavenIds = mavenIds;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Fills in maven group id and artifact id of cache items that do not
+     * have them. Cache item is replaced with one cache item for every group
+     * id and artifact id found in the table, the maven version of these items
+     * is the portage version. Cache items that are not found in the table are
+     * left out. Cache items that have group id are kept as they are, so
+     * applying the table to already filled cache items does not change them.
+     *
+     * @param cacheItems cache items
+     *
+     * @return new list of cache items
+     */
+    public List<CacheItem> apply(final List<CacheItem> cacheItems) {
+        final List<CacheItem> result = new ArrayList<>(cacheItems.size());
+
+        for (final CacheItem cacheItem : cacheItems) {
+            if (cacheItem.getGroupId() != null) {
+                result.add(cacheItem);
+
+                continue;
+            }
+
+            for (final String[] mavenId : getMavenIds(cacheItem.getCategory(),
+                    cacheItem.getPkg(), cacheItem.getSlot())) {
+                result.add(new CacheItem(cacheItem.getCategory(),
+                        cacheItem.getPkg(), cacheItem.getVersion(),
+                        cacheItem.getSlot(), cacheItem.getUseFlag(),
+                        mavenId[0], mavenId[1], cacheItem.getVersion(),
+                        cacheItem.getJavaEclasses() == null
+                        ? Collections.emptyList()
+                        : cacheItem.getJavaEclasses()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns group id and artifact id pairs of the package.
+     *
+     * @param category portage category
+     * @param pkg      portage package
+     * @param slot     portage slot
+     *
+     * @return list of group id and artifact id pairs, empty list if the
+     *         package is not in the table
+     */
+    public List<String[]> getMavenIds(final String category, final String pkg,
+            final String slot) {
+        return mavenIds.getOrDefault(getKey(category, pkg, slot),
+                Collections.emptyList());
+    }
+
+    /**
+     * Getter for {@link #stamp}.
+     *
+     * @return {@link #stamp}
+     */
+    public String getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Minimal JSON parser that is sufficient for the lookup table. Objects
+     * are parsed to maps that keep order of members, arrays to lists and
+     * strings to strings. Other values (numbers, booleans and null) are not
+     * used by the lookup table and they are rejected.
+     */
+    private static class JsonParser {
+
+        /**
+         * JSON text.
+         */
+        private final String json;
+        /**
+         * Current position in the JSON text.
+         */
+        private int pos;
+
+        /**
+         * Creates new instance of JsonParser.
+         *
+         * @param json {@link #json}
+         */
+        JsonParser(final String json) {
+            this.json = json;
+        }
+
+        /**
+         * Parses the JSON text.
+         *
+         * @return parsed value
+         */
+        Object parse() {
+            final Object result = parseValue();
+            skipWhitespace();
+
+            if (pos < json.length()) {
+                throw error("Unexpected content");
+            }
+
+            return result;
+        }
+
+        /**
+         * Consumes the character if it is at current position.
+         *
+         * @param c character
+         *
+         * @return true if the character was consumed, otherwise false
+         */
+        private boolean consume(final char c) {
+            if (pos < json.length() && json.charAt(pos) == c) {
+                pos++;
+
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Creates exception with position in the JSON text.
+         *
+         * @param message error message
+         *
+         * @return exception
+         */
+        private IllegalArgumentException error(final String message) {
+            return new IllegalArgumentException(message + " at position "
+                    + pos);
+        }
+
+        /**
+         * Consumes expected character.
+         *
+         * @param expected expected character
+         */
+        private void expect(final char expected) {
+            skipWhitespace();
+
+            if (pos >= json.length() || json.charAt(pos) != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+
+            pos++;
+        }
+
+        /**
+         * Parses JSON array.
+         *
+         * @return list of values
+         */
+        private List<Object> parseArray() {
+            final List<Object> result = new ArrayList<>(2);
+            expect('[');
+            skipWhitespace();
+
+            if (consume(']')) {
+                return result;
+            }
+
+            do {
+                result.add(parseValue());
+                skipWhitespace();
+            } while (consume(','));
+
+            expect(']');
+
+            return result;
+        }
+
+        /**
+         * Parses JSON object.
+         *
+         * @return map of members
+         */
+        private Map<String, Object> parseObject() {
+            final Map<String, Object> result = new LinkedHashMap<>(10);
+            expect('{');
+            skipWhitespace();
+
+            if (consume('}')) {
+                return result;
+            }
+
+            do {
+                skipWhitespace();
+                final String name = parseString();
+                expect(':');
+                result.put(name, parseValue());
+                skipWhitespace();
+            } while (consume(','));
+
+            expect('}');
+
+            return result;
+        }
+
+        /**
+         * Parses JSON string.
+         *
+         * @return string
+         */
+        private String parseString() {
+            expect('"');
+
+            final StringBuilder result = new StringBuilder(32);
+
+            while (pos < json.length()) {
+                final char c = json.charAt(pos++);
+
+                if (c == '"') {
+                    return result.toString();
+                } else if (c != '\\') {
+                    result.append(c);
+                } else if (pos < json.length()) {
+                    final char escaped = json.charAt(pos++);
+
+                    switch (escaped) {
+                        case 'b':
+                            result.append('\b');
+                            break;
+                        case 'f':
+                            result.append('\f');
+                            break;
+                        case 'n':
+                            result.append('\n');
+                            break;
+                        case 'r':
+                            result.append('\r');
+                            break;
+                        case 't':
+                            result.append('\t');
+                            break;
+                        case '"':
+                        case '\\':
+                        case '/':
+                            result.append(escaped);
+                            break;
+                        case 'u':
+                            if (pos + 4 > json.length()) {
+                                throw error("Invalid unicode escape");
+                            }
+
+                            int code = 0;
+
+                            for (final int end = pos + 4; pos < end; pos++) {
+                                final int digit
+                                        = Character.digit(json.charAt(pos), 16);
+
+                                if (digit == -1) {
+                                    throw error("Invalid unicode escape");
+                                }
+
+                                code = code * 16 + digit;
+                            }
+
+                            result.append((char) code);
+                            break;
+                        default:
+                            throw error("Invalid escape '\\" + escaped + "'");
+                    }
+                }
+            }
+
+            throw error("Unterminated string");
+        }
+
+        /**
+         * Parses JSON value.
+         *
+         * @return parsed value
+         */
+        private Object parseValue() {
+            skipWhitespace();
+
+            if (pos >= json.length()) {
+                throw error("Unexpected end of JSON");
+            }
+
+            switch (json.charAt(pos)) {
+                case '{':
+                    return parseObject();
+                case '[':
+                    return parseArray();
+                case '"':
+                    return parseString();
+                default:
+                    throw error("Expected object, array or string but found '"
+                            + json.charAt(pos) + "'");
+            }
+        }
+
+        /**
+         * Skips whitespace characters.
+         */
+        private void skipWhitespace() {
+            while (pos < json.length()
+                    && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
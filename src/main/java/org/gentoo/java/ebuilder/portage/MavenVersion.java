@@ -1,25 +1,44 @@
 package org.gentoo.java.ebuilder.portage;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Maven version container.
+ * Maven version container. Version string is parsed in single pass the same
+ * way as regular expression
+ * <code>^[vr]?(\d+)(?:\.(\d+))?(?:(?:\.|b|beta)(\d+))?(?:[\.-]?(.*))?$</code>
+ * would parse it. Major, minor and incremental version numbers are packed
+ * into single sort key, so versions are compared by primitive key and
+ * qualifiers are compared only if the numbers are the same. Instances are
+ * immutable, {@link #of(java.lang.String)} returns shared instances for
+ * repeated version strings.
  *
  * @author fordfrog
  */
 public class MavenVersion implements Comparable<MavenVersion> {
 
     /**
-     * Pattern for parsing maven version number.
+     * Sort key of version whose numbers do not fit into the key.
      */
-    private static final Pattern PATTERN_VERSION = Pattern.compile(
-            "^[vr]?(\\d+)(?:\\.(\\d+))?(?:(?:\\.|b|beta)(\\d+))?(?:[\\.-]?(.*))?$");
+    public static final long NO_SORT_KEY = -1;
     /**
-     * Pattern for parsing maven version range.
+     * Shared instances by version string.
      */
-    private static final Pattern PATTERN_VERSION_RANGE
-            = Pattern.compile("[\\[\\(](.*), ?(.*?)[\\]\\)]");
+    private static final ConcurrentMap<String, MavenVersion> INSTANCES
+            = new ConcurrentHashMap<>(4_096);
+    /**
+     * Maximum number of shared instances. When the limit is reached, new
+     * version strings get their own instances.
+     */
+    private static final int MAX_INSTANCES = 100_000;
+    /**
+     * Number of bits of single version number in the sort key.
+     */
+    private static final int SORT_KEY_BITS = 21;
+    /**
+     * Maximum version number that fits into the sort key.
+     */
+    private static final int SORT_KEY_MAX = (1 << SORT_KEY_BITS) - 1;
     /**
      * Incremental version number.
      */
@@ -36,56 +55,295 @@ public class MavenVersion implements Comparable<MavenVersion> {
      * Version qualifier.
      */
     private final String qualifier;
+    /**
+     * Major, minor and incremental version numbers packed into single key
+     * that compares the same way as the numbers, or {@link #NO_SORT_KEY}.
+     */
+    private final long sortKey;
     /**
      * Original version string.
      */
     private final String version;
 
     /**
-     * Creates new instance of MavenVersion.
+     * Creates new instance of MavenVersion. Version range is represented by
+     * its bound version, see {@link VersionRange#getBoundVersion()}.
      *
      * @param version version string
      */
     public MavenVersion(final String version) {
         this.version = version;
 
-        final Matcher matcherRange = PATTERN_VERSION_RANGE.matcher(version);
-        final String useVersion;
+        if (VersionRange.isRange(version)) {
+            final MavenVersion bound
+                    = new VersionRange(version).getBoundVersion();
+            majorVersion = bound.majorVersion;
+            minorVersion = bound.minorVersion;
+            incrementalVersion = bound.incrementalVersion;
+            qualifier = bound.qualifier;
+            sortKey = bound.sortKey;
+
+            return;
+        }
+
+        // positions of the numbers are found first, so invalid versions are
+        // rejected before the numbers are parsed
+        int pos = 0;
 
-        if (matcherRange.matches()) {
-            useVersion = matcherRange.group(1);
-        } else {
-            useVersion = version;
+        if (startsWith(version, pos, 'v') || startsWith(version, pos, 'r')) {
+            pos++;
         }
 
-        final Matcher matcher = PATTERN_VERSION.matcher(useVersion);
+        final int majorStart = pos;
+        final int majorEnd = skipDigits(version, majorStart);
 
-        if (!matcher.matches()) {
-            throw new RuntimeException(
-                    "Maven version " + useVersion + " is not valid.");
+        if (majorEnd == majorStart) {
+            throw invalid(version);
         }
 
-        majorVersion = Integer.parseInt(matcher.group(1), 10);
-        minorVersion = matcher.group(2) == null
-                ? 0 : Integer.parseInt(matcher.group(2), 10);
-        incrementalVersion = matcher.group(3) == null
-                ? 0 : Integer.parseInt(matcher.group(3), 10);
-        qualifier = matcher.group(4) == null ? "" : matcher.group(4).toLowerCase();
+        pos = majorEnd;
+
+        int minorStart = pos;
+        int minorEnd = pos;
+
+        if (startsWith(version, pos, '.')) {
+            minorStart = pos + 1;
+            minorEnd = skipDigits(version, minorStart);
+
+            if (minorEnd > minorStart) {
+                pos = minorEnd;
+            }
+        }
+
+        int incrementalStart = pos;
+        int incrementalEnd = pos;
+
+        if (startsWith(version, pos, '.')) {
+            incrementalStart = pos + 1;
+        } else if (startsWith(version, pos, 'b')) {
+            // "b" is tried before "beta"
+            incrementalStart = skipDigits(version, pos + 1) > pos + 1
+                    || !version.startsWith("beta", pos) ? pos + 1 : pos + 4;
+        }
+
+        if (incrementalStart > pos) {
+            incrementalEnd = skipDigits(version, incrementalStart);
+
+            if (incrementalEnd > incrementalStart) {
+                pos = incrementalEnd;
+            }
+        }
+
+        if (startsWith(version, pos, '.') || startsWith(version, pos, '-')) {
+            pos++;
+        }
+
+        // qualifier matches "." that does not match line terminators
+        for (int i = pos; i < version.length(); i++) {
+            switch (version.charAt(i)) {
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    throw invalid(version);
+                default:
+            }
+        }
+
+        majorVersion = parseNumber(version, majorStart, majorEnd);
+        minorVersion = parseNumber(version, minorStart, minorEnd);
+        incrementalVersion
+                = parseNumber(version, incrementalStart, incrementalEnd);
+        qualifier = version.substring(pos).toLowerCase();
+        sortKey = getSortKey(majorVersion, minorVersion, incrementalVersion);
+    }
+
+    /**
+     * Creates new instance of MavenVersion from already parsed components.
+     *
+     * @param version            {@link #version}
+     * @param majorVersion       {@link #majorVersion}
+     * @param minorVersion       {@link #minorVersion}
+     * @param incrementalVersion {@link #incrementalVersion}
+     * @param qualifier          {@link #qualifier}
+     */
+    MavenVersion(final String version, final int majorVersion,
+            final int minorVersion, final int incrementalVersion,
+            final String qualifier) {
+        this.version = version;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.incrementalVersion = incrementalVersion;
+        this.qualifier = qualifier;
+        sortKey = getSortKey(majorVersion, minorVersion, incrementalVersion);
+    }
+
+    /**
+     * Returns shared instance of MavenVersion for the version string. The
+     * same version strings repeat heavily in the cache and in poms, so
+     * sharing the instances saves both parsing and memory.
+     *
+     * @param version version string
+     *
+     * @return maven version
+     */
+    public static MavenVersion of(final String version) {
+        final MavenVersion result = INSTANCES.get(version);
+
+        return result == null ? share(new MavenVersion(version)) : result;
+    }
+
+    /**
+     * Returns shared instance of MavenVersion for the version string, new
+     * instance is created from already parsed components.
+     *
+     * @param version            version string
+     * @param majorVersion       major version number
+     * @param minorVersion       minor version number
+     * @param incrementalVersion incremental version number
+     * @param qualifier          version qualifier
+     *
+     * @return maven version
+     */
+    static MavenVersion of(final String version, final int majorVersion,
+            final int minorVersion, final int incrementalVersion,
+            final String qualifier) {
+        final MavenVersion result = INSTANCES.get(version);
+
+        return result == null ? share(new MavenVersion(version, majorVersion,
+                minorVersion, incrementalVersion, qualifier)) : result;
+    }
+
+    /**
+     * Packs version numbers into sort key.
+     *
+     * @param majorVersion       major version number
+     * @param minorVersion       minor version number
+     * @param incrementalVersion incremental version number
+     *
+     * @return sort key or {@link #NO_SORT_KEY} if some of the numbers does
+     *         not fit into the key
+     */
+    private static long getSortKey(final int majorVersion,
+            final int minorVersion, final int incrementalVersion) {
+        if (majorVersion > SORT_KEY_MAX || minorVersion > SORT_KEY_MAX
+                || incrementalVersion > SORT_KEY_MAX) {
+            return NO_SORT_KEY;
+        }
+
+        return (long) majorVersion << (2 * SORT_KEY_BITS)
+                | (long) minorVersion << SORT_KEY_BITS | incrementalVersion;
+    }
+
+    /**
+     * Adds the instance to shared instances unless the limit is reached.
+     *
+     * @param version maven version
+     *
+     * @return shared instance for the version string or the instance itself
+     */
+    private static MavenVersion share(final MavenVersion version) {
+        if (INSTANCES.size() >= MAX_INSTANCES) {
+            return version;
+        }
+
+        final MavenVersion previous
+                = INSTANCES.putIfAbsent(version.version, version);
+
+        return previous == null ? version : previous;
+    }
+
+    /**
+     * Creates exception for invalid version.
+     *
+     * @param version version string
+     *
+     * @return exception
+     */
+    private static RuntimeException invalid(final String version) {
+        return new RuntimeException(
+                "Maven version " + version + " is not valid.");
+    }
+
+    /**
+     * Parses version number from digits. Missing number is zero. Numbers
+     * that do not fit into int fail the same way as
+     * {@link Integer#parseInt(java.lang.String, int)}.
+     *
+     * @param version version string
+     * @param start   position of the first digit
+     * @param end     position after the last digit
+     *
+     * @return version number
+     */
+    private static int parseNumber(final String version, final int start,
+            final int end) {
+        if (end - start > 9) {
+            return Integer.parseInt(version.substring(start, end), 10);
+        }
+
+        int result = 0;
+
+        for (int i = start; i < end; i++) {
+            result = result * 10 + version.charAt(i) - '0';
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns position after digits that start at the position.
+     *
+     * @param version version string
+     * @param pos     start position
+     *
+     * @return position of the first character that is not a digit
+     */
+    private static int skipDigits(final String version, final int pos) {
+        int result = pos;
+
+        while (result < version.length() && version.charAt(result) >= '0'
+                && version.charAt(result) <= '9') {
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether the version has the character at the position.
+     *
+     * @param version   version string
+     * @param pos       position
+     * @param character expected character
+     *
+     * @return true if the character is at the position, otherwise false
+     */
+    private static boolean startsWith(final String version, final int pos,
+            final char character) {
+        return pos < version.length() && version.charAt(pos) == character;
     }
 
     @Override
     public int compareTo(final MavenVersion o) {
-        if (o == null) {
+        if (o == this) {
+            return 0;
+        } else if (o == null) {
             return 1;
-        } else if (majorVersion != o.getMajorVersion()) {
-            return Integer.valueOf(majorVersion).compareTo(o.getMajorVersion());
-        } else if (minorVersion != o.getMinorVersion()) {
-            return Integer.valueOf(minorVersion).compareTo(o.getMinorVersion());
-        } else if (incrementalVersion != o.getIncrementalVersion()) {
-            return Integer.valueOf(incrementalVersion).compareTo(o.getIncrementalVersion());
-        } else {
-            return qualifier.compareTo(o.getQualifier());
+        } else if (sortKey != NO_SORT_KEY && o.sortKey != NO_SORT_KEY) {
+            if (sortKey != o.sortKey) {
+                return Long.compare(sortKey, o.sortKey);
+            }
+        } else if (majorVersion != o.majorVersion) {
+            return Integer.compare(majorVersion, o.majorVersion);
+        } else if (minorVersion != o.minorVersion) {
+            return Integer.compare(minorVersion, o.minorVersion);
+        } else if (incrementalVersion != o.incrementalVersion) {
+            return Integer.compare(incrementalVersion, o.incrementalVersion);
         }
+
+        return qualifier.compareTo(o.qualifier);
     }
 
     /**
@@ -124,6 +382,15 @@ public class MavenVersion implements Comparable<MavenVersion> {
         return qualifier;
     }
 
+    /**
+     * Getter for {@link #sortKey}.
+     *
+     * @return {@link #sortKey}
+     */
+    public long getSortKey() {
+        return sortKey;
+    }
+
     /**
      * Getter for {@link #version}.
      *
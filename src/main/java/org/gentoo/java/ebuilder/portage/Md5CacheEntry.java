@@ -0,0 +1,117 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Container for information read from ebuild entry in metadata/md5-cache.
+ *
+ * @author fordfrog
+ */
+class Md5CacheEntry {
+
+    /**
+     * Reads md5-cache entries of the category.
+     *
+     * @param categoryPath path to category directory in md5-cache
+     *
+     * @return map of entries where key is ebuild file name without extension,
+     *         the map is empty if there is no md5-cache for the category
+     */
+    static Map<String, Md5CacheEntry> readCategory(final Path categoryPath) {
+        final Map<String, Md5CacheEntry> result = new HashMap<>(100);
+
+        if (!Files.isDirectory(categoryPath)) {
+            return result;
+        }
+
+        try (final DirectoryStream<Path> entries
+                = Files.newDirectoryStream(categoryPath)) {
+            for (final Path entry : entries) {
+                result.put(entry.getFileName().toString(), read(entry));
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read md5-cache @ "
+                    + categoryPath, ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads single md5-cache entry.
+     *
+     * @param path path to md5-cache entry
+     *
+     * @return md5-cache entry
+     */
+    static Md5CacheEntry read(final Path path) {
+        String inherit = "";
+        String slot = null;
+
+        try (final BufferedReader reader
+                = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+
+            while (line != null) {
+                if (line.startsWith("INHERIT=")) {
+                    inherit = line.substring("INHERIT=".length());
+                } else if (line.startsWith("SLOT=")) {
+                    slot = line.substring("SLOT=".length());
+                }
+
+                line = reader.readLine();
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read md5-cache entry @ "
+                    + path, ex);
+        }
+
+        return new Md5CacheEntry(inherit, slot);
+    }
+
+    /**
+     * Space separated list of eclasses inherited directly by the ebuild.
+     */
+    private final String inherit;
+    /**
+     * Ebuild SLOT including sub-slot, if any, or null if the entry does not
+     * contain SLOT.
+     */
+    private final String slot;
+
+    /**
+     * Creates new instance of Md5CacheEntry.
+     *
+     * @param inherit {@link #inherit}
+     * @param slot    {@link #slot}
+     */
+    Md5CacheEntry(final String inherit, final String slot) {
+        this.inherit = inherit;
+        this.slot = slot;
+    }
+
+    /**
+     * Getter for {@link #inherit}.
+     *
+     * @return {@link #inherit}
+     */
+    String getInherit() {
+        return inherit;
+    }
+
+    /**
+     * Getter for {@link #slot}.
+     *
+     * @return {@link #slot}
+     */
+    String getSlot() {
+        return slot;
+    }
+}
@@ -1,12 +1,18 @@
 package org.gentoo.java.ebuilder.portage;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
@@ -15,8 +21,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -33,6 +45,11 @@ public class PortageParser {
      * Cache version.
      */
     public static final String CACHE_VERSION = "1.1";
+    /**
+     * Prefix of cache header line that contains HEAD commit of git portage
+     * tree.
+     */
+    private static final String PREFIX_GIT_HEAD = "#git-head=";
     /**
      * Current ant utilities eclass name.
      */
@@ -41,6 +58,12 @@ public class PortageParser {
      * Current java optional package eclass name.
      */
     private static final String ECLASS_JAVA_PKG_OPT = "java-pkg-opt-2";
+    /**
+     * Names of directories in portage tree root that never contain packages.
+     */
+    private static final Set<String> NON_CATEGORY_DIRECTORIES
+            = new HashSet<>(Arrays.asList("distfiles", "eclass", "licenses",
+                    "metadata", "packages", "profiles"));
     /**
      * Pattern for parsing ebuild file name.
      */
@@ -57,14 +80,6 @@ public class PortageParser {
     private static final Pattern PATTERN_SLOT_VERSION_COMPOPONENT_RANGE
             = Pattern.compile(
                     "^\\$\\(get_version_component_range (\\d+)-(\\d+)\\)$");
-    /**
-     * Pattern for checking whether the line contains variable declaration. It
-     * does not handle correctly variables spread across several lines but we
-     * most probably do not care about these.
-     */
-    private static final Pattern PATTERN_VARIABLE = Pattern.compile(
-            "^(\\S+?)=(.*)$");
-
     /**
      * Parses ebuild name into map. Keys are:
      * <dl>
@@ -105,25 +120,104 @@ public class PortageParser {
     }
 
     /**
-     * List of cache items. This list is populated during parsing the tree.
+     * Returns path of text export of binary cache.
+     *
+     * @param cacheFile binary cache file path
+     *
+     * @return text export path
      */
-    private final List<CacheItem> cacheItems = new ArrayList<>(40_000);
+    public static Path getTextExportPath(final Path cacheFile) {
+        return cacheFile.resolveSibling(cacheFile.getFileName() + ".txt");
+    }
+
     /**
-     * Used for cellecting counts of java eclasses.
+     * Returns cache files that need to be read to load the cache. If the
+     * cache file is shard index, paths of the shards are returned in order
+     * of their priority, otherwise the cache file itself is returned.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return list of cache files
      */
-    private final Map<String, Integer> eclassesCounts = new HashMap<>(10);
+    public static List<Path> listCacheFiles(final Path cacheFile) {
+        if (BinaryCache.isBinaryCache(cacheFile)) {
+            return Collections.singletonList(cacheFile);
+        }
+
+        final List<Path> shards = CacheShards.readIndex(cacheFile);
+
+        return shards == null ? Collections.singletonList(cacheFile) : shards;
+    }
+
     /**
-     * Number of processed categories. Updated during parsing the tree.
+     * Writes cache item as a line of cache file.
+     *
+     * @param writer    cache file writer
+     * @param cacheItem cache item
+     *
+     * @throws IOException Thrown if I/O problem occurred.
      */
-    private int processedCategories;
+    static void writeCacheItem(final Writer writer, final CacheItem cacheItem)
+            throws IOException {
+        writer.write(cacheItem.getCategory());
+        writer.write(':');
+        writer.write(cacheItem.getPkg());
+        writer.write(':');
+        writer.write(cacheItem.getVersion());
+        writer.write(':');
+        writer.write(cacheItem.getSlot());
+        writer.write(':');
+        writer.write(cacheItem.getUseFlag() == null
+                ? "" : cacheItem.getUseFlag());
+        writer.write(':');
+        writer.write(cacheItem.getGroupId() == null
+                ? "" : cacheItem.getGroupId());
+        writer.write(':');
+        writer.write(cacheItem.getArtifactId() == null
+                ? "" : cacheItem.getArtifactId());
+        writer.write(':');
+        writer.write(cacheItem.getMavenVersion() == null
+                ? "" : cacheItem.getMavenVersion());
+        writer.write(':');
+
+        if (cacheItem.getJavaEclasses() != null
+                && !cacheItem.getJavaEclasses().isEmpty()) {
+            writer.write(String.join(",", cacheItem.getJavaEclasses()));
+        }
+
+        writer.write('\n');
+    }
+
+    /**
+     * Lookup table that is applied to cache items before they are written or
+     * null if no lookup table is used.
+     */
+    private LookupTable lut;
+    /**
+     * Manifest of packages that is written together with the cache file or
+     * null if incremental refresh is not enabled.
+     */
+    private CacheManifest manifest;
+    /**
+     * Whether java ebuilds should be looked up in metadata/md5-cache first.
+     */
+    private boolean md5CacheScan;
+    /**
+     * Metrics of the scan.
+     */
+    private ScanMetrics metrics = new ScanMetrics(false);
     /**
-     * Number of processed ebuilds. Updated during parsing the tree.
+     * Stamps of packages of currently scanned portage tree by package paths
+     * that were computed together with stamp of the tree shard. Package
+     * stamps that are not in the map are computed when the package is
+     * scanned.
      */
-    private int processedEbuilds;
+    private Map<String, String> packageStamps = Collections.emptyMap();
     /**
-     * Number of processed packages. Updated during parsing the tree.
+     * Manifest of packages from previous refresh or null if incremental
+     * refresh is not enabled.
      */
-    private int processedPackages;
+    private CacheManifest previousManifest;
 
     /**
      * Parses portage tree at specified path and create ebuild cache at
@@ -133,26 +227,112 @@ public class PortageParser {
      */
     public void parseTree(final Config config) {
         final long startTimestamp = System.currentTimeMillis();
-        cacheItems.clear();
-        processedCategories = 0;
-        processedPackages = 0;
-        processedEbuilds = 0;
-        eclassesCounts.clear();
+        final long startNanos = System.nanoTime();
+        final ScanResult result = new ScanResult(40_000);
+        md5CacheScan = config.isMd5CacheScan();
+        metrics = new ScanMetrics(config.getMetricsFile() != null);
+        lut = config.getLutFile() == null
+                ? null : LookupTable.read(config.getLutFile());
+
+        final String manifestMode = CacheManifest.getMode(md5CacheScan);
+
+        if (config.isIncrementalRefresh() || config.isGitDelta()) {
+            previousManifest = CacheManifest.load(
+                    CacheManifest.getPath(config.getCacheFile()),
+                    manifestMode);
+            manifest = new CacheManifest(manifestMode);
+        } else if (config.isWatch()) {
+            // watcher needs results of packages to be able to update them
+            previousManifest = new CacheManifest(manifestMode);
+            manifest = new CacheManifest(manifestMode);
+        } else {
+            previousManifest = null;
+            manifest = null;
+        }
+
+        final Map<Path, String> previousGitHeads = config.isGitDelta()
+                ? readGitHeads(config.isBinaryCache()
+                        ? getTextExportPath(config.getCacheFile())
+                        : config.getCacheFile())
+                : Collections.emptyMap();
+        final Map<Path, String> gitHeads = new TreeMap<>();
+        final List<Path> shards = new ArrayList<>(5);
 
         for (Path portageTree : config.getPortageTree()) {
-            config.getStdoutWriter().println("Parsing portage tree @ "
-                    + portageTree + " ...");
-            parseCategories(portageTree);
+            final String gitHead
+                    = config.isGitDelta() ? GitTree.getHead(portageTree) : null;
+            final Path shard = config.isShardCache()
+                    ? CacheShards.getPath(config.getCacheFile(), portageTree)
+                    : null;
+            // shards contain items with applied lookup table
+            packageStamps = config.isShardCache()
+                    ? new HashMap<>(20_000) : Collections.emptyMap();
+            final String shardStamp = config.isShardCache()
+                    ? CacheShards.getStamp(portageTree, packageStamps)
+                    + (lut == null ? "" : '-' + lut.getStamp()) : null;
+            ScanResult treeResult = null;
+
+            if (gitHead != null) {
+                gitHeads.put(portageTree, gitHead);
+            }
+
+            if (shard != null) {
+                shards.add(shard);
+                treeResult = CacheShards.read(shard, portageTree, shardStamp);
+
+                if (treeResult != null) {
+                    config.getStdoutWriter().println("Using up-to-date cache "
+                            + "shard of portage tree @ " + portageTree);
+
+                    if (manifest != null) {
+                        previousManifest.getPackages(portageTree).forEach(
+                                (pkg) -> manifest.copy(previousManifest, pkg));
+                    }
+
+                    result.merge(treeResult);
+
+                    continue;
+                }
+            }
+
+            if (gitHead != null) {
+                treeResult = parseChangedPackages(config, portageTree,
+                        previousGitHeads.get(portageTree));
+            }
+
+            if (treeResult == null) {
+                config.getStdoutWriter().println("Parsing portage tree @ "
+                        + portageTree + " ...");
+
+                if (config.getScanThreads() > 1) {
+                    treeResult = parseCategoriesParallel(portageTree,
+                            config.getScanThreads());
+                } else {
+                    treeResult = parseCategories(portageTree);
+                }
+            }
+
+            if (shard != null) {
+                writeCacheFile(shard, applyLut(treeResult.getCacheItems()),
+                        CacheShards.getHeaders(portageTree, shardStamp));
+            }
+
+            result.merge(treeResult);
         }
 
+        packageStamps = Collections.emptyMap();
+
         final long endTimestamp = System.currentTimeMillis();
+        final long scanNanos = System.nanoTime() - startNanos;
 
         config.getStdoutWriter().print(MessageFormat.format(
                 "Parsed {0} categories {1} packages {2} ebuilds in {3}ms and "
                 + "found {4} java ebuilds",
-                processedCategories, processedPackages, processedEbuilds,
-                endTimestamp - startTimestamp, cacheItems.size()));
+                result.getProcessedCategories(),
+                result.getProcessedPackages(), result.getProcessedEbuilds(),
+                endTimestamp - startTimestamp, result.getCacheItems().size()));
 
+        final Map<String, Integer> eclassesCounts = result.getEclassesCounts();
         final List<String> sortedEclasses
                 = new ArrayList<>(eclassesCounts.keySet());
         Collections.sort(sortedEclasses);
@@ -174,31 +354,46 @@ public class PortageParser {
         config.getStdoutWriter().println(")");
 
         config.getStdoutWriter().print("Writing cache file...");
-        writeCacheFile(config);
+
+        final List<String> gitHeadHeaders = getGitHeadHeaders(gitHeads);
+
+        if (config.isShardCache()) {
+            CacheShards.writeIndex(config.getCacheFile(), shards,
+                    gitHeadHeaders);
+        } else {
+            writeCache(config.getCacheFile(), config.isBinaryCache(),
+                    result.getCacheItems(), gitHeadHeaders);
+        }
+
+        if (config.isIncrementalRefresh() || config.isGitDelta()) {
+            manifest.write(CacheManifest.getPath(config.getCacheFile()));
+        }
+
+        if (config.getMetricsFile() != null) {
+            metrics.write(config.getMetricsFile(), config, result, scanNanos,
+                    System.nanoTime() - startNanos);
+        }
+
         config.getStdoutWriter().println("done");
     }
 
     /**
-     * Increases counter for each eclass from the list.
+     * Parses portage trees like {@link #parseTree(org.gentoo.java.ebuilder.Config)}
+     * and then watches the trees for changes. Changed packages are parsed
+     * again and the cache file is republished. This method returns only if
+     * the thread is interrupted.
      *
-     * @param eclasses list of eclasses
+     * @param config application configuration
      */
-    private void countEclasses(final List<String> eclasses) {
-        eclasses.forEach((eclass) -> {
-            final Integer count = eclassesCounts.get(eclass);
-
-            if (count == null) {
-                eclassesCounts.put(eclass, 1);
-            } else {
-                eclassesCounts.put(eclass, count + 1);
-            }
-        });
+    public void watchTree(final Config config) {
+        parseTree(config);
+        new TreeWatcher(this, config, manifest).watch();
     }
 
     /**
-     * Extracts the most important java eclass from ebuild inherit line.
+     * Extracts java eclasses from INHERIT value of md5-cache entry.
      *
-     * @param inheritLine ebuild inherit line
+     * @param inheritLine INHERIT value
      *
      * @return list of inherited java eclasses or null
      */
@@ -213,138 +408,305 @@ public class PortageParser {
     }
 
     /**
-     * Parses categories in the portage tree root.
+     * Checks whether entry of portage tree root is a category. Directories
+     * that are known not to be categories are skipped without checking their
+     * type.
+     *
+     * @param entry entry path
+     *
+     * @return true if the entry is category, otherwise false
+     */
+    static boolean isCategory(final Path entry) {
+        final String name = entry.getFileName().toString();
+
+        return name.charAt(0) != '.'
+                && !NON_CATEGORY_DIRECTORIES.contains(name)
+                && Files.isDirectory(entry);
+    }
+
+    /**
+     * Creates cache file header lines with HEAD commits of git portage
+     * trees.
+     *
+     * @param gitHeads map of portage tree paths and their HEAD commits
+     *
+     * @return list of header lines
+     */
+    static List<String> getGitHeadHeaders(final Map<Path, String> gitHeads) {
+        final List<String> result = new ArrayList<>(gitHeads.size());
+        gitHeads.entrySet().forEach((gitHead) -> result.add(
+                PREFIX_GIT_HEAD + gitHead.getValue() + ' ' + gitHead.getKey()));
+
+        return result;
+    }
+
+    /**
+     * Lists categories of portage tree.
      *
      * @param treePath portage tree path
+     *
+     * @return list of category paths
      */
-    private void parseCategories(final Path treePath) {
-        final File[] categories = treePath.toFile().listFiles(
-                (final File pathname) -> pathname.isDirectory());
+    static List<Path> listCategories(final Path treePath) {
+        return listDirectories(treePath, PortageParser::isCategory);
+    }
 
-        for (final File category : categories) {
-            parseCategory(category);
-            processedCategories++;
+    /**
+     * Lists entries of specified directory that are accepted by the filter.
+     * The entries are returned in the order they are returned by the file
+     * system.
+     *
+     * @param directory directory path
+     * @param filter    entry filter
+     *
+     * @return list of entries, empty list if the directory cannot be read
+     */
+    private static List<Path> listDirectories(final Path directory,
+            final DirectoryStream.Filter<Path> filter) {
+        final List<Path> result = new ArrayList<>(100);
+
+        try (final DirectoryStream<Path> entries
+                = Files.newDirectoryStream(directory, filter)) {
+            entries.forEach(result::add);
+        } catch (final NoSuchFileException | NotDirectoryException ex) {
+            // directory was removed in the meantime, there is nothing to list
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to list directory @ "
+                    + directory, ex);
         }
+
+        return result;
     }
 
     /**
-     * Parses category and its packages.
+     * Lists ebuilds of package.
+     *
+     * @param pkg package path
+     *
+     * @return list of ebuild paths, empty list if the package cannot be read
+     */
+    static List<Path> listEbuilds(final Path pkg) {
+        // file name is enough to recognize ebuild, no need to check its type
+        return listDirectories(pkg, (final Path entry)
+                -> entry.getFileName().toString().endsWith(".ebuild"));
+    }
+
+    /**
+     * Lists packages of category.
      *
      * @param category category path
+     *
+     * @return list of package paths
      */
-    private void parseCategory(final File category) {
-        final File[] packages = category.listFiles(
-                (final File pathname) -> pathname.isDirectory());
+    static List<Path> listPackages(final Path category) {
+        return listDirectories(category,
+                (final Path entry) -> Files.isDirectory(entry));
+    }
 
-        for (final File pkg : packages) {
-            parsePackage(pkg);
-            processedPackages++;
+    /**
+     * Parses categories in the portage tree root.
+     *
+     * @param treePath portage tree path
+     *
+     * @return scan result
+     */
+    private ScanResult parseCategories(final Path treePath) {
+        final ScanResult result = new ScanResult(1_000);
+        final long start = metrics.start();
+        final List<Path> categories = listCategories(treePath);
+        metrics.addPhase(ScanMetrics.Phase.WALK, start);
+
+        for (final Path category : categories) {
+            result.merge(parseCategory(category));
         }
+
+        return result;
     }
 
     /**
-     * Parses single ebuild.
+     * Parses packages of git portage tree that changed since the commit
+     * recorded during previous refresh. Other packages of the tree are taken
+     * from the manifest of previous refresh.
      *
-     * @param ebuild ebuild path
+     * @param config          application configuration
+     * @param treePath        portage tree path
+     * @param previousGitHead HEAD commit of the tree from previous refresh
+     *                        or null
+     *
+     * @return scan result or null if the tree has to be parsed fully
      */
-    private void parseEbuild(final File ebuild) {
-        final String filename = ebuild.getName().replaceAll("\\.ebuild$", "");
-        final String category
-                = ebuild.getParentFile().getParentFile().getName();
-        final String pkg = ebuild.getParentFile().getName();
-        final String version = filename.substring(pkg.length() + 1);
-        final Map<String, String> variables = new HashMap<>(20);
-        final Path ebuildMetadata = Paths.get(ebuild.getParent(), "..", "..",
-                "metadata", "md5-cache", category, filename).normalize();
-        List<String> eclasses = null;
-        String slot = "0";
-        String useFlag = null;
-        String mavenId = null;
-        String groupId = null;
-        String artifactId = null;
-        String mavenVersion = null;
-        List<String> mavenProvide = new ArrayList<>();
+    private ScanResult parseChangedPackages(final Config config,
+            final Path treePath, final String previousGitHead) {
+        if (previousGitHead == null) {
+            return null;
+        }
 
-        boolean readingMultiLineMavenProvide = false;
-        try (final BufferedReader reader = new BufferedReader(
-                new InputStreamReader(Files.newInputStream(ebuild.toPath(),
-                        StandardOpenOption.READ)))) {
-            String line = reader.readLine();
+        final List<String> previousPackages
+                = previousManifest.getPackages(treePath);
 
-            while (line != null) {
-                line = line.trim();
+        if (previousPackages.isEmpty()) {
+            return null;
+        }
 
-                if (!line.isEmpty()) {
-                    final int pos = line.indexOf('#');
+        final Set<String> changedPaths
+                = GitTree.getChangedPaths(treePath, previousGitHead);
 
-                    if (pos != -1) {
-                        line = line.substring(0, pos).trim();
-                    }
-                }
+        if (changedPaths == null) {
+            return null;
+        }
 
-                if (!line.isEmpty()) {
-                    // Check if a multi-line MAVEN_PROVIDES declaration is
-                    // being read
-                    if (readingMultiLineMavenProvide) {
-                        if (!line.startsWith("\"")) {
-                            // Line contains an artifact ID
-                            mavenProvide.add(line.replace("\"", ""));
-                        }
-                        if (line.contains("\"")) {
-                            // Closing double quote
-                            readingMultiLineMavenProvide = false;
-                        }
-                    } else {
-                        // Check if the line contains variable declaration
-                        final Matcher matcher = PATTERN_VARIABLE.matcher(line);
-
-                        if (matcher.matches()) {
-                            variables.put(matcher.group(1),
-                                    matcher.group(2).replaceAll("(^\"|\"$)", ""));
-                        }
-
-                        if (line.startsWith("inherit ")) {
-                            eclasses = getJavaInheritEclasses(line);
-
-                            if (eclasses == null || eclasses.isEmpty()) {
-                                return;
-                            }
-                        } else if (line.startsWith("SLOT=")) {
-                            slot = line.substring("SLOT=".length()).replace(
-                                    "\"", "").replaceAll("/.*", "");
-                        } else if (line.startsWith("JAVA_PKG_OPT_USE=")) {
-                            useFlag = line.substring("JAVA_PKG_OPT_USE=".length()).
-                                    replace("\"", "");
-                        } else if (line.startsWith("MAVEN_ID=")) {
-                            mavenId = line.substring("MAVEN_ID=".length()).
-                                    replace("\"", "");
-                        } else if (line.startsWith("MAVEN_PROVIDES=")) {
-                            boolean atMostOneDoubleQuote =
-                                    line.indexOf("\"") == line.lastIndexOf("\"");
-                            line = line.substring("MAVEN_PROVIDES=".length());
-                            if (!atMostOneDoubleQuote || !line.endsWith("\"")) {
-                                // Line contains an artifact ID
-                                mavenProvide.addAll(Arrays.asList(
-                                        line.replace("\"", "").split(" ")));
-                            }
-                            if (atMostOneDoubleQuote && line.contains("\"")) {
-                                // Only one double quote -- multi-line declaration
-                                readingMultiLineMavenProvide = true;
-                            }
-                        }
-                    }
+        config.getStdoutWriter().println(MessageFormat.format(
+                "Parsing {0} changed paths of portage tree @ {1} since {2} ...",
+                changedPaths.size(), treePath, previousGitHead));
+
+        final Set<String> changedPackages = new TreeSet<>();
+
+        for (final String changedPath : changedPaths) {
+            final String[] parts = changedPath.split("/");
+
+            if (parts.length == 4 && "metadata".equals(parts[0])
+                    && "md5-cache".equals(parts[1])) {
+                try {
+                    changedPackages.add(treePath.resolve(parts[2]).resolve(
+                            parseEbuildName(parts[3] + ".ebuild").get("name")).
+                            toString());
+                } catch (final IllegalArgumentException ex) {
+                    // not an md5-cache entry of an ebuild
                 }
+            } else if (parts.length == 3 && parts[2].endsWith(".ebuild")) {
+                changedPackages.add(treePath.resolve(parts[0]).
+                        resolve(parts[1]).toString());
+            }
+        }
 
-                line = reader.readLine();
+        final ScanResult result = new ScanResult(1_000);
+        final Set<String> categories = new HashSet<>(200);
+
+        for (final String pkg : previousPackages) {
+            if (!changedPackages.contains(pkg)) {
+                result.merge(manifest.copy(previousManifest, pkg));
+                categories.add(Paths.get(pkg).getParent().toString());
+            }
+        }
+
+        for (final String pkg : changedPackages) {
+            final Path pkgPath = Paths.get(pkg);
+
+            if (Files.isDirectory(pkgPath)) {
+                result.merge(scanPackage(pkgPath,
+                        new CategoryMetadata(pkgPath.getParent())));
+                categories.add(pkgPath.getParent().toString());
             }
+        }
+
+        categories.forEach((category) -> result.incrementProcessedCategories());
+
+        return result;
+    }
+
+    /**
+     * Parses categories in the portage tree root using fork-join pool with
+     * specified number of threads. Results of packages are merged in the same
+     * order as in {@link #parseCategories(java.nio.file.Path)} so the
+     * resulting cache is the same as if the tree was parsed sequentially.
+     *
+     * @param treePath portage tree path
+     * @param threads  number of threads
+     *
+     * @return scan result
+     */
+    private ScanResult parseCategoriesParallel(final Path treePath,
+            final int threads) {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            return pool.invoke(new CategoriesTask(treePath));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parses category and its packages.
+     *
+     * @param category category path
+     *
+     * @return scan result
+     */
+    private ScanResult parseCategory(final Path category) {
+        final ScanResult result = new ScanResult();
+        final CategoryMetadata metadata = new CategoryMetadata(category);
+        final long start = metrics.start();
+        final List<Path> packages = listPackages(category);
+        metrics.addPhase(ScanMetrics.Phase.WALK, start);
+
+        for (final Path pkg : packages) {
+            result.merge(scanPackage(pkg, metadata));
+        }
+
+        result.incrementProcessedCategories();
+        metrics.addCategory(category.getFileName().toString(), start,
+                result.getProcessedEbuilds());
+
+        return result;
+    }
+
+    /**
+     * Parses single ebuild.
+     *
+     * @param ebuild   ebuild path
+     * @param metadata md5-cache entry of the ebuild or null if it was not
+     *                 read
+     * @param result   scan result to add cache items to
+     */
+    private void parseEbuild(final Path ebuild, final Md5CacheEntry metadata,
+            final ScanResult result) {
+        final String filename = ebuild.getFileName().toString().
+                replaceAll("\\.ebuild$", "");
+        final String category
+                = ebuild.getParent().getParent().getFileName().toString();
+        final String pkg = ebuild.getParent().getFileName().toString();
+        final String version = filename.substring(pkg.length() + 1);
+        final Path ebuildMetadata = ebuild.getParent().getParent().
+                resolveSibling("metadata").resolve("md5-cache").
+                resolve(category).resolve(filename);
+        final byte[] content;
+
+        try {
+            content = Files.readAllBytes(ebuild);
         } catch (final IOException ex) {
             throw new RuntimeException("Failed to read ebuild", ex);
         }
 
-        if (eclasses == null) {
+        metrics.addFileRead(content.length);
+
+        // most of the ebuilds are not java ebuilds, so do not scan them
+        if (metadata == null && !EbuildScanner.hasJavaInherit(content)) {
+            return;
+        }
+
+        final EbuildScanner scanner = new EbuildScanner(content);
+        final List<String> eclasses = metadata == null
+                ? scanner.getJavaEclasses()
+                : getJavaInheritEclasses(metadata.getInherit());
+
+        if (eclasses.isEmpty()) {
             return;
         }
 
+        String slot = scanner.getSlot() == null ? "0" : scanner.getSlot();
+        String useFlag = scanner.getJavaPkgOptUse();
+        String mavenId = scanner.getMavenId();
+        String groupId = null;
+        String artifactId = null;
+        String mavenVersion = null;
+
+        final int subSlotPos = slot.indexOf('/');
+
+        if (subSlotPos != -1) {
+            slot = slot.substring(0, subSlotPos);
+        }
+
         if (eclasses.contains(ECLASS_JAVA_PKG_OPT) && useFlag == null) {
             useFlag = "java";
         }
@@ -358,11 +720,19 @@ public class PortageParser {
             pv = version.substring(0, pos);
         }
 
-        if (Files.exists(ebuildMetadata)) {
-            slot = processSlot(slot, ebuildMetadata);
-        }
-        else {
-            slot = processSlot(slot, pv, variables);
+        final long md5Start = metrics.start();
+        final Md5CacheEntry ebuildMetadataEntry = metadata == null
+                && Files.exists(ebuildMetadata)
+                ? Md5CacheEntry.read(ebuildMetadata) : null;
+        metrics.addNestedPhase(ScanMetrics.Phase.MD5_CACHE, md5Start);
+
+        if (metadata != null) {
+            slot = processSlot(slot, metadata);
+        } else if (ebuildMetadataEntry != null) {
+            metrics.addFilesOpened(1);
+            slot = processSlot(slot, ebuildMetadataEntry);
+        } else {
+            slot = processSlot(slot, pv, scanner);
         }
 
         if (mavenId != null) {
@@ -390,95 +760,91 @@ public class PortageParser {
             }
         }
 
-        cacheItems.add(new CacheItem(category, pkg, version, slot, useFlag,
-                groupId, artifactId, mavenVersion, eclasses));
+        result.addCacheItem(new CacheItem(category, pkg, version, slot,
+                useFlag, groupId, artifactId, mavenVersion, eclasses));
 
-        for (String providedId: mavenProvide) {
+        for (String providedId : scanner.getMavenProvides()) {
             // Allow declarations like MAVEN_PROVIDES="groupId:${PN}:${PV}"
             providedId = providedId.replaceAll("\\$(\\{PN\\}|PN)", pkg).
                     replaceAll("\\$(\\{PV\\}|PV)", pv);
             final String[] parts = providedId.split(":");
-            cacheItems.add(new CacheItem(category, pkg, version, slot, useFlag,
-                    parts[0], parts[1], parts[2], eclasses));
+            result.addCacheItem(new CacheItem(category, pkg, version, slot,
+                    useFlag, parts[0], parts[1], parts[2], eclasses));
         }
-        countEclasses(eclasses);
+        result.countEclasses(eclasses);
     }
 
     /**
      * Parses package and its ebuilds.
      *
-     * @param pkg package path
+     * @param pkg      package path
+     * @param metadata md5-cache entries of the category or null if
+     *                 md5-cache should not be used for filtering ebuilds
+     *
+     * @return scan result
      */
-    private void parsePackage(final File pkg) {
-        final File[] ebuilds = pkg.listFiles(
-                (final File pathname) -> pathname.isFile()
-                && pathname.getName().endsWith(".ebuild"));
+    ScanResult parsePackage(final Path pkg,
+            final Map<String, Md5CacheEntry> metadata) {
+        final ScanResult result = new ScanResult();
+        final long start = metrics.start();
+
+        final List<Path> ebuilds = listEbuilds(pkg);
+        metrics.addPhase(ScanMetrics.Phase.WALK, start);
+
+        for (final Path ebuild : ebuilds) {
+            final Md5CacheEntry entry = metadata == null ? null
+                    : metadata.get(ebuild.getFileName().toString().
+                            replaceAll("\\.ebuild$", ""));
+
+            // ebuilds that do not inherit any java eclass according to
+            // md5-cache are not opened at all
+            if (entry == null || !getJavaInheritEclasses(
+                    entry.getInherit()).isEmpty()) {
+                final long ebuildStart = metrics.start();
+                parseEbuild(ebuild, entry, result);
+                metrics.addEbuild(ebuild, ebuildStart);
+            }
 
-        if (ebuilds == null) {
-            return;
+            result.incrementProcessedEbuilds();
         }
 
-        for (final File ebuild : ebuilds) {
-            parseEbuild(ebuild);
-            processedEbuilds++;
-        }
+        result.incrementProcessedPackages();
+
+        return result;
     }
 
     /**
-     * Processes various instructions in SLOT string.
+     * Processes SLOT string using md5-cache entry.
      *
-     * @param slot           SLOT string
-     * @param ebuildMetadata path to the metadata of the Gentoo package
+     * @param slot     SLOT string from ebuild
+     * @param metadata md5-cache entry of the ebuild
      *
      * @return processed SLOT string
      */
     private String processSlot(final String slot,
-            final Path ebuildMetadata) {
-        //final metadata = new File(ebuildMetadata.toString());
-        String result = slot;
-        try (final BufferedReader reader = new BufferedReader(
-                new InputStreamReader(Files.newInputStream(ebuildMetadata,
-                        StandardOpenOption.READ)))) {
-            String line = reader.readLine();
-            while (line != null) {
-                line = line.trim();
-
-                if (!line.isEmpty()) {
-                    if (line.startsWith("SLOT=")) {
-                        result = line.substring("SLOT=".length()).replace(
-                                "\"", "").replaceAll("/.*", "");
-                    }
-
-                line = reader.readLine();
-                }
-            }
-        } catch (final IOException ex) {
-            throw new RuntimeException("Failed to read ebuild", ex);
+            final Md5CacheEntry metadata) {
+        if (metadata.getSlot() == null) {
+            return slot;
         }
-        return result;
+
+        return metadata.getSlot().replace("\"", "").replaceAll("/.*", "");
     }
 
     /**
      * Processes various instructions in SLOT string.
      *
-     * @param slot      SLOT string
-     * @param pv        PV variable
-     * @param variables map of collected variables and their values
+     * @param slot    SLOT string
+     * @param pv      PV variable
+     * @param scanner scanner of the ebuild for resolving other variables
      *
      * @return processed SLOT string
      */
     private String processSlot(final String slot, final String pv,
-            final Map<String, String> variables) {
+            final EbuildScanner scanner) {
         String result = slot.replaceAll("\\$(\\{PV\\}|PV)", pv);
 
         if (result.indexOf('$') != -1) {
-            for (final Map.Entry<String, String> variable
-                    : variables.entrySet()) {
-                result = result.
-                        replace("$" + variable.getKey(), variable.getValue()).
-                        replace("${" + variable.getKey() + '}',
-                                variable.getValue());
-            }
+            result = scanner.expandVariables(result);
         }
 
         if (result.indexOf('$') != -1) {
@@ -517,70 +883,360 @@ public class PortageParser {
     }
 
     /**
-     * Writes cache items to the cache file.
+     * Reads HEAD commits of git portage trees from header of existing cache
+     * file.
      *
-     * @param config application configuration
+     * @param cacheFile cache file path
+     *
+     * @return map of portage trees and their HEAD commits
+     */
+    private Map<Path, String> readGitHeads(final Path cacheFile) {
+        final Map<Path, String> result = new HashMap<>(5);
+
+        if (!Files.exists(cacheFile)) {
+            return result;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(cacheFile,
+                Charset.forName("UTF-8"))) {
+            String line = reader.readLine();
+
+            if (!CACHE_VERSION.equals(line)
+                    && !CacheShards.INDEX_VERSION.equals(line)) {
+                return result;
+            }
+
+            line = reader.readLine();
+
+            while (line != null && line.startsWith("#")) {
+                if (line.startsWith(PREFIX_GIT_HEAD)) {
+                    final int pos = line.indexOf(' ');
+
+                    if (pos != -1) {
+                        result.put(Paths.get(line.substring(pos + 1)),
+                                line.substring(PREFIX_GIT_HEAD.length(), pos));
+                    }
+                }
+
+                line = reader.readLine();
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ "
+                    + cacheFile, ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads md5-cache entries of the category if md5-cache scan is enabled.
+     *
+     * @param category category path
+     *
+     * @return map of md5-cache entries or null if md5-cache scan is not
+     *         enabled or the category is not present in md5-cache
+     */
+    Map<String, Md5CacheEntry> readMd5Cache(final Path category) {
+        if (!md5CacheScan) {
+            return null;
+        }
+
+        final long start = metrics.start();
+        final Map<String, Md5CacheEntry> result = Md5CacheEntry.readCategory(
+                category.resolveSibling("metadata").resolve("md5-cache").
+                        resolve(category.getFileName()));
+        metrics.addPhase(ScanMetrics.Phase.MD5_CACHE, start);
+        metrics.addFilesOpened(result.size());
+
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Scans package. If incremental refresh is enabled and the package did not
+     * change since previous refresh, result from previous refresh is used,
+     * otherwise the package is parsed.
+     *
+     * @param pkg      package path
+     * @param metadata md5-cache entries of the category
+     *
+     * @return scan result
      */
-    private void writeCacheFile(final Config config) {
-        final File cacheDir = config.getCacheFile().getParent().toFile();
+    private ScanResult scanPackage(final Path pkg,
+            final CategoryMetadata metadata) {
+        if (manifest == null) {
+            return parsePackage(pkg, metadata.get());
+        }
+
+        String stamp = packageStamps.get(pkg.toString());
+
+        if (stamp == null) {
+            final long start = metrics.start();
+            stamp = CacheManifest.getStamp(pkg);
+            metrics.addPhase(ScanMetrics.Phase.WALK, start);
+        }
+
+        ScanResult result = previousManifest.get(pkg.toString(), stamp);
+
+        if (result == null) {
+            result = parsePackage(pkg, metadata.get());
+        }
+
+        manifest.put(pkg.toString(), stamp, result);
+
+        return result;
+    }
+
+    /**
+     * Applies lookup table to the cache items if lookup table is used. Cache
+     * items in the manifest are kept without the lookup table applied, so the
+     * lookup table can change between refreshes.
+     *
+     * @param cacheItems cache items
+     *
+     * @return cache items with applied lookup table or the same cache items
+     */
+    private List<CacheItem> applyLut(final List<CacheItem> cacheItems) {
+        return lut == null ? cacheItems : lut.apply(cacheItems);
+    }
+
+    /**
+     * Writes cache items to the cache file. Binary cache is accompanied by
+     * text export of the cache for tools that process the text cache.
+     *
+     * @param cacheFile  cache file path
+     * @param binary     whether binary cache should be written
+     * @param cacheItems cache items
+     * @param headers    header lines of the text cache
+     */
+    void writeCache(final Path cacheFile, final boolean binary,
+            final List<CacheItem> cacheItems, final List<String> headers) {
+        final List<CacheItem> items = applyLut(cacheItems);
+
+        if (!binary) {
+            writeCacheFile(cacheFile, items, headers);
+
+            return;
+        }
+
+        // text cache order decides which item wins among equal versions
+        writeCacheFile(getTextExportPath(cacheFile), items, headers);
+
+        final long start = metrics.start();
+        BinaryCache.write(cacheFile, items);
+        metrics.addPhase(ScanMetrics.Phase.WRITE, start);
+    }
+
+    /**
+     * Writes cache items to the cache file. Cache items are sorted in place
+     * by {@link CacheGroupIndex#RECORD_ORDER}, so after the call they are in
+     * the order of the text cache, and then written grouped by group id with
+     * {@link CacheGroupIndex} in the header.
+     *
+     * @param cacheFile  cache file path
+     * @param cacheItems cache items
+     * @param headers    header lines that are written after the column
+     *                   description line
+     */
+    void writeCacheFile(final Path cacheFile,
+            final List<CacheItem> cacheItems, final List<String> headers) {
+        final File cacheDir = cacheFile.getParent().toFile();
 
         if (!cacheDir.exists()) {
             cacheDir.mkdirs();
         }
 
-        cacheItems.sort((
-                final CacheItem o1,
-                final CacheItem o2) -> {
-            if (o1.getCategory().compareTo(o2.getCategory()) != 0) {
-                return o1.getCategory().compareTo(o2.getCategory());
-            } else if (o1.getPkg().compareTo(o2.getPkg()) != 0) {
-                return o1.getPkg().compareTo(o2.getPkg());
-            } else {
-                return o1.getVersion().compareTo(o2.getVersion());
-            }
-        });
+        final long sortStart = metrics.start();
+        cacheItems.sort(CacheGroupIndex.RECORD_ORDER);
+        metrics.addPhase(ScanMetrics.Phase.SORT, sortStart);
+
+        final long writeStart = metrics.start();
 
-        try (final OutputStreamWriter writer = new OutputStreamWriter(
-                Files.newOutputStream(config.getCacheFile(),
+        try (final OutputStream output = new BufferedOutputStream(
+                Files.newOutputStream(cacheFile,
                         StandardOpenOption.CREATE, StandardOpenOption.WRITE,
-                        StandardOpenOption.TRUNCATE_EXISTING),
-                Charset.forName("UTF-8"))) {
+                        StandardOpenOption.TRUNCATE_EXISTING), 65_536)) {
+            final Writer writer
+                    = new OutputStreamWriter(output, StandardCharsets.UTF_8);
             writer.write(CACHE_VERSION);
             writer.write("\n#category:pkg:version:slot:useFlag:groupId:"
                     + "artifactId:mavenVersion:javaEclass\n");
 
-            for (final CacheItem cacheItem : cacheItems) {
-                writer.write(cacheItem.getCategory());
-                writer.write(':');
-                writer.write(cacheItem.getPkg());
-                writer.write(':');
-                writer.write(cacheItem.getVersion());
-                writer.write(':');
-                writer.write(cacheItem.getSlot());
-                writer.write(':');
-                writer.write(cacheItem.getUseFlag() == null
-                        ? "" : cacheItem.getUseFlag());
-                writer.write(':');
-                writer.write(cacheItem.getGroupId() == null
-                        ? "" : cacheItem.getGroupId());
-                writer.write(':');
-                writer.write(cacheItem.getArtifactId() == null
-                        ? "" : cacheItem.getArtifactId());
-                writer.write(':');
-                writer.write(cacheItem.getMavenVersion() == null
-                        ? "" : cacheItem.getMavenVersion());
-                writer.write(':');
-
-                if (cacheItem.getJavaEclasses() != null
-                        && !cacheItem.getJavaEclasses().isEmpty()) {
-                    writer.write(String.join(",", cacheItem.getJavaEclasses()));
-                }
-
+            for (final String header : headers) {
+                writer.write(header);
                 writer.write('\n');
             }
+
+            writer.flush();
+            CacheGroupIndex.writeRecords(output, cacheItems);
         } catch (final IOException ex) {
             throw new RuntimeException("Failed to write cache file @ "
-                    + config.getCacheFile(), ex);
+                    + cacheFile, ex);
+        }
+
+        metrics.addPhase(ScanMetrics.Phase.WRITE, writeStart);
+    }
+
+    /**
+     * Fork-join task that parses all categories of portage tree.
+     */
+    private class CategoriesTask extends RecursiveTask<ScanResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Portage tree path.
+         */
+        private final Path treePath;
+
+        /**
+         * Creates new instance of CategoriesTask.
+         *
+         * @param treePath {@link #treePath}
+         */
+        CategoriesTask(final Path treePath) {
+            this.treePath = treePath;
+        }
+
+        @Override
+        protected ScanResult compute() {
+            final List<CategoryTask> tasks = new ArrayList<>(200);
+            final long start = metrics.start();
+            final List<Path> categories = listCategories(treePath);
+            metrics.addPhase(ScanMetrics.Phase.WALK, start);
+
+            for (final Path category : categories) {
+                tasks.add(new CategoryTask(category));
+            }
+
+            invokeAll(tasks);
+
+            final ScanResult result = new ScanResult(1_000);
+            tasks.forEach((task) -> result.merge(task.join()));
+
+            return result;
+        }
+    }
+
+    /**
+     * Md5-cache entries of category that are read when they are needed for
+     * the first time, so categories without changed packages do not read
+     * md5-cache during incremental refresh.
+     */
+    private class CategoryMetadata {
+
+        /**
+         * Category path.
+         */
+        private final Path category;
+        /**
+         * Md5-cache entries of the category or null.
+         */
+        private Map<String, Md5CacheEntry> entries;
+        /**
+         * Whether {@link #entries} were already read.
+         */
+        private boolean read;
+
+        /**
+         * Creates new instance of CategoryMetadata.
+         *
+         * @param category {@link #category}
+         */
+        CategoryMetadata(final Path category) {
+            this.category = category;
+        }
+
+        /**
+         * Returns md5-cache entries of the category, reading them if they were
+         * not read yet.
+         *
+         * @return md5-cache entries of the category or null
+         */
+        synchronized Map<String, Md5CacheEntry> get() {
+            if (!read) {
+                entries = readMd5Cache(category);
+                read = true;
+            }
+
+            return entries;
+        }
+    }
+
+    /**
+     * Fork-join task that parses single category.
+     */
+    private class CategoryTask extends RecursiveTask<ScanResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Category path.
+         */
+        private final Path category;
+
+        /**
+         * Creates new instance of CategoryTask.
+         *
+         * @param category {@link #category}
+         */
+        CategoryTask(final Path category) {
+            this.category = category;
+        }
+
+        @Override
+        protected ScanResult compute() {
+            final List<PackageTask> tasks = new ArrayList<>(100);
+            final CategoryMetadata metadata = new CategoryMetadata(category);
+            final long start = metrics.start();
+            final List<Path> packages = listPackages(category);
+            metrics.addPhase(ScanMetrics.Phase.WALK, start);
+
+            for (final Path pkg : packages) {
+                tasks.add(new PackageTask(pkg, metadata));
+            }
+
+            invokeAll(tasks);
+
+            final ScanResult result = new ScanResult();
+            tasks.forEach((task) -> result.merge(task.join()));
+            result.incrementProcessedCategories();
+            metrics.addCategory(category.getFileName().toString(), start,
+                    result.getProcessedEbuilds());
+
+            return result;
+        }
+    }
+
+    /**
+     * Fork-join task that parses single package.
+     */
+    private class PackageTask extends RecursiveTask<ScanResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Md5-cache entries of the category.
+         */
+        private final CategoryMetadata metadata;
+        /**
+         * Package path.
+         */
+        private final Path pkg;
+
+        /**
+         * Creates new instance of PackageTask.
+         *
+         * @param pkg      {@link #pkg}
+         * @param metadata {@link #metadata}
+         */
+        PackageTask(final Path pkg, final CategoryMetadata metadata) {
+            this.pkg = pkg;
+            this.metadata = metadata;
+        }
+
+        @Override
+        protected ScanResult compute() {
+            return scanPackage(pkg, metadata);
         }
     }
 }
@@ -0,0 +1,454 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.gentoo.java.ebuilder.Config;
+
+/**
+ * Collects metrics of portage tree scan and writes them as JSON report. The
+ * metrics are collected from all scanning threads, so phase times are sums
+ * of time spent by all threads. If the metrics are disabled, all methods
+ * return immediately.
+ *
+ * @author fordfrog
+ */
+class ScanMetrics {
+
+    /**
+     * Report format version.
+     */
+    private static final int REPORT_VERSION = 1;
+    /**
+     * Number of slowest ebuilds that are reported.
+     */
+    private static final int SLOWEST_EBUILDS = 10;
+
+    /**
+     * Escapes string for JSON.
+     *
+     * @param value string value
+     *
+     * @return quoted and escaped string
+     */
+    static String toJsonString(final String value) {
+        final StringBuilder sbResult = new StringBuilder(value.length() + 2);
+        sbResult.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            switch (c) {
+                case '"':
+                    sbResult.append("\\\"");
+                    break;
+                case '\\':
+                    sbResult.append("\\\\");
+                    break;
+                case '\n':
+                    sbResult.append("\\n");
+                    break;
+                case '\r':
+                    sbResult.append("\\r");
+                    break;
+                case '\t':
+                    sbResult.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        sbResult.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sbResult.append(c);
+                    }
+            }
+        }
+
+        sbResult.append('"');
+
+        return sbResult.toString();
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds.
+     *
+     * @param nanos nanoseconds
+     *
+     * @return milliseconds with three decimal places
+     */
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Number of bytes read from ebuilds.
+     */
+    private final LongAdder bytesRead = new LongAdder();
+    /**
+     * Timings of categories, key is category name.
+     */
+    private final Map<String, CategoryTiming> categories
+            = new ConcurrentHashMap<>(200);
+    /**
+     * Whether metrics are collected.
+     */
+    private final boolean enabled;
+    /**
+     * Number of opened files.
+     */
+    private final LongAdder filesOpened = new LongAdder();
+    /**
+     * Time spent in phases, indexed by phase ordinal.
+     */
+    private final LongAdder[] phaseNanos
+            = new LongAdder[Phase.values().length];
+    /**
+     * Slowest ebuilds, the fastest of them is at the head.
+     */
+    private final PriorityQueue<EbuildTiming> slowestEbuilds
+            = new PriorityQueue<>(SLOWEST_EBUILDS + 1,
+                    Comparator.comparingLong(
+                            (final EbuildTiming timing) -> timing.nanos));
+
+    /**
+     * Creates new instance of ScanMetrics.
+     *
+     * @param enabled {@link #enabled}
+     */
+    ScanMetrics(final boolean enabled) {
+        this.enabled = enabled;
+
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds time spent on category.
+     *
+     * @param category category name
+     * @param start    start time returned by {@link #start()}
+     * @param ebuilds  number of processed ebuilds of the category
+     */
+    void addCategory(final String category, final long start,
+            final int ebuilds) {
+        if (!enabled) {
+            return;
+        }
+
+        final CategoryTiming timing = categories.computeIfAbsent(category,
+                (name) -> new CategoryTiming());
+        timing.nanos.add(System.nanoTime() - start);
+        timing.ebuilds.add(ebuilds);
+    }
+
+    /**
+     * Adds time spent on ebuild to {@link Phase#PARSE} and checks whether
+     * the ebuild is one of the slowest.
+     *
+     * @param ebuild ebuild path
+     * @param start  start time returned by {@link #start()}
+     */
+    void addEbuild(final Path ebuild, final long start) {
+        if (!enabled) {
+            return;
+        }
+
+        final long nanos = System.nanoTime() - start;
+        phaseNanos[Phase.PARSE.ordinal()].add(nanos);
+
+        synchronized (slowestEbuilds) {
+            if (slowestEbuilds.size() < SLOWEST_EBUILDS
+                    || slowestEbuilds.peek().nanos < nanos) {
+                slowestEbuilds.add(new EbuildTiming(ebuild, nanos));
+
+                if (slowestEbuilds.size() > SLOWEST_EBUILDS) {
+                    slowestEbuilds.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds read file.
+     *
+     * @param bytes number of bytes read from the file
+     */
+    void addFileRead(final long bytes) {
+        if (!enabled) {
+            return;
+        }
+
+        filesOpened.increment();
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Adds opened files without counting their size.
+     *
+     * @param count number of opened files
+     */
+    void addFilesOpened(final int count) {
+        if (enabled) {
+            filesOpened.add(count);
+        }
+    }
+
+    /**
+     * Adds time spent in phase that is nested in {@link Phase#PARSE}. The
+     * time is subtracted from parse phase so that the phases do not overlap.
+     *
+     * @param phase phase
+     * @param start start time returned by {@link #start()}
+     */
+    void addNestedPhase(final Phase phase, final long start) {
+        if (!enabled) {
+            return;
+        }
+
+        final long nanos = System.nanoTime() - start;
+        phaseNanos[phase.ordinal()].add(nanos);
+        phaseNanos[Phase.PARSE.ordinal()].add(-nanos);
+    }
+
+    /**
+     * Adds time spent in phase.
+     *
+     * @param phase phase
+     * @param start start time returned by {@link #start()}
+     */
+    void addPhase(final Phase phase, final long start) {
+        if (enabled) {
+            phaseNanos[phase.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns start time for measuring.
+     *
+     * @return current time in nanoseconds or 0 if metrics are disabled
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Writes JSON report.
+     *
+     * @param path       report path
+     * @param config     application configuration
+     * @param result     scan result
+     * @param scanNanos  wall time of the scan
+     * @param totalNanos wall time of the scan including writing of the cache
+     */
+    void write(final Path path, final Config config, final ScanResult result,
+            final long scanNanos, final long totalNanos) {
+        if (!enabled) {
+            return;
+        }
+
+        final List<EbuildTiming> ebuilds;
+
+        synchronized (slowestEbuilds) {
+            ebuilds = new ArrayList<>(slowestEbuilds);
+        }
+
+        ebuilds.sort((final EbuildTiming o1, final EbuildTiming o2)
+                -> Long.compare(o2.nanos, o1.nanos));
+
+        final List<Map.Entry<String, CategoryTiming>> categoryTimings
+                = new ArrayList<>(new TreeMap<>(categories).entrySet());
+        categoryTimings.sort((o1, o2) -> Long.compare(
+                o2.getValue().nanos.sum(), o1.getValue().nanos.sum()));
+
+        final Map<String, Integer> eclasses
+                = new TreeMap<>(result.getEclassesCounts());
+        final List<String> trees = new ArrayList<>(5);
+        config.getPortageTree().forEach((tree) -> trees.add(
+                toJsonString(tree.toString())));
+
+        try (final Writer writer = new OutputStreamWriter(
+                Files.newOutputStream(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"version\": " + REPORT_VERSION + ",\n");
+            writer.write("  \"timestamp\": " + System.currentTimeMillis()
+                    + ",\n");
+            writer.write("  \"portageTrees\": [" + String.join(", ", trees)
+                    + "],\n");
+            writer.write("  \"threads\": " + config.getScanThreads() + ",\n");
+            writer.write("  \"scanMillis\": " + toMillis(scanNanos) + ",\n");
+            writer.write("  \"totalMillis\": " + toMillis(totalNanos) + ",\n");
+            writer.write("  \"categories\": " + result.getProcessedCategories()
+                    + ",\n");
+            writer.write("  \"packages\": " + result.getProcessedPackages()
+                    + ",\n");
+            writer.write("  \"ebuilds\": " + result.getProcessedEbuilds()
+                    + ",\n");
+            writer.write("  \"cacheItems\": " + result.getCacheItems().size()
+                    + ",\n");
+            writer.write("  \"ebuildsPerSecond\": " + String.format(
+                    Locale.ROOT, "%.1f", scanNanos == 0 ? 0.0
+                    : result.getProcessedEbuilds() * 1_000_000_000.0
+                    / scanNanos) + ",\n");
+            writer.write("  \"bytesRead\": " + bytesRead.sum() + ",\n");
+            writer.write("  \"filesOpened\": " + filesOpened.sum() + ",\n");
+            writer.write("  \"phasesMillis\": {");
+
+            for (final Phase phase : Phase.values()) {
+                writer.write(phase.ordinal() == 0 ? "\n" : ",\n");
+                writer.write("    " + toJsonString(phase.getName()) + ": "
+                        + toMillis(phaseNanos[phase.ordinal()].sum()));
+            }
+
+            writer.write("\n  },\n");
+            writer.write("  \"eclasses\": {");
+
+            boolean first = true;
+
+            for (final Map.Entry<String, Integer> eclass
+                    : eclasses.entrySet()) {
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    " + toJsonString(eclass.getKey()) + ": "
+                        + eclass.getValue());
+                first = false;
+            }
+
+            writer.write(first ? "},\n" : "\n  },\n");
+            writer.write("  \"slowestEbuilds\": [");
+
+            for (int i = 0; i < ebuilds.size(); i++) {
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"path\": "
+                        + toJsonString(ebuilds.get(i).ebuild.toString())
+                        + ", \"millis\": " + toMillis(ebuilds.get(i).nanos)
+                        + "}");
+            }
+
+            writer.write(ebuilds.isEmpty() ? "],\n" : "\n  ],\n");
+            writer.write("  \"categoryTimings\": [");
+
+            for (int i = 0; i < categoryTimings.size(); i++) {
+                final Map.Entry<String, CategoryTiming> timing
+                        = categoryTimings.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"category\": "
+                        + toJsonString(timing.getKey()) + ", \"millis\": "
+                        + toMillis(timing.getValue().nanos.sum())
+                        + ", \"ebuilds\": " + timing.getValue().ebuilds.sum()
+                        + "}");
+            }
+
+            writer.write(categoryTimings.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to write metrics file @ "
+                    + path, ex);
+        }
+    }
+
+    /**
+     * Scan phases.
+     */
+    enum Phase {
+
+        /**
+         * Listing of directories of portage tree.
+         */
+        WALK("walk"),
+        /**
+         * Reading and parsing of ebuilds.
+         */
+        PARSE("parse"),
+        /**
+         * Reading of md5-cache entries.
+         */
+        MD5_CACHE("md5Cache"),
+        /**
+         * Sorting of cache items.
+         */
+        SORT("sort"),
+        /**
+         * Writing of cache file.
+         */
+        WRITE("write");
+
+        /**
+         * Phase name used in the report.
+         */
+        private final String name;
+
+        /**
+         * Creates new instance of Phase.
+         *
+         * @param name {@link #name}
+         */
+        Phase(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Getter for {@link #name}.
+         *
+         * @return {@link #name}
+         */
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Timing of single category.
+     */
+    private static class CategoryTiming {
+
+        /**
+         * Number of processed ebuilds.
+         */
+        private final LongAdder ebuilds = new LongAdder();
+        /**
+         * Time spent on the category.
+         */
+        private final LongAdder nanos = new LongAdder();
+    }
+
+    /**
+     * Timing of single ebuild.
+     */
+    private static class EbuildTiming {
+
+        /**
+         * Ebuild path.
+         */
+        private final Path ebuild;
+        /**
+         * Time spent on the ebuild.
+         */
+        private final long nanos;
+
+        /**
+         * Creates new instance of EbuildTiming.
+         *
+         * @param ebuild {@link #ebuild}
+         * @param nanos  {@link #nanos}
+         */
+        EbuildTiming(final Path ebuild, final long nanos) {
+            this.ebuild = ebuild;
+            this.nanos = nanos;
+        }
+    }
+}
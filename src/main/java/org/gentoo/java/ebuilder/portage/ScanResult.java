@@ -0,0 +1,179 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Container for results of scanning portage tree or its part (category,
+ * package). Instances are not thread-safe, each worker fills its own instance
+ * and the results are merged afterwards.
+ *
+ * @author fordfrog
+ */
+class ScanResult {
+
+    /**
+     * List of cache items found during the scan.
+     */
+    private final List<CacheItem> cacheItems;
+    /**
+     * Counts of java eclasses.
+     */
+    private final Map<String, Integer> eclassesCounts = new HashMap<>(10);
+    /**
+     * Number of processed categories.
+     */
+    private int processedCategories;
+    /**
+     * Number of processed ebuilds.
+     */
+    private int processedEbuilds;
+    /**
+     * Number of processed packages.
+     */
+    private int processedPackages;
+
+    /**
+     * Creates new instance of ScanResult.
+     */
+    ScanResult() {
+        this(10);
+    }
+
+    /**
+     * Creates new instance of ScanResult.
+     *
+     * @param initialCapacity initial capacity of {@link #cacheItems}
+     */
+    ScanResult(final int initialCapacity) {
+        cacheItems = new ArrayList<>(initialCapacity);
+    }
+
+    /**
+     * Adds cache item to {@link #cacheItems}.
+     *
+     * @param cacheItem cache item
+     */
+    void addCacheItem(final CacheItem cacheItem) {
+        cacheItems.add(cacheItem);
+    }
+
+    /**
+     * Increases {@link #processedEbuilds} by specified count.
+     *
+     * @param count number of ebuilds
+     */
+    void addProcessedEbuilds(final int count) {
+        processedEbuilds += count;
+    }
+
+    /**
+     * Increases counter for each eclass from the list.
+     *
+     * @param eclasses list of eclasses
+     */
+    void countEclasses(final List<String> eclasses) {
+        eclasses.forEach((eclass) -> {
+            final Integer count = eclassesCounts.get(eclass);
+
+            if (count == null) {
+                eclassesCounts.put(eclass, 1);
+            } else {
+                eclassesCounts.put(eclass, count + 1);
+            }
+        });
+    }
+
+    /**
+     * Getter for {@link #cacheItems}.
+     *
+     * @return {@link #cacheItems}
+     */
+    List<CacheItem> getCacheItems() {
+        return cacheItems;
+    }
+
+    /**
+     * Getter for {@link #eclassesCounts}.
+     *
+     * @return {@link #eclassesCounts}
+     */
+    Map<String, Integer> getEclassesCounts() {
+        return Collections.unmodifiableMap(eclassesCounts);
+    }
+
+    /**
+     * Getter for {@link #processedCategories}.
+     *
+     * @return {@link #processedCategories}
+     */
+    int getProcessedCategories() {
+        return processedCategories;
+    }
+
+    /**
+     * Getter for {@link #processedEbuilds}.
+     *
+     * @return {@link #processedEbuilds}
+     */
+    int getProcessedEbuilds() {
+        return processedEbuilds;
+    }
+
+    /**
+     * Getter for {@link #processedPackages}.
+     *
+     * @return {@link #processedPackages}
+     */
+    int getProcessedPackages() {
+        return processedPackages;
+    }
+
+    /**
+     * Increases {@link #processedCategories} by one.
+     */
+    void incrementProcessedCategories() {
+        processedCategories++;
+    }
+
+    /**
+     * Increases {@link #processedEbuilds} by one.
+     */
+    void incrementProcessedEbuilds() {
+        processedEbuilds++;
+    }
+
+    /**
+     * Increases {@link #processedPackages} by one.
+     */
+    void incrementProcessedPackages() {
+        processedPackages++;
+    }
+
+    /**
+     * Appends cache items of other result after cache items of this result
+     * and sums up the counters.
+     *
+     * @param other other scan result
+     */
+    void merge(final ScanResult other) {
+        cacheItems.addAll(other.cacheItems);
+
+        other.eclassesCounts.entrySet().forEach((entry) -> {
+            final Integer count = eclassesCounts.get(entry.getKey());
+
+            if (count == null) {
+                eclassesCounts.put(entry.getKey(), entry.getValue());
+            } else {
+                eclassesCounts.put(entry.getKey(), count + entry.getValue());
+            }
+        });
+
+        processedCategories += other.processedCategories;
+        processedPackages += other.processedPackages;
+        processedEbuilds += other.processedEbuilds;
+    }
+}
@@ -0,0 +1,331 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reader of text cache file. The whole file is read as bytes and records are
+ * tokenized in place, strings are created only for fields of cache items.
+ * Records can be parsed in parallel, in chunks split at line boundaries,
+ * while the order of cache items is preserved. Lines are terminated the same
+ * way as by {@link java.io.BufferedReader#readLine()}, that is by '\n', '\r'
+ * or "\r\n".
+ *
+ * @author fordfrog
+ */
+public class TextCacheReader {
+
+    /**
+     * Minimum number of bytes of chunk that is parsed in parallel.
+     */
+    private static final int MIN_CHUNK_SIZE = 256 * 1_024;
+    /**
+     * Number of fields of cache item.
+     */
+    private static final int FIELDS = 9;
+    /**
+     * Cache file content.
+     */
+    private final byte[] content;
+    /**
+     * Header lines that start with '#' and are between the version line and
+     * the first record.
+     */
+    private final List<String> headers = new ArrayList<>(10);
+    /**
+     * Position of the first record.
+     */
+    private final int recordsStart;
+    /**
+     * Cache version (the first line of the cache file) or null if the file
+     * is empty or it does not contain the version line.
+     */
+    private final String version;
+
+    /**
+     * Creates new instance of TextCacheReader. The cache file is read and its
+     * version and header lines are parsed.
+     *
+     * @param cacheFile cache file path
+     */
+    public TextCacheReader(final Path cacheFile) {
+        try {
+            content = Files.readAllBytes(cacheFile);
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ "
+                    + cacheFile, ex);
+        }
+
+        final int versionEnd = getLineEnd(content, 0, content.length);
+        int pos = 0;
+
+        // file without version line contains only records
+        if (content.length == 0 || isRecord(content, 0, versionEnd)) {
+            version = null;
+        } else {
+            version = new String(content, 0, versionEnd,
+                    StandardCharsets.UTF_8);
+            pos = getNextLine(content, versionEnd, content.length);
+        }
+
+        while (pos < content.length && content[pos] == '#') {
+            final int end = getLineEnd(content, pos, content.length);
+            headers.add(new String(content, pos, end - pos,
+                    StandardCharsets.UTF_8));
+            pos = getNextLine(content, end, content.length);
+        }
+
+        recordsStart = pos;
+    }
+
+    /**
+     * Parses cache items from lines in the content. Empty lines and lines
+     * starting with '#' are skipped.
+     *
+     * @param content content
+     * @param start   start position, it must be at the beginning of a line
+     * @param end     end position, it must be at the end of a line
+     *
+     * @return list of cache items
+     */
+    static List<CacheItem> parseCacheItems(final byte[] content,
+            final int start, final int end) {
+        final List<CacheItem> result = new ArrayList<>((end - start) / 80 + 1);
+        final int[] colons = new int[FIELDS];
+        int pos = start;
+
+        while (pos < end) {
+            final int lineEnd = getLineEnd(content, pos, end);
+
+            if (lineEnd > pos && content[pos] != '#') {
+                result.add(parseCacheItem(content, pos, lineEnd, colons));
+            }
+
+            pos = getNextLine(content, lineEnd, end);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns position of the end of the line.
+     *
+     * @param content content
+     * @param pos     position in the line
+     * @param end     end position of the content
+     *
+     * @return position of line terminator that ends the line or end of the
+     *         content
+     */
+    private static int getLineEnd(final byte[] content, final int pos,
+            final int end) {
+        int result = pos;
+
+        while (result < end && content[result] != '\n'
+                && content[result] != '\r') {
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns position of the next line.
+     *
+     * @param content content
+     * @param lineEnd end position of the line returned by
+     *                {@link #getLineEnd(byte[], int, int)}
+     * @param end     end position of the content
+     *
+     * @return position after the line terminator, "\r\n" is single line
+     *         terminator
+     */
+    private static int getNextLine(final byte[] content, final int lineEnd,
+            final int end) {
+        if (lineEnd >= end) {
+            return end;
+        } else if (content[lineEnd] == '\r' && lineEnd + 1 < end
+                && content[lineEnd + 1] == '\n') {
+            return lineEnd + 2;
+        }
+
+        return lineEnd + 1;
+    }
+
+    /**
+     * Checks whether the line is a record, that is it contains field
+     * separator and it is not a comment.
+     *
+     * @param content content
+     * @param start   start position of the line
+     * @param end     end position of the line
+     *
+     * @return true if the line is a record, otherwise false
+     */
+    private static boolean isRecord(final byte[] content, final int start,
+            final int end) {
+        if (start == end || content[start] == '#') {
+            return false;
+        }
+
+        for (int pos = start; pos < end; pos++) {
+            if (content[pos] == ':') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses cache item from the line. Fields are handled the same way as
+     * {@link CacheItem#CacheItem(java.lang.String)} handles them, only the
+     * line is not split to strings first.
+     *
+     * @param content content
+     * @param start   start position of the line
+     * @param end     end position of the line
+     * @param colons  buffer for positions of field separators
+     *
+     * @return cache item
+     */
+    private static CacheItem parseCacheItem(final byte[] content,
+            final int start, final int end, final int[] colons) {
+        int fields = 0;
+        // number of fields without trailing empty fields, like String.split
+        int nonEmptyFields = 0;
+        int fieldStart = start;
+
+        for (int pos = start; pos <= end; pos++) {
+            if (pos == end || content[pos] == ':') {
+                if (fields < FIELDS) {
+                    colons[fields] = pos;
+                }
+
+                fields++;
+
+                if (pos > fieldStart) {
+                    nonEmptyFields = fields;
+                }
+
+                fieldStart = pos + 1;
+            }
+        }
+
+        final String[] parts = new String[Math.min(nonEmptyFields, FIELDS)];
+
+        for (int i = 0; i < parts.length; i++) {
+            final int from = i == 0 ? start : colons[i - 1] + 1;
+            parts[i] = new String(content, from, colons[i] - from,
+                    StandardCharsets.UTF_8);
+        }
+
+        return new CacheItem(parts);
+    }
+
+    /**
+     * Getter for {@link #headers}.
+     *
+     * @return {@link #headers}
+     */
+    public List<String> getHeaders() {
+        return Collections.unmodifiableList(headers);
+    }
+
+    /**
+     * Getter for {@link #version}.
+     *
+     * @return {@link #version}
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Parses cache items from the records of the cache file.
+     *
+     * @param threads number of threads used for parsing, if it is 1 or the
+     *                file is small, records are parsed sequentially
+     *
+     * @return list of cache items in the order of the cache file
+     */
+    public List<CacheItem> readCacheItems(final int threads) {
+        final int chunks = Math.min(threads,
+                (content.length - recordsStart) / MIN_CHUNK_SIZE);
+
+        if (chunks <= 1) {
+            return parseCacheItems(content, recordsStart, content.length);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            return pool.invoke(new ChunksTask(chunks));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Fork-join task that splits records to chunks at line boundaries,
+     * parses them in parallel and merges cache items in the order of the
+     * chunks.
+     */
+    private class ChunksTask extends RecursiveTask<List<CacheItem>> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Number of chunks.
+         */
+        private final int chunks;
+
+        /**
+         * Creates new instance of ChunksTask.
+         *
+         * @param chunks {@link #chunks}
+         */
+        ChunksTask(final int chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected List<CacheItem> compute() {
+            final List<RecursiveTask<List<CacheItem>>> tasks
+                    = new ArrayList<>(chunks);
+            final int chunkSize = (content.length - recordsStart) / chunks;
+            int start = recordsStart;
+
+            for (int i = 0; i < chunks && start < content.length; i++) {
+                final int chunkStart = start;
+                final int chunkEnd = i == chunks - 1 ? content.length
+                        : getLineEnd(content, Math.min(content.length,
+                                start + chunkSize), content.length);
+                tasks.add(new RecursiveTask<List<CacheItem>>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected List<CacheItem> compute() {
+                        return parseCacheItems(content, chunkStart, chunkEnd);
+                    }
+                });
+                start = getNextLine(content, chunkEnd, content.length);
+            }
+
+            invokeAll(tasks);
+
+            final List<CacheItem> result
+                    = new ArrayList<>((content.length - recordsStart) / 80);
+            tasks.forEach((task) -> result.addAll(task.join()));
+
+            return result;
+        }
+    }
+}
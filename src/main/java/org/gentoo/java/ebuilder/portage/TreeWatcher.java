@@ -0,0 +1,510 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.gentoo.java.ebuilder.Config;
+
+/**
+ * Watches portage trees for changes and keeps the cache file up-to-date.
+ * Tree roots, categories, packages, md5-cache and its categories are
+ * registered in watch service. If there are not enough inotify watches for
+ * all packages, only tree roots, categories and md5-cache are watched. Changes are collected until there is no
+ * change for {@link #DEBOUNCE_MILLIS}, then the changed packages are parsed
+ * again and the cache file is replaced atomically, so readers of the cache
+ * never see partially written file.
+ *
+ * @author fordfrog
+ */
+class TreeWatcher {
+
+    /**
+     * Number of milliseconds without any change after which the changes are
+     * processed.
+     */
+    private static final long DEBOUNCE_MILLIS = 1_000;
+
+    /**
+     * Application configuration.
+     */
+    private final Config config;
+    /**
+     * Registered directories.
+     */
+    private final Map<WatchKey, WatchedDirectory> directories
+            = new HashMap<>(1_000);
+    /**
+     * Manifest with scan results of all packages.
+     */
+    private final CacheManifest manifest;
+    /**
+     * Portage parser used for parsing changed packages.
+     */
+    private final PortageParser parser;
+    /**
+     * Watch service.
+     */
+    private WatchService watchService;
+    /**
+     * Whether package directories are watched. Watching of packages is
+     * turned off when they cannot be registered, usually because limit of
+     * inotify watches was reached.
+     */
+    private boolean watchPackages = true;
+
+    /**
+     * Creates new instance of TreeWatcher.
+     *
+     * @param parser   {@link #parser}
+     * @param config   {@link #config}
+     * @param manifest {@link #manifest}
+     */
+    TreeWatcher(final PortageParser parser, final Config config,
+            final CacheManifest manifest) {
+        this.parser = parser;
+        this.config = config;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Watches portage trees until the thread is interrupted.
+     */
+    void watch() {
+        try (final WatchService service
+                = FileSystems.getDefault().newWatchService()) {
+            watchService = service;
+
+            for (final Path portageTree : config.getPortageTree()) {
+                register(portageTree, portageTree, DirectoryType.TREE);
+
+                final Path md5Cache = getMd5CachePath(portageTree);
+
+                if (Files.isDirectory(md5Cache)) {
+                    register(portageTree, md5Cache,
+                            DirectoryType.MD5_CACHE_ROOT);
+                }
+
+                for (final Path category
+                        : PortageParser.listCategories(portageTree)) {
+                    registerCategory(portageTree, category);
+                }
+            }
+
+            config.getStdoutWriter().println(MessageFormat.format(
+                    "Watching {0} directories for changes...",
+                    directories.size()));
+
+            while (!Thread.currentThread().isInterrupted()) {
+                final Set<Path> changedPackages = new TreeSet<>();
+                WatchKey key = watchService.take();
+
+                while (key != null) {
+                    processEvents(key, changedPackages);
+                    key = watchService.poll(DEBOUNCE_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
+
+                if (updatePackages(changedPackages)) {
+                    publish();
+                }
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to watch portage tree", ex);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds packages of the category to the set of changed packages. Both
+     * packages that exist and packages that are known from the manifest are
+     * added, so that removed packages are removed from the cache.
+     *
+     * @param tree            portage tree path
+     * @param category        category path
+     * @param changedPackages set of changed packages
+     */
+    private void addCategoryPackages(final Path tree, final Path category,
+            final Set<Path> changedPackages) {
+        changedPackages.addAll(PortageParser.listPackages(category));
+
+        final String prefix = category.toString() + File.separatorChar;
+
+        manifest.getPackages(tree).stream().
+                filter((pkg) -> pkg.startsWith(prefix)).
+                forEach((pkg) -> changedPackages.add(Paths.get(pkg)));
+    }
+
+    /**
+     * Processes events of the watch key and collects changed packages.
+     *
+     * @param key             watch key
+     * @param changedPackages set of changed packages
+     *
+     * @throws IOException Thrown if new directory could not be registered.
+     */
+    private void processEvents(final WatchKey key,
+            final Set<Path> changedPackages) throws IOException {
+        final WatchedDirectory directory = directories.get(key);
+
+        if (directory == null) {
+            key.pollEvents();
+            key.reset();
+
+            return;
+        }
+
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, the whole tree has to be checked
+                for (final Path category
+                        : PortageParser.listCategories(directory.tree)) {
+                    registerCategory(directory.tree, category);
+                    addCategoryPackages(directory.tree, category,
+                            changedPackages);
+                }
+
+                manifest.getPackages(directory.tree).forEach(
+                        (pkg) -> changedPackages.add(Paths.get(pkg)));
+
+                continue;
+            }
+
+            final Path child = directory.path.resolve((Path) event.context());
+
+            switch (directory.type) {
+                case TREE:
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && PortageParser.isCategory(child)) {
+                        registerCategory(directory.tree, child);
+                    }
+
+                    // removed category is not a directory anymore
+                    if (PortageParser.isCategory(child)
+                            || !Files.exists(child)) {
+                        addCategoryPackages(directory.tree, child,
+                                changedPackages);
+                    }
+
+                    break;
+                case CATEGORY:
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && Files.isDirectory(child)) {
+                        registerPackage(directory.tree, child);
+                    }
+
+                    changedPackages.add(child);
+
+                    break;
+                case PACKAGE:
+                    if (child.getFileName().toString().endsWith(".ebuild")) {
+                        changedPackages.add(directory.path);
+                    }
+
+                    break;
+                case MD5_CACHE_ROOT:
+                    // md5-cache of new category can be created after the
+                    // category itself
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && Files.isDirectory(child)) {
+                        register(directory.tree, child,
+                                DirectoryType.MD5_CACHE);
+                        addCategoryPackages(directory.tree,
+                                directory.tree.resolve(child.getFileName()),
+                                changedPackages);
+                    }
+
+                    break;
+                case MD5_CACHE:
+                    try {
+                        changedPackages.add(directory.tree.resolve(
+                                directory.path.getFileName()).resolve(
+                                PortageParser.parseEbuildName(
+                                        child.getFileName() + ".ebuild").
+                                        get("name")));
+                    } catch (final IllegalArgumentException ex) {
+                        // not an md5-cache entry of an ebuild
+                    }
+
+                    break;
+                default:
+                    throw new IllegalStateException(
+                            "Unsupported directory type " + directory.type);
+            }
+        }
+
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Returns path of md5-cache of portage tree.
+     *
+     * @param tree portage tree path
+     *
+     * @return md5-cache path
+     */
+    private static Path getMd5CachePath(final Path tree) {
+        return tree.resolve("metadata").resolve("md5-cache");
+    }
+
+    /**
+     * Writes cache file with items of all packages to temporary file and
+     * then replaces the cache file with it. If git delta is enabled, current
+     * HEAD commits of the trees are written to the cache file header, the
+     * same way as {@link PortageParser#parseTree(Config)} does.
+     */
+    private void publish() {
+        final List<CacheItem> cacheItems = new ArrayList<>(40_000);
+        final Map<Path, String> gitHeads = new TreeMap<>();
+
+        for (final Path portageTree : config.getPortageTree()) {
+            cacheItems.addAll(manifest.getCacheItems(portageTree));
+
+            final String gitHead = config.isGitDelta()
+                    ? GitTree.getHead(portageTree) : null;
+
+            if (gitHead != null) {
+                gitHeads.put(portageTree, gitHead);
+            }
+        }
+
+        final Path cacheFile = config.getCacheFile();
+        final Path tmpFile
+                = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+
+        parser.writeCache(tmpFile, config.isBinaryCache(), cacheItems,
+                PortageParser.getGitHeadHeaders(gitHeads));
+
+        try {
+            if (config.isBinaryCache()) {
+                Files.move(PortageParser.getTextExportPath(tmpFile),
+                        PortageParser.getTextExportPath(cacheFile),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Files.move(tmpFile, cacheFile, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to replace cache file @ "
+                    + cacheFile, ex);
+        }
+
+        if (config.isIncrementalRefresh() || config.isGitDelta()) {
+            manifest.write(CacheManifest.getPath(cacheFile));
+        }
+
+        config.getStdoutWriter().println(MessageFormat.format(
+                "Published cache with {0} java ebuilds", cacheItems.size()));
+    }
+
+    /**
+     * Registers directory in the watch service.
+     *
+     * @param tree      portage tree path
+     * @param directory directory path
+     * @param type      directory type
+     *
+     * @throws IOException Thrown if the directory could not be registered.
+     */
+    private void register(final Path tree, final Path directory,
+            final DirectoryType type) throws IOException {
+        final WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        directories.put(key, new WatchedDirectory(tree, directory, type));
+    }
+
+    /**
+     * Registers package directory in the watch service if packages are
+     * watched. If the package cannot be registered, watching of packages is
+     * turned off and already registered packages are released, so that
+     * categories and md5-cache can still be watched. Changed ebuilds are then
+     * detected only when md5-cache is regenerated.
+     *
+     * @param tree portage tree path
+     * @param pkg  package path
+     */
+    private void registerPackage(final Path tree, final Path pkg) {
+        if (!watchPackages) {
+            return;
+        }
+
+        try {
+            register(tree, pkg, DirectoryType.PACKAGE);
+        } catch (final NoSuchFileException ex) {
+            // package was removed in the meantime, category reports it
+        } catch (final IOException ex) {
+            watchPackages = false;
+            directories.entrySet().removeIf((entry) -> {
+                if (entry.getValue().type != DirectoryType.PACKAGE) {
+                    return false;
+                }
+
+                entry.getKey().cancel();
+
+                return true;
+            });
+
+            config.getErrorWriter().println(MessageFormat.format(
+                    "WARNING: Failed to watch package directory {0}: {1}. "
+                    + "The limit of inotify watches was probably reached "
+                    + "(see /proc/sys/fs/inotify/max_user_watches), only "
+                    + "categories and md5-cache are watched now, so changed "
+                    + "ebuilds are detected after md5-cache is regenerated.",
+                    pkg, ex.getMessage()));
+        }
+    }
+
+    /**
+     * Registers category, its packages and its md5-cache directory in the
+     * watch service.
+     *
+     * @param tree     portage tree path
+     * @param category category path
+     *
+     * @throws IOException Thrown if some directory could not be registered.
+     */
+    private void registerCategory(final Path tree, final Path category)
+            throws IOException {
+        register(tree, category, DirectoryType.CATEGORY);
+
+        for (final Path pkg : PortageParser.listPackages(category)) {
+            registerPackage(tree, pkg);
+        }
+
+        final Path md5Cache
+                = getMd5CachePath(tree).resolve(category.getFileName());
+
+        if (Files.isDirectory(md5Cache)) {
+            register(tree, md5Cache, DirectoryType.MD5_CACHE);
+        }
+    }
+
+    /**
+     * Parses changed packages again and updates their results in the
+     * manifest. Packages that no longer exist are removed from the manifest.
+     *
+     * @param changedPackages set of changed packages
+     *
+     * @return true if some package result changed, otherwise false
+     */
+    private boolean updatePackages(final Set<Path> changedPackages) {
+        // md5-cache of category is read once for all its changed packages
+        final Map<Path, Map<String, Md5CacheEntry>> md5Caches
+                = new HashMap<>(10);
+        int updated = 0;
+
+        for (final Path pkg : changedPackages) {
+            if (!Files.isDirectory(pkg)) {
+                if (manifest.remove(pkg.toString())) {
+                    updated++;
+                }
+
+                continue;
+            }
+
+            final String stamp = CacheManifest.getStamp(pkg);
+
+            if (manifest.get(pkg.toString(), stamp) == null) {
+                final Path category = pkg.getParent();
+
+                if (!md5Caches.containsKey(category)) {
+                    md5Caches.put(category, parser.readMd5Cache(category));
+                }
+
+                manifest.put(pkg.toString(), stamp,
+                        parser.parsePackage(pkg, md5Caches.get(category)));
+                updated++;
+            }
+        }
+
+        if (updated > 0) {
+            config.getStdoutWriter().println(MessageFormat.format(
+                    "Parsed {0} changed packages", updated));
+        }
+
+        return updated > 0;
+    }
+
+    /**
+     * Type of watched directory.
+     */
+    private enum DirectoryType {
+
+        /**
+         * Portage tree root.
+         */
+        TREE,
+        /**
+         * Category directory.
+         */
+        CATEGORY,
+        /**
+         * Package directory.
+         */
+        PACKAGE,
+        /**
+         * Directory metadata/md5-cache.
+         */
+        MD5_CACHE_ROOT,
+        /**
+         * Category directory in metadata/md5-cache.
+         */
+        MD5_CACHE
+    }
+
+    /**
+     * Information about registered directory.
+     */
+    private static class WatchedDirectory {
+
+        /**
+         * Directory path.
+         */
+        private final Path path;
+        /**
+         * Portage tree the directory belongs to.
+         */
+        private final Path tree;
+        /**
+         * Directory type.
+         */
+        private final DirectoryType type;
+
+        /**
+         * Creates new instance of WatchedDirectory.
+         *
+         * @param tree {@link #tree}
+         * @param path {@link #path}
+         * @param type {@link #type}
+         */
+        WatchedDirectory(final Path tree, final Path path,
+                final DirectoryType type) {
+            this.tree = tree;
+            this.path = path;
+            this.type = type;
+        }
+    }
+}
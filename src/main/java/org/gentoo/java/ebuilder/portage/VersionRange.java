@@ -0,0 +1,299 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maven version range. The range consists of one or more restrictions
+ * separated by comma, like <code>[1.0,2.0),[3.0,)</code>. Every restriction
+ * has optional lower and upper bound, that are inclusive (<code>[</code>,
+ * <code>]</code>) or exclusive (<code>(</code>, <code>)</code>), or it pins
+ * exact version, like <code>[1.2]</code>.
+ *
+ * @author fordfrog
+ */
+public class VersionRange {
+
+    /**
+     * Restrictions of the range in the order as they are specified.
+     */
+    private final List<Restriction> restrictions = new ArrayList<>(2);
+    /**
+     * Original range string.
+     */
+    private final String range;
+
+    /**
+     * Checks whether the version string is a version range.
+     *
+     * @param version version string
+     *
+     * @return true if the version string starts with range bracket,
+     *         otherwise false
+     */
+    public static boolean isRange(final String version) {
+        return !version.isEmpty()
+                && (version.charAt(0) == '[' || version.charAt(0) == '(');
+    }
+
+    /**
+     * Creates new instance of VersionRange.
+     *
+     * @param range range string
+     */
+    public VersionRange(final String range) {
+        this.range = range;
+
+        int pos = 0;
+
+        while (pos < range.length()) {
+            final char open = range.charAt(pos);
+
+            if (open != '[' && open != '(') {
+                throw invalid();
+            }
+
+            int end = pos + 1;
+
+            while (end < range.length() && range.charAt(end) != ']'
+                    && range.charAt(end) != ')') {
+                end++;
+            }
+
+            if (end == range.length()) {
+                throw invalid();
+            }
+
+            restrictions.add(parseRestriction(open == '[',
+                    range.substring(pos + 1, end), range.charAt(end) == ']'));
+            pos = end + 1;
+
+            if (pos < range.length()) {
+                if (range.charAt(pos) != ',') {
+                    throw invalid();
+                }
+
+                pos++;
+
+                while (pos < range.length() && range.charAt(pos) == ' ') {
+                    pos++;
+                }
+
+                if (pos == range.length()) {
+                    throw invalid();
+                }
+            }
+        }
+
+        if (restrictions.isEmpty()) {
+            throw invalid();
+        }
+    }
+
+    /**
+     * Checks whether the version is in the range.
+     *
+     * @param version maven version
+     *
+     * @return true if some of the restrictions contains the version,
+     *         otherwise false
+     */
+    public boolean contains(final MavenVersion version) {
+        return restrictions.stream().anyMatch(
+                (restriction) -> restriction.contains(version));
+    }
+
+    /**
+     * Returns version that represents the range where single version is
+     * needed. It is the lower bound of the first restriction or its upper
+     * bound if the restriction does not have lower bound.
+     *
+     * @return maven version
+     */
+    public MavenVersion getBoundVersion() {
+        final Restriction restriction = restrictions.get(0);
+
+        if (restriction.getLower() != null) {
+            return restriction.getLower();
+        } else if (restriction.getUpper() != null) {
+            return restriction.getUpper();
+        }
+
+        throw new RuntimeException("Maven version range " + range
+                + " does not have any bound.");
+    }
+
+    /**
+     * Getter for {@link #range}.
+     *
+     * @return {@link #range}
+     */
+    public String getRange() {
+        return range;
+    }
+
+    /**
+     * Getter for {@link #restrictions}.
+     *
+     * @return {@link #restrictions}
+     */
+    public List<Restriction> getRestrictions() {
+        return Collections.unmodifiableList(restrictions);
+    }
+
+    /**
+     * Creates exception for invalid range.
+     *
+     * @return exception
+     */
+    private RuntimeException invalid() {
+        return new RuntimeException("Maven version range " + range
+                + " is not valid.");
+    }
+
+    /**
+     * Parses single restriction.
+     *
+     * @param lowerInclusive whether lower bound is inclusive
+     * @param bounds         content between the brackets
+     * @param upperInclusive whether upper bound is inclusive
+     *
+     * @return restriction
+     */
+    private Restriction parseRestriction(final boolean lowerInclusive,
+            final String bounds, final boolean upperInclusive) {
+        final int comma = bounds.indexOf(',');
+
+        if (comma == -1) {
+            // exact version pin
+            if (!lowerInclusive || !upperInclusive || bounds.trim().isEmpty()) {
+                throw invalid();
+            }
+
+            final MavenVersion version = MavenVersion.of(bounds.trim());
+
+            return new Restriction(version, true, version, true);
+        }
+
+        final String lowerString = bounds.substring(0, comma).trim();
+        final String upperString = bounds.substring(comma + 1).trim();
+
+        if (upperString.indexOf(',') != -1) {
+            throw invalid();
+        }
+
+        final MavenVersion lower = lowerString.isEmpty()
+                ? null : MavenVersion.of(lowerString);
+        final MavenVersion upper = upperString.isEmpty()
+                ? null : MavenVersion.of(upperString);
+
+        if (lower != null && upper != null && lower.compareTo(upper) > 0) {
+            throw invalid();
+        }
+
+        return new Restriction(lower, lowerInclusive, upper, upperInclusive);
+    }
+
+    /**
+     * Single interval of the version range.
+     */
+    public static class Restriction {
+
+        /**
+         * Lower bound or null if the interval is not bounded from below.
+         */
+        private final MavenVersion lower;
+        /**
+         * Whether lower bound is inclusive.
+         */
+        private final boolean lowerInclusive;
+        /**
+         * Upper bound or null if the interval is not bounded from above.
+         */
+        private final MavenVersion upper;
+        /**
+         * Whether upper bound is inclusive.
+         */
+        private final boolean upperInclusive;
+
+        /**
+         * Creates new instance of Restriction.
+         *
+         * @param lower          {@link #lower}
+         * @param lowerInclusive {@link #lowerInclusive}
+         * @param upper          {@link #upper}
+         * @param upperInclusive {@link #upperInclusive}
+         */
+        Restriction(final MavenVersion lower, final boolean lowerInclusive,
+                final MavenVersion upper, final boolean upperInclusive) {
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        /**
+         * Checks whether the version is in the interval.
+         *
+         * @param version maven version
+         *
+         * @return true if the version is in the interval, otherwise false
+         */
+        public boolean contains(final MavenVersion version) {
+            if (lower != null) {
+                final int result = version.compareTo(lower);
+
+                if (result < 0 || result == 0 && !lowerInclusive) {
+                    return false;
+                }
+            }
+
+            if (upper != null) {
+                final int result = version.compareTo(upper);
+
+                if (result > 0 || result == 0 && !upperInclusive) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Getter for {@link #lower}.
+         *
+         * @return {@link #lower}
+         */
+        public MavenVersion getLower() {
+            return lower;
+        }
+
+        /**
+         * Getter for {@link #lowerInclusive}.
+         *
+         * @return {@link #lowerInclusive}
+         */
+        public boolean isLowerInclusive() {
+            return lowerInclusive;
+        }
+
+        /**
+         * Getter for {@link #upper}.
+         *
+         * @return {@link #upper}
+         */
+        public MavenVersion getUpper() {
+            return upper;
+        }
+
+        /**
+         * Getter for {@link #upperInclusive}.
+         *
+         * @return {@link #upperInclusive}
+         */
+        public boolean isUpperInclusive() {
+            return upperInclusive;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.gentoo.java.ebuilder.Config;
+import org.gentoo.java.ebuilder.portage.CacheItem;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link CacheDiff}.
+ *
+ * @author fordfrog
+ */
+public class CacheDiffTest {
+
+    /**
+     * Records of the old cache.
+     */
+    private static final List<String> OLD_RECORDS = Arrays.asList(
+            "dev-java:a:1.0:1::org.a:a:1.0:java-pkg-2",
+            "dev-java:a:2.0:2::org.a:a:2.0:java-pkg-2",
+            "dev-java:b:1.0:0::org.b:b:1.0:java-pkg-2",
+            "dev-java:c:1.0:0::org.c:c:1.0:java-pkg-2",
+            "dev-java:d:1.0:0:::::java-pkg-2");
+    /**
+     * Records of the new cache.
+     */
+    private static final List<String> NEW_RECORDS = Arrays.asList(
+            "dev-java:a:1.0:1::org.a:a:1.0:java-pkg-2",
+            "dev-java:a:3.0:3::org.a:a:3.0:java-pkg-2",
+            "dev-java:b:1.0:0::org.b:b:1.0:java-pkg-2",
+            "dev-java:e:1.0:0::org.e:e:1.0:java-pkg-2");
+    /**
+     * Temporary folder for cache files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Sorted text caches, unsorted text caches and shard indexes are read
+     * sorted and the merge finds the same differences for all of them.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testCompute() throws IOException {
+        final Path sortedOld = writeSortedCache("old-sorted", OLD_RECORDS);
+        final Path unsortedNew = writeCache("new-unsorted",
+                reverse(NEW_RECORDS));
+        final Path shardedNew = writeShards("new-sharded",
+                NEW_RECORDS.subList(0, 2), NEW_RECORDS.subList(2, 4));
+
+        for (final Path newCache : new Path[]{
+            writeSortedCache("new-sorted", NEW_RECORDS), unsortedNew,
+            shardedNew}) {
+            final CacheDiff diff = CacheDiff.compute(sortedOld, newCache);
+
+            assertEquals(newCache.toString(), Arrays.asList("org.e:e"),
+                    diff.getAdded());
+            assertEquals(newCache.toString(), Arrays.asList("org.a:a"),
+                    diff.getChanged());
+            assertEquals(newCache.toString(), Arrays.asList("org.c:c"),
+                    diff.getRemoved());
+        }
+
+        assertEquals(true, CacheDiff.compute(writeCache("old-unsorted",
+                reverse(OLD_RECORDS)), sortedOld).isEmpty());
+    }
+
+    /**
+     * Items of earlier shards come first for the same maven version, like
+     * they do when the cache is loaded.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testShardPriority() throws IOException {
+        final Path cacheFile = writeShards("priority",
+                Arrays.asList("dev-java:x:2.0:2::org.x:x:1.0:java-pkg-2",
+                        "dev-java:y:1.0:0::org.y:y:1.0:java-pkg-2"),
+                Arrays.asList("dev-java:w:1.0:0::org.w:w:1.0:java-pkg-2",
+                        "dev-java:x:1.0:1::org.x:x:1.0:java-pkg-2"));
+
+        try (final Stream<CacheItem> cacheItems
+                = CacheDiff.streamCacheItems(cacheFile)) {
+            assertEquals(Arrays.asList("w:1.0", "x:2.0", "x:1.0", "y:1.0"),
+                    cacheItems.map((cacheItem) -> cacheItem.getPkg() + ':'
+                            + cacheItem.getVersion()).
+                            collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Dependency comments are parsed from the fixed prefix, so version
+     * ranges with spaces and comments with USE flag are checked.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testFindChangedEbuilds() throws IOException {
+        final Path oldCache = writeSortedCache("old", OLD_RECORDS);
+        final Path newCache = writeSortedCache("new", NEW_RECORDS);
+        final CacheDiff diff = CacheDiff.compute(oldCache, newCache);
+        final Config config = new Config(new PrintWriter(new StringWriter()),
+                new PrintWriter(new StringWriter()));
+        config.setCacheFile(newCache);
+        final MavenCache mavenCache = new MavenCache();
+        mavenCache.loadCache(config);
+
+        final String rangeAtom
+                = mavenCache.getDependency("org.a", "a", "[1.0, 4.0)");
+        final String testAtom
+                = mavenCache.getDependency("org.a", "a", "1.0");
+        final Path ebuilds = folder.newFolder("ebuilds").toPath();
+        final Path range = writeEbuild(ebuilds, "range",
+                "# org.a:a:[1.0, 4.0) -> dev-java/a:2");
+        final Path test = writeEbuild(ebuilds, "test",
+                "# test? org.a:a:1.0 -> dev-java/a:0");
+        writeEbuild(ebuilds, "same", "# org.a:a:[1.0, 4.0) -> " + rangeAtom,
+                "# test? org.a:a:1.0 -> " + testAtom,
+                "# org.b:b:1.0 -> dev-java/other:0");
+
+        assertEquals(Arrays.asList(range, test), diff.findChangedEbuilds(
+                Collections.singletonList(ebuilds), mavenCache));
+    }
+
+    /**
+     * Returns records in reverse order.
+     *
+     * @param records cache records
+     *
+     * @return reversed records
+     */
+    private static List<String> reverse(final List<String> records) {
+        final List<String> result = records.stream().
+                collect(Collectors.toList());
+        Collections.reverse(result);
+
+        return result;
+    }
+
+    /**
+     * Writes text cache without group index.
+     *
+     * @param name    file name
+     * @param records cache records
+     *
+     * @return cache file path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private Path writeCache(final String name, final List<String> records)
+            throws IOException {
+        final Path result = folder.getRoot().toPath().resolve(name);
+        Files.write(result, ("1.1\n" + String.join("\n", records) + "\n").
+                getBytes(StandardCharsets.UTF_8));
+
+        return result;
+    }
+
+    /**
+     * Writes text cache with header of sorted records.
+     *
+     * @param name    file name
+     * @param records cache records sorted by group id, artifact id and maven
+     *                version
+     *
+     * @return cache file path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private Path writeSortedCache(final String name,
+            final List<String> records) throws IOException {
+        final String body = String.join("\n", records) + "\n";
+        final long sorted = records.stream().map(CacheItem::new).
+                filter((cacheItem) -> cacheItem.getGroupId() != null).count();
+        final Path result = folder.getRoot().toPath().resolve(name);
+        Files.write(result, ("1.1\n#sorted=" + sorted + "\n#records="
+                + body.getBytes(StandardCharsets.UTF_8).length + "\n" + body).
+                getBytes(StandardCharsets.UTF_8));
+
+        return result;
+    }
+
+    /**
+     * Writes shard index with sorted shards.
+     *
+     * @param name   file name
+     * @param shards records of shards in order of their priority
+     *
+     * @return cache file path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @SafeVarargs
+    private final Path writeShards(final String name,
+            final List<String>... shards) throws IOException {
+        final StringBuilder sbIndex = new StringBuilder(100);
+        sbIndex.append("shards-1.0\n");
+
+        for (int i = 0; i < shards.length; i++) {
+            final String shard = name + '-' + i;
+            writeSortedCache(shard, shards[i]);
+            sbIndex.append(shard).append('\n');
+        }
+
+        final Path result = folder.getRoot().toPath().resolve(name);
+        Files.write(result, sbIndex.toString().getBytes(
+                StandardCharsets.UTF_8));
+
+        return result;
+    }
+
+    /**
+     * Writes ebuild with the lines.
+     *
+     * @param directory directory
+     * @param name      ebuild name without extension
+     * @param lines     ebuild lines
+     *
+     * @return ebuild path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private static Path writeEbuild(final Path directory, final String name,
+            final String... lines) throws IOException {
+        final Path result = directory.resolve(name + ".ebuild");
+        Files.write(result, Arrays.asList(lines), StandardCharsets.UTF_8);
+
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.gentoo.java.ebuilder.Config;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link CacheQuery}.
+ *
+ * @author fordfrog
+ */
+public class CacheQueryTest {
+
+    /**
+     * Temporary folder for cache files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Queries are answered from layered caches and standard output contains
+     * only query results.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testRun() throws IOException {
+        final Path base = folder.getRoot().toPath().resolve("base");
+        Files.write(base, ("1.1\n"
+                + "dev-java:a:1.0:1::org.a:a:1.0:java-pkg-2\n"
+                + "dev-java:a:2.0:2::org.a:a:2.0:java-pkg-2\n"
+                + "dev-java:ab:1.0:0::org.a:b:1.0:java-pkg-2\n"
+                + "dev-java:ab:1.0:0::org.a:c:1.0:java-pkg-2\n").
+                getBytes(StandardCharsets.UTF_8));
+        final Path overlay = folder.getRoot().toPath().resolve("overlay");
+        Files.write(overlay, "dev-java:a:2.0:9::org.a:a:2.0:java-pkg-2\n".
+                getBytes(StandardCharsets.UTF_8));
+
+        final StringWriter stdout = new StringWriter();
+        final Config config = new Config(new PrintWriter(stdout),
+                new PrintWriter(new StringWriter()));
+        config.addCacheFile(base);
+        config.addCacheFile(overlay);
+        config.addCacheFile(folder.getRoot().toPath().resolve("missing"));
+
+        final String queries = String.join("\n",
+                "atom org.a:a:1.5",
+                "atom org.x:a:1.0",
+                "atom org.a:x:1.0",
+                "exists org.a:b",
+                "exists org.a:x",
+                "category org.a:c",
+                "category org.a:x",
+                "providers dev-java/ab",
+                "add java-virtuals:d:1.0:0::org.a:d:1.0:",
+                "providers java-virtuals/d",
+                "atom org.a:d:1.0",
+                "add dev-java:e:1.0:0::::",
+                "bogus");
+        final StringWriter results = new StringWriter();
+        new CacheQuery(config).run(new BufferedReader(new StringReader(
+                queries)), new PrintWriter(results));
+
+        assertEquals("", stdout.toString());
+        assertEquals(Arrays.asList(
+                ">=dev-java/a-2.0:2",
+                "!!!groupId-not-found!!!",
+                "!!!artifactId-not-found!!!",
+                "yes",
+                "no",
+                "dev-java",
+                "",
+                "org.a:b org.a:c",
+                "ok",
+                "org.a:d",
+                "java-virtuals/d:0",
+                "error cache line without maven coordinates: "
+                + "dev-java:e:1.0:0::::",
+                "error unknown query: bogus"),
+                Arrays.asList(results.toString().split("\\R", -1)).
+                        subList(0, 13));
+    }
+}
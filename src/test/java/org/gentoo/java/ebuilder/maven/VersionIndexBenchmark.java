@@ -0,0 +1,251 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.gentoo.java.ebuilder.portage.CacheItem;
+import org.gentoo.java.ebuilder.portage.MavenVersion;
+import org.gentoo.java.ebuilder.portage.VersionRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of version lookups. The original linear scan over cache items of
+ * the artifact is compared with binary search in {@link VersionIndex}. Every
+ * maven version of the sample cache is looked up in every artifact of the
+ * sample cache. The sample cache contains versions of artifacts published in
+ * maven central, another cache file can be set using system property
+ * <code>sample.cache</code>. Run it with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     org.openjdk.jmh.Main VersionIndexBenchmark
+ * </pre>
+ *
+ * @author fordfrog
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class VersionIndexBenchmark {
+
+    /**
+     * Returns path of the sample cache.
+     *
+     * @return path from system property <code>sample.cache</code> or path of
+     *         the sample cache resource
+     */
+    static Path getSampleCache() {
+        final String cacheFile = System.getProperty("sample.cache");
+
+        if (cacheFile != null) {
+            return Paths.get(cacheFile);
+        }
+
+        try {
+            return Paths.get(VersionIndexBenchmark.class.getResource(
+                    "/sample-cache").toURI());
+        } catch (final URISyntaxException ex) {
+            throw new RuntimeException("Failed to find sample cache", ex);
+        }
+    }
+
+    /**
+     * Reads cache items of artifacts from the cache file. Cache items of
+     * every artifact are sorted by maven version the same way as
+     * {@link MavenCache} sorts them, for the same maven version the cache
+     * item from earlier line comes first.
+     *
+     * @param cacheFile cache file path
+     *
+     * @return cache items of artifacts
+     */
+    static List<List<CacheItem>> readArtifacts(final Path cacheFile) {
+        final Map<String, List<CacheItem>> artifacts
+                = new LinkedHashMap<>(1_000);
+
+        try {
+            for (final String line : Files.readAllLines(cacheFile,
+                    StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || line.charAt(0) == '#'
+                        || line.indexOf(':') == -1) {
+                    continue;
+                }
+
+                final CacheItem cacheItem = new CacheItem(line);
+
+                if (cacheItem.getGroupId() == null
+                        || cacheItem.getArtifactId() == null
+                        || cacheItem.getMavenVersion() == null) {
+                    continue;
+                }
+
+                artifacts.computeIfAbsent(cacheItem.getGroupId() + ':'
+                        + cacheItem.getArtifactId(),
+                        (key) -> new ArrayList<>(10)).add(cacheItem);
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ "
+                    + cacheFile, ex);
+        }
+
+        final List<List<CacheItem>> result = new ArrayList<>(artifacts.values());
+        result.forEach((cacheItems) -> cacheItems.sort(
+                (o1, o2) -> o1.getParsedMavenVersion().compareTo(
+                        o2.getParsedMavenVersion())));
+
+        return result;
+    }
+
+    /**
+     * Searches for cache item matching the version by linear scan, the way
+     * {@link MavenCache} originally resolved versions.
+     *
+     * @param cacheItems cache items sorted by maven version
+     * @param version    requested maven version
+     * @param match      how the version is matched
+     *
+     * @return cache item or null if no version matches, for the same maven
+     *         version the first cache item is returned
+     */
+    static CacheItem findLinear(final List<CacheItem> cacheItems,
+            final MavenVersion version, final VersionMatch match) {
+        CacheItem result = null;
+
+        for (final CacheItem cacheItem : cacheItems) {
+            final int comparison
+                    = cacheItem.getParsedMavenVersion().compareTo(version);
+
+            switch (match) {
+                case CEILING:
+                    if (comparison >= 0) {
+                        return cacheItem;
+                    }
+
+                    break;
+                case EXACT:
+                    if (comparison == 0) {
+                        return cacheItem;
+                    }
+
+                    break;
+                case FLOOR:
+                    if (comparison <= 0 && (result == null
+                            || cacheItem.getParsedMavenVersion().compareTo(
+                                    result.getParsedMavenVersion()) > 0)) {
+                        result = cacheItem;
+                    }
+
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unsupported version match " + match);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Searches for cache item whose version is in the version range by
+     * linear scan.
+     *
+     * @param cacheItems cache items sorted by maven version
+     * @param range      requested version range
+     * @param highest    whether the highest version in the range is returned
+     *                   instead of the lowest one
+     *
+     * @return cache item or null if no version is in the range, for the same
+     *         maven version the first cache item is returned
+     */
+    static CacheItem findLinear(final List<CacheItem> cacheItems,
+            final VersionRange range, final boolean highest) {
+        CacheItem result = null;
+
+        for (final CacheItem cacheItem : cacheItems) {
+            if (!range.contains(cacheItem.getParsedMavenVersion())) {
+                continue;
+            } else if (!highest) {
+                return cacheItem;
+            } else if (result == null || cacheItem.getParsedMavenVersion().
+                    compareTo(result.getParsedMavenVersion()) > 0) {
+                result = cacheItem;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Cache items of artifacts.
+     */
+    private List<List<CacheItem>> artifacts;
+    /**
+     * Version indexes of the artifacts.
+     */
+    private List<VersionIndex> indexes;
+    /**
+     * Requested versions, every maven version of the sample cache.
+     */
+    private List<MavenVersion> versions;
+
+    /**
+     * Reads the sample cache and creates version indexes, like
+     * {@link MavenCache} keeps version indexes of requested artifacts.
+     */
+    @Setup
+    public void setUp() {
+        artifacts = readArtifacts(getSampleCache());
+        indexes = new ArrayList<>(artifacts.size());
+        versions = new ArrayList<>(10_000);
+
+        for (final List<CacheItem> cacheItems : artifacts) {
+            indexes.add(new VersionIndex(cacheItems));
+            cacheItems.forEach((cacheItem) -> versions.add(
+                    cacheItem.getParsedMavenVersion()));
+        }
+    }
+
+    /**
+     * Looks up the versions by linear scan.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void linear(final Blackhole blackhole) {
+        for (final List<CacheItem> cacheItems : artifacts) {
+            for (final MavenVersion version : versions) {
+                blackhole.consume(findLinear(cacheItems, version,
+                        VersionMatch.CEILING));
+            }
+        }
+    }
+
+    /**
+     * Looks up the versions in version indexes.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void index(final Blackhole blackhole) {
+        for (final VersionIndex index : indexes) {
+            for (final MavenVersion version : versions) {
+                blackhole.consume(index.find(version, VersionMatch.CEILING));
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.gentoo.java.ebuilder.maven;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.gentoo.java.ebuilder.portage.CacheItem;
+import org.gentoo.java.ebuilder.portage.MavenVersion;
+import org.gentoo.java.ebuilder.portage.VersionRange;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Tests of {@link VersionIndex}.
+ *
+ * @author fordfrog
+ */
+public class VersionIndexTest {
+
+    /**
+     * Binary search finds the same cache items as linear scan for every
+     * maven version of the sample cache in every artifact of the sample
+     * cache, including versions with numbers that do not fit into the sort
+     * key.
+     */
+    @Test
+    public void testSampleCacheParity() {
+        final List<List<CacheItem>> artifacts
+                = VersionIndexBenchmark.readArtifacts(
+                        VersionIndexBenchmark.getSampleCache());
+        final Set<String> versions = new LinkedHashSet<>(4_000);
+        artifacts.forEach((cacheItems) -> cacheItems.forEach(
+                (cacheItem) -> versions.add(cacheItem.getMavenVersion())));
+        versions.addAll(Arrays.asList("0", "0-alpha", "1.0-SNAPSHOT",
+                "2.1.2097151", "2.1.2097152", "2097152", "99999999",
+                "2147483647"));
+
+        for (final List<CacheItem> cacheItems : artifacts) {
+            final VersionIndex index = new VersionIndex(cacheItems);
+
+            for (final String version : versions) {
+                final MavenVersion mavenVersion = MavenVersion.of(version);
+
+                for (final VersionMatch match : VersionMatch.values()) {
+                    assertSame(version + ' ' + match,
+                            VersionIndexBenchmark.findLinear(cacheItems,
+                                    mavenVersion, match),
+                            index.find(mavenVersion, match));
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary search finds the same cache items as linear scan for ranges
+     * bounded by versions of the artifact.
+     */
+    @Test
+    public void testSampleCacheRangeParity() {
+        for (final List<CacheItem> cacheItems
+                : VersionIndexBenchmark.readArtifacts(
+                        VersionIndexBenchmark.getSampleCache())) {
+            final VersionIndex index = new VersionIndex(cacheItems);
+            final int step = Math.max(1, cacheItems.size() / 8);
+
+            for (int i = 0; i < cacheItems.size(); i += step) {
+                final String lower = cacheItems.get(i).getMavenVersion();
+                final String upper = cacheItems.get(Math.min(
+                        cacheItems.size() - 1, i + step)).getMavenVersion();
+
+                for (final String range : new String[]{
+                    '[' + lower + ',' + upper + ')',
+                    '(' + lower + ',' + upper + ']',
+                    '[' + lower + ',' + lower + ']',
+                    '[' + lower + ",)",
+                    "(," + lower + ')',
+                    "(," + lower + "],[" + upper + ",)"}) {
+                    final VersionRange versionRange = new VersionRange(range);
+
+                    for (final boolean highest : new boolean[]{false, true}) {
+                        assertSame(range + ' ' + highest,
+                                VersionIndexBenchmark.findLinear(cacheItems,
+                                        versionRange, highest),
+                                index.find(versionRange, highest));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * For the same maven version the first cache item is returned by every
+     * kind of match.
+     */
+    @Test
+    public void testTieBreaking() {
+        final CacheItem first = item("a", "1.0");
+        final CacheItem second = item("b", "1.0.0");
+        final CacheItem third = item("c", "1");
+        final CacheItem lower = item("d", "0.9");
+        final CacheItem lowerSecond = item("e", "0.9.0");
+        final CacheItem higher = item("f", "2.0");
+        final VersionIndex index = new VersionIndex(Arrays.asList(lower,
+                lowerSecond, first, second, third, higher));
+
+        for (final String version : new String[]{"1", "1.0", "1.0.0"}) {
+            for (final VersionMatch match : VersionMatch.values()) {
+                assertSame(version + ' ' + match, first,
+                        index.find(MavenVersion.of(version), match));
+            }
+        }
+
+        assertSame(first, index.find(MavenVersion.of("0.9.1"),
+                VersionMatch.CEILING));
+        assertSame(lower, index.find(MavenVersion.of("0.9.1"),
+                VersionMatch.FLOOR));
+        assertSame(first, index.find(MavenVersion.of("1.5"),
+                VersionMatch.FLOOR));
+        assertNull(index.find(MavenVersion.of("1.5"), VersionMatch.EXACT));
+        assertNull(index.find(MavenVersion.of("0.1"), VersionMatch.FLOOR));
+        assertNull(index.find(MavenVersion.of("3"), VersionMatch.CEILING));
+        assertSame(first, index.find(new VersionRange("[1,2)"), true));
+        assertSame(lower, index.find(new VersionRange("(,1)"), true));
+    }
+
+    /**
+     * Creates cache item of artifact org.a:a.
+     *
+     * @param pkg          portage package
+     * @param mavenVersion maven version
+     *
+     * @return cache item
+     */
+    private static CacheItem item(final String pkg,
+            final String mavenVersion) {
+        return new CacheItem("dev-java:" + pkg + ":1:0::org.a:a:"
+                + mavenVersion + ":java-pkg-2");
+    }
+}
@@ -0,0 +1,222 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link BinaryCache}.
+ *
+ * @author fordfrog
+ */
+public class BinaryCacheTest {
+
+    /**
+     * Cache lines in the order of text cache.
+     */
+    private static final List<String> LINES = Arrays.asList(
+            "dev-java:b:2.0:2::org.b:b:2.0:java-pkg-2",
+            "dev-java:a:1.1:0::org.a:a:1.10:java-pkg-2,java-pkg-simple",
+            "dev-java:a:1.0:0::org.a:a:1.9-rc1:java-pkg-2,java-pkg-simple",
+            "dev-java:a-bin:1.0:0::org.a:a:1.9-rc1:java-pkg-2",
+            "dev-java:z:1.0:0:java:org.a:z:v3b4:java-pkg-opt-2",
+            "dev-java:n:1.0:0:::::java-pkg-2",
+            "dev-java:é:1.0:0::org.é:ké:2147483647.1:java-pkg-2",
+            "dev-java:m:1.0:0::org.b:m:1.0:");
+    /**
+     * Temporary folder for cache files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * All cache items are read back with the same fields and parsed maven
+     * versions, sorted by group id, artifact id and maven version with items
+     * without group id at the end.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final List<CacheItem> cacheItems = getCacheItems();
+        final Path path = folder.newFile().toPath();
+        BinaryCache.write(path, cacheItems);
+
+        assertTrue(BinaryCache.isBinaryCache(path));
+
+        final List<CacheItem> expected = new ArrayList<>(cacheItems);
+        expected.sort(Comparator.comparing(CacheItem::getGroupId,
+                Comparator.nullsLast(Comparator.naturalOrder())).
+                thenComparing(CacheItem::getArtifactId,
+                        Comparator.nullsLast(Comparator.naturalOrder())).
+                thenComparing(CacheItem::getParsedMavenVersion,
+                        Comparator.nullsLast(Comparator.naturalOrder())));
+
+        final List<CacheItem> actual = new BinaryCache(path).readCacheItems();
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameItem(expected.get(i), actual.get(i));
+            assertSameVersion(expected.get(i).getParsedMavenVersion(),
+                    actual.get(i).getParsedMavenVersion());
+        }
+    }
+
+    /**
+     * Lookups of artifacts decode only records of the artifact, for the same
+     * maven version the item that is earlier in the text cache is first.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testLookup() throws IOException {
+        final Path path = folder.newFile().toPath();
+        BinaryCache.write(path, getCacheItems());
+
+        final BinaryCache binaryCache = new BinaryCache(path);
+        final List<CacheItem> versions
+                = binaryCache.getCacheItems("org.a", "a");
+
+        assertEquals(3, versions.size());
+        assertEquals("1.9-rc1", versions.get(0).getMavenVersion());
+        assertEquals("a", versions.get(0).getPkg());
+        assertEquals("a-bin", versions.get(1).getPkg());
+        assertEquals("1.10", versions.get(2).getMavenVersion());
+        assertEquals("java", binaryCache.getCacheItems("org.a", "z").get(0).
+                getUseFlag());
+        assertTrue(binaryCache.containsGroupId("org.é"));
+        assertFalse(binaryCache.containsGroupId("org.c"));
+        assertTrue(binaryCache.getCacheItems("org.a", "b").isEmpty());
+        assertTrue(binaryCache.getCacheItems("org.c", "a").isEmpty());
+    }
+
+    /**
+     * Group ids are found by comparing the string table in place in the
+     * order of {@link String#compareTo(java.lang.String)}, including
+     * prefixes, multi-byte characters and supplementary characters that sort
+     * before the highest characters of basic plane in UTF-16.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testFindString() throws IOException {
+        final List<String> groupIds = Arrays.asList("o", "org", "org.a",
+                "org.ab", "org.é", "org.\u00ff", "org.\u0800",
+                "org.\uffe0", "org.\ud83d\ude00", "org.\ud83d\ude00x");
+        final List<CacheItem> cacheItems = new ArrayList<>(groupIds.size());
+
+        for (final String groupId : groupIds) {
+            cacheItems.add(new CacheItem("dev-java:a:1.0:0::" + groupId
+                    + ":a:1.0:java-pkg-2"));
+        }
+
+        final Path path = folder.newFile().toPath();
+        BinaryCache.write(path, cacheItems);
+
+        final BinaryCache binaryCache = new BinaryCache(path);
+
+        for (final String groupId : groupIds) {
+            assertTrue(groupId, binaryCache.containsGroupId(groupId));
+            assertFalse(groupId, binaryCache.containsGroupId(groupId + 'a'));
+            assertFalse(groupId, binaryCache.containsGroupId(
+                    groupId.substring(0, groupId.length() - 1) + '\uffff'));
+        }
+
+        assertFalse(binaryCache.containsGroupId(""));
+        assertFalse(binaryCache.containsGroupId("org.\ud83d"));
+        assertFalse(binaryCache.containsGroupId("org.\uffef"));
+    }
+
+    /**
+     * Text cache and truncated binary cache are not read as binary cache.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testInvalid() throws IOException {
+        final Path text = folder.newFile().toPath();
+        Files.write(text, ("1.1\n" + String.join("\n", LINES)).getBytes(
+                StandardCharsets.UTF_8));
+        assertFalse(BinaryCache.isBinaryCache(text));
+
+        final Path path = folder.newFile().toPath();
+        BinaryCache.write(path, getCacheItems());
+
+        final byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 4));
+
+        try {
+            new BinaryCache(path);
+            fail("Truncated cache was accepted");
+        } catch (final RuntimeException ex) {
+            assertTrue(ex.getMessage().contains("truncated"));
+        }
+    }
+
+    /**
+     * Returns cache items of {@link #LINES}.
+     *
+     * @return cache items
+     */
+    private static List<CacheItem> getCacheItems() {
+        final List<CacheItem> result = new ArrayList<>(LINES.size());
+        LINES.forEach((line) -> result.add(new CacheItem(line)));
+
+        return result;
+    }
+
+    /**
+     * Asserts that parsed maven versions are the same.
+     *
+     * @param expected expected version or null
+     * @param actual   actual version or null
+     */
+    private static void assertSameVersion(final MavenVersion expected,
+            final MavenVersion actual) {
+        if (expected == null) {
+            assertNull(actual);
+
+            return;
+        }
+
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getMajorVersion(), actual.getMajorVersion());
+        assertEquals(expected.getMinorVersion(), actual.getMinorVersion());
+        assertEquals(expected.getIncrementalVersion(),
+                actual.getIncrementalVersion());
+        assertEquals(expected.getQualifier(), actual.getQualifier());
+        assertEquals(0, expected.compareTo(actual));
+    }
+
+    /**
+     * Asserts that fields of the cache items are the same.
+     *
+     * @param expected expected cache item
+     * @param actual   actual cache item
+     */
+    static void assertSameItem(final CacheItem expected,
+            final CacheItem actual) {
+        assertEquals(expected.getCategory(), actual.getCategory());
+        assertEquals(expected.getPkg(), actual.getPkg());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getSlot(), actual.getSlot());
+        assertEquals(expected.getUseFlag(), actual.getUseFlag());
+        assertEquals(expected.getGroupId(), actual.getGroupId());
+        assertEquals(expected.getArtifactId(), actual.getArtifactId());
+        assertEquals(expected.getMavenVersion(), actual.getMavenVersion());
+        assertEquals(expected.getJavaEclasses(), actual.getJavaEclasses());
+    }
+}
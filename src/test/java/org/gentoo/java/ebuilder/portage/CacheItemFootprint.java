@@ -0,0 +1,195 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures heap footprint of cache items. Cache items with shared strings
+ * and eclasses lists are compared with items that keep every field as it was
+ * split from the cache line, like cache items did originally. Run it with:
+ * <pre>
+ * mvn test-compile
+ * java -Xmx1g -cp target/classes:target/test-classes \
+ *     org.gentoo.java.ebuilder.portage.CacheItemFootprint
+ * </pre>
+ *
+ * @author fordfrog
+ */
+public class CacheItemFootprint {
+
+    /**
+     * Number of cache lines, roughly the size of the cache of the gentoo
+     * tree.
+     */
+    private static final int LINES = 40_000;
+
+    /**
+     * Creates synthetic cache lines. Values of category, slot, USE flag,
+     * group id and eclasses repeat like in the cache of the gentoo tree.
+     *
+     * @param count number of lines
+     *
+     * @return list of cache lines
+     */
+    static List<String> createLines(final int count) {
+        final List<String> result = new ArrayList<>(count);
+        final String[] eclasses = {"java-pkg-2", "java-pkg-2,java-ant-2",
+            "java-pkg-2,java-pkg-simple", "java-pkg-opt-2"};
+
+        for (int i = 0; i < count; i++) {
+            final int pkg = i / 4;
+            final int version = i % 4;
+            result.add("dev-java" + pkg % 150 + ":pkg" + pkg + ":1." + version
+                    + ":" + version % 3 + ":" + (i % 10 == 0 ? "java" : "")
+                    + ":org.group" + pkg % 3_000 + ":artifact" + i + ":1."
+                    + version + ".0:" + eclasses[i % eclasses.length]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Measures retained heap of cache items.
+     *
+     * @param args not used
+     */
+    public static void main(final String[] args) {
+        final List<String> lines = createLines(LINES);
+
+        final long legacyBytes = measure(() -> {
+            final List<Object> items = new ArrayList<>(LINES);
+            lines.forEach((line) -> items.add(new LegacyItem(
+                    new String(line.toCharArray()))));
+
+            return items;
+        });
+        final long bytes = measure(() -> {
+            final List<Object> items = new ArrayList<>(LINES);
+            lines.forEach((line) -> items.add(new CacheItem(
+                    new String(line.toCharArray()))));
+
+            return items;
+        });
+
+        System.out.println("original cache items: " + legacyBytes / LINES
+                + " B/item");
+        System.out.println("shared fields cache items: " + bytes / LINES
+                + " B/item");
+    }
+
+    /**
+     * Measures retained heap of objects created by the factory.
+     *
+     * @param factory factory of objects
+     *
+     * @return number of retained bytes
+     */
+    private static long measure(final Factory factory) {
+        final long before = getUsedMemory();
+        final List<Object> items = factory.create();
+        final long after = getUsedMemory();
+
+        if (items.isEmpty()) {
+            throw new IllegalStateException("No items created");
+        }
+
+        return after - before;
+    }
+
+    /**
+     * Returns used heap memory after garbage collection.
+     *
+     * @return used memory in bytes
+     */
+    private static long getUsedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Factory of measured objects.
+     */
+    private interface Factory {
+
+        /**
+         * Creates objects.
+         *
+         * @return list of objects
+         */
+        List<Object> create();
+    }
+
+    /**
+     * Cache item with fields split from the cache line, like cache items
+     * were created originally.
+     */
+    private static class LegacyItem {
+
+        /**
+         * Maven artifact id.
+         */
+        private final String artifactId;
+        /**
+         * Portage category.
+         */
+        private final String category;
+        /**
+         * Maven group id.
+         */
+        private final String groupId;
+        /**
+         * Java eclasses.
+         */
+        private final List<String> javaEclasses;
+        /**
+         * Maven version.
+         */
+        private final String mavenVersion;
+        /**
+         * Portage package.
+         */
+        private final String pkg;
+        /**
+         * Portage ebuild slot.
+         */
+        private final String slot;
+        /**
+         * Portage USE flag.
+         */
+        private final String useFlag;
+        /**
+         * Portage ebuild version.
+         */
+        private final String version;
+
+        /**
+         * Creates new instance of LegacyItem.
+         *
+         * @param line cache line
+         */
+        LegacyItem(final String line) {
+            final String[] parts = line.split(":");
+            category = parts[0];
+            pkg = parts[1];
+            version = parts[2];
+            slot = parts[3];
+            useFlag = parts[4].isEmpty() ? null : parts[4];
+            groupId = parts[5];
+            artifactId = parts[6];
+            mavenVersion = parts[7];
+            javaEclasses = Arrays.asList(parts[8].split(","));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.gentoo.java.ebuilder.portage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CacheItem}.
+ *
+ * @author fordfrog
+ */
+public class CacheItemTest {
+
+    /**
+     * Category, slot, USE flag, group id and eclasses are shared between
+     * cache items, other fields are not.
+     */
+    @Test
+    public void testSharedFields() {
+        final CacheItem first = new CacheItem(new String(
+                "dev-java:a:1.0:2:java:org.a:a:1.0:java-pkg-2,java-ant-2"));
+        final CacheItem second = new CacheItem(new String(
+                "dev-java:b:1.0:2:java:org.a:b:1.0:java-pkg-2,java-ant-2"));
+
+        assertSame(first.getCategory(), second.getCategory());
+        assertSame(first.getSlot(), second.getSlot());
+        assertSame(first.getUseFlag(), second.getUseFlag());
+        assertSame(first.getGroupId(), second.getGroupId());
+        assertSame(first.getJavaEclasses(), second.getJavaEclasses());
+        assertEquals(first.getVersion(), second.getVersion());
+        assertEquals("a", first.getArtifactId());
+    }
+
+    /**
+     * Empty optional fields are null.
+     */
+    @Test
+    public void testEmptyFields() {
+        final CacheItem cacheItem = new CacheItem("dev-java:a:1.0:0");
+
+        assertEquals("0", cacheItem.getSlot());
+        assertNull(cacheItem.getUseFlag());
+        assertNull(cacheItem.getGroupId());
+        assertNull(cacheItem.getJavaEclasses());
+    }
+}
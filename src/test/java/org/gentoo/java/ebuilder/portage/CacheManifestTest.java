@@ -0,0 +1,124 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link CacheManifest}.
+ *
+ * @author fordfrog
+ */
+public class CacheManifestTest {
+
+    /**
+     * Package path.
+     */
+    private static final String PKG = "/tree/dev-java/a";
+    /**
+     * Temporary folder for manifest files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Manifest is loaded only in the scan mode it was written with.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testMode() throws IOException {
+        final String mode = CacheManifest.getMode(true);
+        final Path path = writeManifest(mode);
+
+        final ScanResult result = CacheManifest.load(path, mode).get(PKG, "1f");
+        assertNotNull(result);
+        assertEquals(1, result.getCacheItems().size());
+        assertEquals(2, result.getProcessedEbuilds());
+
+        assertNull(CacheManifest.load(path, CacheManifest.getMode(false)).
+                get(PKG, "1f"));
+    }
+
+    /**
+     * Changed stamp of package invalidates only the package.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testStamp() throws IOException {
+        final String mode = CacheManifest.getMode(false);
+        final CacheManifest manifest
+                = CacheManifest.load(writeManifest(mode), mode);
+
+        assertNull(manifest.get(PKG, "2f"));
+        assertNull(manifest.get("/tree/dev-java/b", "1f"));
+    }
+
+    /**
+     * Package stamp is the same as the original stamp so that manifests of
+     * previous versions stay valid, and stamps computed together with tree
+     * stamp are the same as stamps of single packages.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testStampHash() throws IOException {
+        final Path tree = folder.newFolder().toPath();
+        TreeWalkBenchmark.createTree(tree, 2, 3, 2);
+        // ebuild without md5-cache entry
+        Files.write(tree.resolve("cat-0").resolve("pkg0").
+                resolve("pkg0-2.ebuild"), new byte[5]);
+        // ebuild that is not a file
+        Files.createDirectory(tree.resolve("cat-1").resolve("pkg1").
+                resolve("pkg1-2.ebuild"));
+
+        final Map<String, String> packageStamps = new HashMap<>(10);
+        CacheShards.getStamp(tree, packageStamps);
+        assertEquals(6, packageStamps.size());
+
+        for (final Path category : PortageParser.listCategories(tree)) {
+            for (final Path pkg : PortageParser.listPackages(category)) {
+                assertEquals(TreeWalkBenchmark.getLegacyStampHash(pkg),
+                        CacheManifest.getStampHash(pkg));
+                assertEquals(CacheManifest.getStamp(pkg),
+                        packageStamps.get(pkg.toString()));
+            }
+        }
+
+        assertEquals(0, CacheManifest.getStampHash(
+                tree.resolve("cat-0").resolve("missing")));
+    }
+
+    /**
+     * Writes manifest with single package.
+     *
+     * @param mode scan mode
+     *
+     * @return manifest path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private Path writeManifest(final String mode) throws IOException {
+        final ScanResult result = new ScanResult(1);
+        result.addCacheItem(new CacheItem(
+                "dev-java:a:1.0:0::org.a:a:1.0:java-pkg-2"));
+        result.addProcessedEbuilds(2);
+
+        final CacheManifest manifest = new CacheManifest(mode);
+        manifest.put(PKG, "1f", result);
+
+        final Path path = folder.newFile().toPath();
+        manifest.write(path);
+
+        return path;
+    }
+}
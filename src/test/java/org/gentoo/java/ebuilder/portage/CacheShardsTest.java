@@ -0,0 +1,115 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link CacheShards}.
+ *
+ * @author fordfrog
+ */
+public class CacheShardsTest {
+
+    /**
+     * Temporary folder for portage trees.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Stamp of git checkout is computed from HEAD commit without visiting
+     * packages and it changes when a file changes in the working tree or
+     * md5-cache is regenerated.
+     *
+     * @throws IOException          Thrown if I/O problem occurred.
+     * @throws InterruptedException Thrown if the thread was interrupted.
+     */
+    @Test
+    public void testGitStamp() throws IOException, InterruptedException {
+        final Path tree = folder.newFolder().toPath();
+        TreeWalkBenchmark.createTree(tree, 2, 2, 2);
+        Files.write(tree.resolve(".gitignore"),
+                "/metadata/md5-cache\n".getBytes(StandardCharsets.UTF_8));
+        assumeTrue(git(tree, "init", "-q")
+                && git(tree, "add", "-A")
+                && git(tree, "-c", "user.name=test", "-c",
+                        "user.email=test@localhost", "commit", "-q", "-m",
+                        "tree"));
+
+        final Map<String, String> packageStamps = new HashMap<>(10);
+        final String stamp = CacheShards.getStamp(tree, packageStamps);
+        final String head = GitTree.getHead(tree);
+        assertTrue(stamp, stamp.startsWith("git-" + head + '-'));
+        assertTrue(packageStamps.isEmpty());
+        assertEquals(stamp, CacheShards.getStamp(tree, packageStamps));
+
+        Files.write(tree.resolve("cat-0").resolve("pkg0").
+                resolve("pkg0-1.0.ebuild"), new byte[101]);
+        final String changedStamp = CacheShards.getStamp(tree, packageStamps);
+        assertNotEquals(stamp, changedStamp);
+
+        final Path md5Cache = tree.resolve("metadata").resolve("md5-cache").
+                resolve("cat-1");
+        Files.setLastModifiedTime(md5Cache, FileTime.fromMillis(
+                Files.getLastModifiedTime(md5Cache).toMillis() + 1_000));
+        assertNotEquals(changedStamp,
+                CacheShards.getStamp(tree, packageStamps));
+        assertTrue(packageStamps.isEmpty());
+    }
+
+    /**
+     * Stamp of tree that is not a git checkout is computed from stamps of
+     * its packages.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testPackageStamp() throws IOException {
+        final Path tree = folder.newFolder().toPath();
+        TreeWalkBenchmark.createTree(tree, 2, 2, 2);
+
+        final Map<String, String> packageStamps = new HashMap<>(10);
+        assertFalse(CacheShards.getStamp(tree, packageStamps).
+                startsWith("git-"));
+        assertEquals(4, packageStamps.size());
+    }
+
+    /**
+     * Runs git command in the tree.
+     *
+     * @param tree      tree path
+     * @param arguments git arguments
+     *
+     * @return whether the command succeeded
+     *
+     * @throws InterruptedException Thrown if the thread was interrupted.
+     */
+    private static boolean git(final Path tree, final String... arguments)
+            throws InterruptedException {
+        final String[] command = new String[arguments.length + 3];
+        command[0] = "git";
+        command[1] = "-C";
+        command[2] = tree.toString();
+        System.arraycopy(arguments, 0, command, 3, arguments.length);
+
+        try {
+            return new ProcessBuilder(command).inheritIO().start().waitFor()
+                    == 0;
+        } catch (final IOException ex) {
+            return false;
+        }
+    }
+}
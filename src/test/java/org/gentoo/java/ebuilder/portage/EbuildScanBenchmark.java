@@ -0,0 +1,278 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of ebuild parsing. The original line parser based on
+ * {@link BufferedReader} and regular expressions is compared with
+ * {@link EbuildScanner} on synthetic ebuilds, most of which are not java
+ * ebuilds like in the portage tree. Run it with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     org.openjdk.jmh.Main EbuildScanBenchmark
+ * </pre>
+ *
+ * @author fordfrog
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EbuildScanBenchmark {
+
+    /**
+     * Pattern for checking whether the line contains variable declaration,
+     * from the original parser.
+     */
+    private static final Pattern PATTERN_VARIABLE = Pattern.compile(
+            "^(\\S+?)=(.*)$");
+
+    /**
+     * Creates synthetic ebuilds. Every tenth ebuild is java ebuild.
+     *
+     * @param count number of ebuilds
+     *
+     * @return list of ebuild contents
+     */
+    static List<byte[]> createEbuilds(final int count) {
+        final List<byte[]> result = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final StringBuilder sbEbuild = new StringBuilder(2_000);
+            sbEbuild.append("# Copyright 1999-2024 Gentoo Authors\n").
+                    append("# Distributed under the terms of the GNU General ").
+                    append("Public License v2\n\n").
+                    append("EAPI=8\n\n");
+
+            if (i % 10 == 0) {
+                sbEbuild.append("JAVA_PKG_IUSE=\"doc source test\"\n").
+                        append("MAVEN_ID=\"org.example:pkg").append(i).
+                        append(":${PV}\"\n");
+
+                if (i % 20 == 0) {
+                    sbEbuild.append("MAVEN_PROVIDES=\"\n").
+                            append("\torg.example:extra").append(i).
+                            append(":${PV}\n").
+                            append("\torg.example:more").append(i).
+                            append(":${PV}\n\"\n");
+                }
+
+                sbEbuild.append("\ninherit java-pkg-2 java-pkg-simple\n\n");
+            } else {
+                sbEbuild.append("PYTHON_COMPAT=( python3_{10..12} )\n\n").
+                        append("inherit cmake python-single-r1 xdg\n\n");
+            }
+
+            sbEbuild.append("DESCRIPTION=\"Synthetic package number ").
+                    append(i).append(" # not a comment in bash\"\n").
+                    append("HOMEPAGE=\"https://example.org/pkg").append(i).
+                    append("\"\n").
+                    append("SRC_URI=\"https://example.org/pkg-${PV}.tar.gz\"\n").
+                    append("S=\"${WORKDIR}/${P}\"\n\n").
+                    append("LICENSE=\"Apache-2.0\"\n").
+                    append("SLOT=\"").append(i % 3).append("\"\n").
+                    append("KEYWORDS=\"~amd64 ~arm64 ~ppc64 ~x86\"\n").
+                    append("IUSE=\"doc test\"\n").
+                    append("RESTRICT=\"!test? ( test )\"\n\n").
+                    append("DEPEND=\"\n\tdev-libs/foo:=\n\t>=dev-libs/bar-1.2\n").
+                    append("\ttest? ( dev-util/baz )\n\"\n").
+                    append("RDEPEND=\"${DEPEND}\"\n\n");
+
+            for (int f = 0; f < 4; f++) {
+                sbEbuild.append("src_phase").append(f).append("() {\n").
+                        append("\tlocal args=(\n\t\t-DFOO=ON\n").
+                        append("\t\t-DBAR=$(usex test)\n\t)\n").
+                        append("\tcmake_src_configure \"${args[@]}\"\n").
+                        append("\tif use doc; then\n").
+                        append("\t\tdodoc README.md # documentation\n").
+                        append("\tfi\n}\n\n");
+            }
+
+            result.add(sbEbuild.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses ebuild with the original line parser.
+     *
+     * @param content ebuild contents
+     *
+     * @return java eclasses, SLOT, JAVA_PKG_OPT_USE, MAVEN_ID and
+     *         MAVEN_PROVIDES of java ebuild, null if it is not java ebuild
+     */
+    static List<String> parseBaseline(final byte[] content) {
+        List<String> eclasses = null;
+        String slot = "0";
+        String useFlag = null;
+        String mavenId = null;
+        final List<String> mavenProvide = new ArrayList<>();
+        boolean readingMultiLineMavenProvide = false;
+
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(content),
+                        StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+
+            while (line != null) {
+                line = line.trim();
+
+                if (!line.isEmpty()) {
+                    final int pos = line.indexOf('#');
+
+                    if (pos != -1) {
+                        line = line.substring(0, pos).trim();
+                    }
+                }
+
+                if (!line.isEmpty()) {
+                    if (readingMultiLineMavenProvide) {
+                        if (!line.startsWith("\"")) {
+                            mavenProvide.add(line.replace("\"", ""));
+                        }
+                        if (line.contains("\"")) {
+                            readingMultiLineMavenProvide = false;
+                        }
+                    } else {
+                        final Matcher matcher = PATTERN_VARIABLE.matcher(line);
+
+                        if (matcher.matches()) {
+                            matcher.group(2).replaceAll("(^\"|\"$)", "");
+                        }
+
+                        if (line.startsWith("inherit ")) {
+                            eclasses = Arrays.stream(line.replaceAll(
+                                    "^inherit\\s+", "").split("\\s+")).
+                                    filter((eclass) -> eclass.startsWith(
+                                    "java-") || "ant-tasks".equals(eclass)).
+                                    collect(Collectors.toList());
+
+                            if (eclasses.isEmpty()) {
+                                return null;
+                            }
+                        } else if (line.startsWith("SLOT=")) {
+                            slot = line.substring("SLOT=".length()).replace(
+                                    "\"", "").replaceAll("/.*", "");
+                        } else if (line.startsWith("JAVA_PKG_OPT_USE=")) {
+                            useFlag = line.substring(
+                                    "JAVA_PKG_OPT_USE=".length()).
+                                    replace("\"", "");
+                        } else if (line.startsWith("MAVEN_ID=")) {
+                            mavenId = line.substring("MAVEN_ID=".length()).
+                                    replace("\"", "");
+                        } else if (line.startsWith("MAVEN_PROVIDES=")) {
+                            final boolean atMostOneDoubleQuote
+                                    = line.indexOf('"') == line.lastIndexOf('"');
+                            line = line.substring("MAVEN_PROVIDES=".length());
+
+                            if (!atMostOneDoubleQuote || !line.endsWith("\"")) {
+                                mavenProvide.addAll(Arrays.asList(
+                                        line.replace("\"", "").split(" ")));
+                            }
+
+                            if (atMostOneDoubleQuote && line.contains("\"")) {
+                                readingMultiLineMavenProvide = true;
+                            }
+                        }
+                    }
+                }
+
+                line = reader.readLine();
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read ebuild", ex);
+        }
+
+        if (eclasses == null) {
+            return null;
+        }
+
+        return Arrays.asList(String.join(",", eclasses), slot, useFlag,
+                mavenId, String.join(" ", mavenProvide));
+    }
+
+    /**
+     * Parses ebuild with {@link EbuildScanner} the same way as
+     * {@link PortageParser} does without md5-cache.
+     *
+     * @param content ebuild contents
+     *
+     * @return java eclasses, SLOT, JAVA_PKG_OPT_USE, MAVEN_ID and
+     *         MAVEN_PROVIDES of java ebuild, null if it is not java ebuild
+     */
+    static List<String> scan(final byte[] content) {
+        if (!EbuildScanner.hasJavaInherit(content)) {
+            return null;
+        }
+
+        final EbuildScanner scanner = new EbuildScanner(content);
+
+        if (scanner.getJavaEclasses().isEmpty()) {
+            return null;
+        }
+
+        final String slot = scanner.getSlot() == null ? "0" : scanner.getSlot();
+
+        return Arrays.asList(String.join(",", scanner.getJavaEclasses()),
+                slot.replaceAll("/.*", ""), scanner.getJavaPkgOptUse(),
+                scanner.getMavenId(),
+                String.join(" ", scanner.getMavenProvides()));
+    }
+
+    /**
+     * Synthetic ebuilds.
+     */
+    private List<byte[]> ebuilds;
+
+    /**
+     * Creates synthetic ebuilds.
+     */
+    @Setup
+    public void setUp() {
+        ebuilds = createEbuilds(1_000);
+    }
+
+    /**
+     * Parses the ebuilds with the original line parser.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void baseline(final Blackhole blackhole) {
+        for (final byte[] ebuild : ebuilds) {
+            blackhole.consume(parseBaseline(ebuild));
+        }
+    }
+
+    /**
+     * Parses the ebuilds with {@link EbuildScanner}.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void scanner(final Blackhole blackhole) {
+        for (final byte[] ebuild : ebuilds) {
+            blackhole.consume(scan(ebuild));
+        }
+    }
+}
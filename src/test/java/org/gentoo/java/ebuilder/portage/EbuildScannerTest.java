@@ -0,0 +1,125 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of {@link EbuildScanner}.
+ *
+ * @author fordfrog
+ */
+public class EbuildScannerTest {
+
+    /**
+     * Converts ebuild contents to bytes.
+     *
+     * @param content ebuild contents
+     *
+     * @return ebuild contents as bytes
+     */
+    private static byte[] bytes(final String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Pre-filter accepts every form of inherit command the scanner accepts.
+     */
+    @Test
+    public void testHasJavaInherit() {
+        for (final String content : new String[]{
+            "inherit java-pkg-2\n",
+            "\tinherit\tjava-pkg-2\n",
+            "EAPI=8\ninherit java-pkg-opt-2 \\\n\tjava-ant-2\n",
+            "FOO=bar; inherit java-pkg-2\n",
+            "FOO=bar BAR=\"a b\"; inherit ant-tasks\n",
+            "FOO=bar inherit java-pkg-2",
+            "FOO=\"a\nb\"; inherit java-pkg-2\n"
+        }) {
+            final byte[] ebuild = bytes(content);
+
+            assertEquals(content, false,
+                    new EbuildScanner(ebuild).getJavaEclasses().isEmpty());
+            assertTrue(content, EbuildScanner.hasJavaInherit(ebuild));
+        }
+
+        for (final String content : new String[]{
+            "",
+            "inherit cmake\n",
+            "inherit cmake # java-pkg-2\n",
+            "inherit cmake; java-pkg-2\n",
+            "reinherit java-pkg-2\n",
+            "inherit\n"
+        }) {
+            assertFalse(content, EbuildScanner.hasJavaInherit(bytes(content)));
+        }
+    }
+
+    /**
+     * Java eclasses are taken from the last inherit command and inherit
+     * command without java eclass rejects the ebuild.
+     */
+    @Test
+    public void testInherit() {
+        assertEquals(Collections.emptyList(), new EbuildScanner(bytes(
+                "inherit java-pkg-2\ninherit git-r3\n")).getJavaEclasses());
+        assertEquals(Collections.emptyList(), new EbuildScanner(bytes(
+                "inherit git-r3\ninherit java-pkg-2\n")).getJavaEclasses());
+        assertEquals(Arrays.asList("java-pkg-simple"), new EbuildScanner(
+                bytes("inherit java-pkg-2\ninherit java-pkg-simple\n")).
+                getJavaEclasses());
+        assertEquals(Arrays.asList("java-pkg-2", "java-ant-2"),
+                new EbuildScanner(bytes("inherit java-pkg-2 java-ant-2 "
+                        + "# java-utils-2\n")).getJavaEclasses());
+    }
+
+    /**
+     * '#' starts comment even inside quotes.
+     */
+    @Test
+    public void testComments() {
+        EbuildScanner scanner = new EbuildScanner(bytes(
+                "SLOT=\"1#x\"\nMAVEN_ID=\"org.a:a # c\"\n"
+                + "JAVA_PKG_OPT_USE=java#x\n"));
+        assertEquals("1", scanner.getSlot());
+        assertEquals("org.a:a", scanner.getMavenId());
+        assertEquals("java", scanner.getJavaPkgOptUse());
+
+        scanner = new EbuildScanner(bytes("MAVEN_PROVIDES=\"org.a:b:1 # c\n"
+                + "\torg.a:c:1\n\"\nSLOT='2' # comment\n"));
+        assertEquals(Arrays.asList("org.a:b:1", "org.a:c:1"),
+                scanner.getMavenProvides());
+        assertEquals("2", scanner.getSlot());
+    }
+
+    /**
+     * Scanner produces the same results as the original line parser.
+     */
+    @Test
+    public void testBaselineParity() {
+        for (final byte[] ebuild : EbuildScanBenchmark.createEbuilds(200)) {
+            assertEquals(EbuildScanBenchmark.parseBaseline(ebuild),
+                    EbuildScanBenchmark.scan(ebuild));
+        }
+
+        for (final String content : new String[]{
+            "inherit java-pkg-2\nSLOT=\"1/2\"\n",
+            "inherit java-pkg-opt-2\nJAVA_PKG_OPT_USE=\"jdk\"\n",
+            "inherit java-pkg-2\ninherit cmake\n",
+            "SLOT=\"3#x\"\ninherit java-pkg-2\n",
+            "MAVEN_ID=\"org.a:a:1\" # id\ninherit java-pkg-2\n",
+            "MAVEN_PROVIDES=\"org.a:b:1 org.a:c:1\"\ninherit java-pkg-2\n",
+            "MAVEN_PROVIDES=\"\n\torg.a:b:1 # b\n\torg.a:c:1\n\"\n"
+            + "inherit java-pkg-2\n"
+        }) {
+            final byte[] ebuild = bytes(content);
+
+            assertEquals(content, EbuildScanBenchmark.parseBaseline(ebuild),
+                    EbuildScanBenchmark.scan(ebuild));
+        }
+    }
+}
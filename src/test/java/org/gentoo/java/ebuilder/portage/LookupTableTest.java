@@ -0,0 +1,287 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.gentoo.java.ebuilder.Config;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link LookupTable}.
+ *
+ * @author fordfrog
+ */
+public class LookupTableTest {
+
+    /**
+     * Lookup table with single and multiple maven ids, empty list of maven
+     * ids and escapes in strings.
+     */
+    private static final String LUT = "{\n"
+            + "  \"dev-java\": {\n"
+            + "    \"commons-lang\": {\"2.1\": [[\"commons-lang\", "
+            + "\"commons-lang\"]]},\n"
+            + "    \"jakarta-activation-api\": {\n"
+            + "      \"1\": [[\"jakarta.activation\", "
+            + "\"jakarta.activation-api\"],\n"
+            + "        [\"javax.activation\", \"javax.activation-api\"]],\n"
+            + "      \"2\": [[\"jakarta.activation\", "
+            + "\"jakarta.activation-api\"]]\n"
+            + "    },\n"
+            + "    \"e\\u0073c\": {\"0\": [[\"org.\\\"q\\\"\", "
+            + "\"a\\/b\\\\c\"]]}\n"
+            + "  },\n"
+            + "  \"java-virtuals\": {\"servlet-api\": {\"4.0\": []}}\n"
+            + "}\n";
+    /**
+     * Temporary folder for lookup tables and portage trees.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Entries are indexed by category, package and slot.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testRead() throws IOException {
+        final LookupTable lut = LookupTable.read(writeLut(LUT));
+
+        assertMavenIds(lut.getMavenIds("dev-java", "commons-lang", "2.1"),
+                "commons-lang:commons-lang");
+        assertMavenIds(lut.getMavenIds("dev-java", "jakarta-activation-api",
+                "1"), "jakarta.activation:jakarta.activation-api",
+                "javax.activation:javax.activation-api");
+        assertMavenIds(lut.getMavenIds("dev-java", "jakarta-activation-api",
+                "2"), "jakarta.activation:jakarta.activation-api");
+        assertMavenIds(lut.getMavenIds("dev-java", "esc", "0"),
+                "org.\"q\":a/b\\c");
+        assertMavenIds(lut.getMavenIds("java-virtuals", "servlet-api",
+                "4.0"));
+        assertMavenIds(lut.getMavenIds("dev-java", "commons-lang", "2"));
+        assertMavenIds(lut.getMavenIds("dev-java", "commons", "2.1"));
+        assertMavenIds(lut.getMavenIds("java-virtuals", "commons-lang",
+                "2.1"));
+
+        assertEquals(lut.getStamp(), LookupTable.read(writeLut(LUT)).
+                getStamp());
+        assertNotEquals(lut.getStamp(), LookupTable.read(writeLut(
+                LUT.replace("2.1", "2.2"))).getStamp());
+    }
+
+    /**
+     * Cache item without group id is replaced with one cache item for every
+     * maven id of the package, items with group id are kept and items that
+     * are not in the table are left out.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testApply() throws IOException {
+        final LookupTable lut = LookupTable.read(writeLut(LUT));
+        final CacheItem withGroupId = new CacheItem(
+                "dev-java:commons-lang:2.6:2.1::org.x:y:2.6:java-pkg-2");
+        final List<CacheItem> applied = lut.apply(Arrays.asList(
+                new CacheItem("dev-java:jakarta-activation-api:1.2.2:1:"
+                        + "test::::java-pkg-2,java-pkg-simple"),
+                withGroupId,
+                new CacheItem("dev-java:commons-lang:2.6:2.1:::::"
+                        + "java-pkg-2"),
+                new CacheItem("dev-java:unknown:1.0:0:::::java-pkg-2"),
+                new CacheItem("java-virtuals:servlet-api:4.0:4.0:::::")));
+
+        assertEquals(4, applied.size());
+        assertEquals("dev-java:jakarta-activation-api:1.2.2:1:test:"
+                + "jakarta.activation:jakarta.activation-api:1.2.2:"
+                + "java-pkg-2,java-pkg-simple",
+                toLine(applied.get(0)));
+        assertEquals("dev-java:jakarta-activation-api:1.2.2:1:test:"
+                + "javax.activation:javax.activation-api:1.2.2:"
+                + "java-pkg-2,java-pkg-simple",
+                toLine(applied.get(1)));
+        assertSame(withGroupId, applied.get(2));
+        assertEquals("dev-java:commons-lang:2.6:2.1::commons-lang:"
+                + "commons-lang:2.6:java-pkg-2", toLine(applied.get(3)));
+        assertEquals(1, applied.get(0).getParsedMavenVersion().
+                getMajorVersion());
+
+        final List<CacheItem> appliedAgain = lut.apply(applied);
+        assertEquals(applied.size(), appliedAgain.size());
+
+        for (int i = 0; i < applied.size(); i++) {
+            assertSame(applied.get(i), appliedAgain.get(i));
+        }
+    }
+
+    /**
+     * Malformed JSON and JSON that does not have the structure of lookup
+     * table are rejected.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testMalformed() throws IOException {
+        for (final String json : new String[]{
+            "",
+            "[]",
+            "\"dev-java\"",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", true]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", 1]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", null]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[g, a]]}}}",
+            "{\"dev-java\": junk}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\"]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", \"a\", \"b\"]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [\"g\", \"a\"]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": {\"g\": \"a\"}}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", \"a\"]]}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", \"a\"]]}}} x",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\", \"a\"],]}}}",
+            "{\"dev-java\" {}}",
+            "{dev-java: {}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\\x\", \"a\"]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\\u00g1\", \"a\"]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\\u+0a1\", \"a\"]]}}}",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g\\u00",
+            "{\"dev-java\": {\"a\": {\"0\": [[\"g"}) {
+            try {
+                LookupTable.read(writeLut(json));
+                fail("Malformed lookup table was accepted: " + json);
+            } catch (final RuntimeException ex) {
+                assertTrue(json, ex.getMessage().startsWith(
+                        "Failed to parse lookup table @ "));
+                assertTrue(json, ex.getCause()
+                        instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    /**
+     * Cache refresh applies the lookup table to java ebuilds without maven
+     * id, both to the cache file and to the cache shard.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testParseTree() throws IOException {
+        final Path tree = folder.newFolder("tree").toPath();
+        writeEbuild(tree, "jakarta-activation-api", "1.2.2", "1", "");
+        writeEbuild(tree, "commons-lang", "2.6", "2.1",
+                "MAVEN_ID=\"org.x:y:2.6\"\n");
+        writeEbuild(tree, "unknown", "1.0", "0", "");
+
+        for (final boolean shardCache : new boolean[]{false, true}) {
+            final Path cacheFile = folder.getRoot().toPath().resolve(
+                    "cache-" + shardCache);
+            final Config config = new Config(new PrintWriter(
+                    new StringWriter()), new PrintWriter(new StringWriter()));
+            config.addPortageTree(tree);
+            config.setCacheFile(cacheFile);
+            config.setLutFile(writeLut(LUT));
+            config.setShardCache(shardCache);
+            new PortageParser().parseTree(config);
+
+            final Path file = shardCache
+                    ? CacheShards.getPath(cacheFile, tree) : cacheFile;
+            final List<String> lines = new TextCacheReader(file).
+                    readCacheItems(1).stream().map(LookupTableTest::toLine).
+                    collect(Collectors.toList());
+
+            assertEquals(String.valueOf(shardCache), Arrays.asList(
+                    "dev-java:jakarta-activation-api:1.2.2:1::"
+                    + "jakarta.activation:jakarta.activation-api:1.2.2:"
+                    + "java-pkg-2",
+                    "dev-java:jakarta-activation-api:1.2.2:1::"
+                    + "javax.activation:javax.activation-api:1.2.2:"
+                    + "java-pkg-2",
+                    "dev-java:commons-lang:2.6:2.1::org.x:y:2.6:java-pkg-2"),
+                    lines);
+        }
+    }
+
+    /**
+     * Checks maven ids.
+     *
+     * @param actual   group id and artifact id pairs
+     * @param expected expected maven ids in format groupId:artifactId
+     */
+    private static void assertMavenIds(final List<String[]> actual,
+            final String... expected) {
+        assertEquals(expected.length, actual.size());
+
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i].split(":", 2), actual.get(i));
+        }
+    }
+
+    /**
+     * Formats cache item as cache line.
+     *
+     * @param cacheItem cache item
+     *
+     * @return cache line
+     */
+    private static String toLine(final CacheItem cacheItem) {
+        final StringWriter writer = new StringWriter(100);
+
+        try {
+            PortageParser.writeCacheItem(writer, cacheItem);
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to format cache item", ex);
+        }
+
+        return writer.toString().trim();
+    }
+
+    /**
+     * Writes java ebuild to category dev-java of the tree.
+     *
+     * @param tree      portage tree path
+     * @param pkg       package name
+     * @param version   package version
+     * @param slot      package slot
+     * @param variables additional variables of the ebuild
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private static void writeEbuild(final Path tree, final String pkg,
+            final String version, final String slot, final String variables)
+            throws IOException {
+        final Path pkgPath = tree.resolve("dev-java").resolve(pkg);
+        Files.createDirectories(pkgPath);
+        Files.write(pkgPath.resolve(pkg + '-' + version + ".ebuild"),
+                ("EAPI=8\n\n" + variables + "\ninherit java-pkg-2\n\n"
+                + "SLOT=\"" + slot + "\"\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes lookup table to new file.
+     *
+     * @param json lookup table content
+     *
+     * @return lookup table path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private Path writeLut(final String json) throws IOException {
+        final Path path = folder.newFile().toPath();
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+
+        return path;
+    }
+}
@@ -0,0 +1,272 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of maven version parsing and comparison. The original parser
+ * based on regular expression and the original comparison of version
+ * numbers are compared with {@link MavenVersion} on maven versions of the
+ * sample cache, which contains versions of artifacts published in maven
+ * central. Another cache file can be set using system property
+ * <code>sample.cache</code>. Run it with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     org.openjdk.jmh.Main MavenVersionBenchmark
+ * </pre>
+ *
+ * @author fordfrog
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MavenVersionBenchmark {
+
+    /**
+     * Pattern for parsing maven version number, from the original parser.
+     */
+    private static final Pattern PATTERN_VERSION = Pattern.compile(
+            "^[vr]?(\\d+)(?:\\.(\\d+))?(?:(?:\\.|b|beta)(\\d+))?(?:[\\.-]?(.*))?$");
+
+    /**
+     * Reads maven versions of cache items of the sample cache in order of
+     * the cache lines.
+     *
+     * @return list of maven versions
+     */
+    static List<String> readMavenVersions() {
+        final String cacheFile = System.getProperty("sample.cache");
+        final Path path;
+
+        try {
+            path = cacheFile != null ? Paths.get(cacheFile)
+                    : Paths.get(MavenVersionBenchmark.class.getResource(
+                            "/sample-cache").toURI());
+        } catch (final URISyntaxException ex) {
+            throw new RuntimeException("Failed to find sample cache", ex);
+        }
+
+        final List<String> result = new ArrayList<>(10_000);
+
+        try {
+            for (final String line : Files.readAllLines(path,
+                    StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || line.charAt(0) == '#'
+                        || line.indexOf(':') == -1) {
+                    continue;
+                }
+
+                final CacheItem cacheItem = new CacheItem(line);
+
+                if (cacheItem.getMavenVersion() != null) {
+                    result.add(cacheItem.getMavenVersion());
+                }
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read cache file @ " + path,
+                    ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Maven versions of the sample cache.
+     */
+    private List<String> versions;
+    /**
+     * Maven versions of the sample cache parsed by the original parser.
+     */
+    private List<LegacyVersion> legacyVersions;
+    /**
+     * Maven versions of the sample cache parsed by {@link MavenVersion}.
+     */
+    private List<MavenVersion> mavenVersions;
+
+    /**
+     * Reads the sample cache and parses its versions.
+     */
+    @Setup
+    public void setUp() {
+        versions = readMavenVersions();
+        legacyVersions = new ArrayList<>(versions.size());
+        mavenVersions = new ArrayList<>(versions.size());
+
+        for (final String version : versions) {
+            legacyVersions.add(new LegacyVersion(version));
+            mavenVersions.add(new MavenVersion(version));
+        }
+    }
+
+    /**
+     * Parses the versions with the original parser.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void legacyParse(final Blackhole blackhole) {
+        for (final String version : versions) {
+            blackhole.consume(new LegacyVersion(version));
+        }
+    }
+
+    /**
+     * Parses the versions with {@link MavenVersion}, without the shared
+     * instances.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void parse(final Blackhole blackhole) {
+        for (final String version : versions) {
+            blackhole.consume(new MavenVersion(version));
+        }
+    }
+
+    /**
+     * Compares every version with every following version using the
+     * original comparison.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void legacyCompare(final Blackhole blackhole) {
+        for (int i = 0; i < legacyVersions.size(); i += 10) {
+            final LegacyVersion version = legacyVersions.get(i);
+
+            for (int j = i + 1; j < legacyVersions.size(); j += 10) {
+                blackhole.consume(version.compareTo(legacyVersions.get(j)));
+            }
+        }
+    }
+
+    /**
+     * Compares every version with every following version using
+     * {@link MavenVersion#compareTo(MavenVersion)}.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void compare(final Blackhole blackhole) {
+        for (int i = 0; i < mavenVersions.size(); i += 10) {
+            final MavenVersion version = mavenVersions.get(i);
+
+            for (int j = i + 1; j < mavenVersions.size(); j += 10) {
+                blackhole.consume(version.compareTo(mavenVersions.get(j)));
+            }
+        }
+    }
+
+    /**
+     * Maven version parsed and compared the original way.
+     */
+    static class LegacyVersion implements Comparable<LegacyVersion> {
+
+        /**
+         * Incremental version number.
+         */
+        private final int incrementalVersion;
+        /**
+         * Major version number.
+         */
+        private final int majorVersion;
+        /**
+         * Minor version number.
+         */
+        private final int minorVersion;
+        /**
+         * Version qualifier.
+         */
+        private final String qualifier;
+
+        /**
+         * Creates new instance of LegacyVersion.
+         *
+         * @param version version string
+         */
+        LegacyVersion(final String version) {
+            final Matcher matcher = PATTERN_VERSION.matcher(version);
+
+            if (!matcher.matches()) {
+                throw new RuntimeException(
+                        "Maven version " + version + " is not valid.");
+            }
+
+            majorVersion = Integer.parseInt(matcher.group(1), 10);
+            minorVersion = matcher.group(2) == null
+                    ? 0 : Integer.parseInt(matcher.group(2), 10);
+            incrementalVersion = matcher.group(3) == null
+                    ? 0 : Integer.parseInt(matcher.group(3), 10);
+            qualifier = matcher.group(4) == null
+                    ? "" : matcher.group(4).toLowerCase();
+        }
+
+        @Override
+        public int compareTo(final LegacyVersion o) {
+            if (majorVersion != o.majorVersion) {
+                return Integer.compare(majorVersion, o.majorVersion);
+            } else if (minorVersion != o.minorVersion) {
+                return Integer.compare(minorVersion, o.minorVersion);
+            } else if (incrementalVersion != o.incrementalVersion) {
+                return Integer.compare(incrementalVersion,
+                        o.incrementalVersion);
+            }
+
+            return qualifier.compareTo(o.qualifier);
+        }
+
+        /**
+         * Getter for {@link #incrementalVersion}.
+         *
+         * @return {@link #incrementalVersion}
+         */
+        int getIncrementalVersion() {
+            return incrementalVersion;
+        }
+
+        /**
+         * Getter for {@link #majorVersion}.
+         *
+         * @return {@link #majorVersion}
+         */
+        int getMajorVersion() {
+            return majorVersion;
+        }
+
+        /**
+         * Getter for {@link #minorVersion}.
+         *
+         * @return {@link #minorVersion}
+         */
+        int getMinorVersion() {
+            return minorVersion;
+        }
+
+        /**
+         * Getter for {@link #qualifier}.
+         *
+         * @return {@link #qualifier}
+         */
+        String getQualifier() {
+            return qualifier;
+        }
+    }
+}
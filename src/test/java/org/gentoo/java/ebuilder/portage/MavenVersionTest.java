@@ -0,0 +1,182 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests of {@link MavenVersion}.
+ *
+ * @author fordfrog
+ */
+public class MavenVersionTest {
+
+    /**
+     * Versions that cover optional prefix, missing numbers, "b" and "beta"
+     * separators, qualifiers, numbers that do not fit into the sort key or
+     * into int and invalid versions.
+     */
+    private static final String[] EDGE_VERSIONS = {
+        "1", "1.2", "1.2.3", "1.2.3.4", "1.x", "1.2.x", "1b", "1b2", "1beta",
+        "1beta2", "1.b2", "1.2b3", "1.2beta3", "1.2.beta3", "1.2-beta-3",
+        "1.0-SNAPSHOT", "1.0.RELEASE", "1.0-", "1.", "1..2", "v1", "v1.2",
+        "r1", "r03", "vr1", "V1", "1.0\n", "1.0 ", "x", "", "-1",
+        "2097151", "2097152", "1.2097152", "1.1.2097152", "20040616",
+        "20030203.000550", "1234567890", "2147483647", "2147483648",
+        "1.12345678901", "0001.02", "1.0-rc1", "1.0-RC1"
+    };
+
+    /**
+     * Parses the version by the original parser and by
+     * {@link MavenVersion} and checks that both fail or both return the same
+     * numbers and qualifier.
+     *
+     * @param version version string
+     *
+     * @return parsed versions or null if the version is not valid
+     */
+    private static Object[] parseBoth(final String version) {
+        MavenVersionBenchmark.LegacyVersion legacy = null;
+        MavenVersion mavenVersion = null;
+
+        try {
+            legacy = new MavenVersionBenchmark.LegacyVersion(version);
+        } catch (final RuntimeException ex) {
+            // invalid version
+        }
+
+        try {
+            mavenVersion = new MavenVersion(version);
+        } catch (final RuntimeException ex) {
+            // invalid version
+        }
+
+        if (legacy == null || mavenVersion == null) {
+            assertEquals(version, legacy == null, mavenVersion == null);
+
+            return null;
+        }
+
+        assertEquals(version, legacy.getMajorVersion(),
+                mavenVersion.getMajorVersion());
+        assertEquals(version, legacy.getMinorVersion(),
+                mavenVersion.getMinorVersion());
+        assertEquals(version, legacy.getIncrementalVersion(),
+                mavenVersion.getIncrementalVersion());
+        assertEquals(version, legacy.getQualifier(),
+                mavenVersion.getQualifier());
+
+        return new Object[]{legacy, mavenVersion};
+    }
+
+    /**
+     * Checks that both parsers order every pair of the versions the same
+     * way.
+     *
+     * @param parsed parsed versions
+     */
+    private static void assertSameOrder(final List<Object[]> parsed) {
+        for (int i = 0; i + 1 < parsed.size(); i++) {
+            final MavenVersionBenchmark.LegacyVersion legacy1
+                    = (MavenVersionBenchmark.LegacyVersion) parsed.get(i)[0];
+            final MavenVersionBenchmark.LegacyVersion legacy2
+                    = (MavenVersionBenchmark.LegacyVersion) parsed.get(i + 1)[0];
+            final MavenVersion version1 = (MavenVersion) parsed.get(i)[1];
+            final MavenVersion version2 = (MavenVersion) parsed.get(i + 1)[1];
+            final String message
+                    = version1.getVersion() + " " + version2.getVersion();
+
+            assertEquals(message, Integer.signum(legacy1.compareTo(legacy2)),
+                    Integer.signum(version1.compareTo(version2)));
+            assertEquals(message, Integer.signum(legacy2.compareTo(legacy1)),
+                    Integer.signum(version2.compareTo(version1)));
+        }
+    }
+
+    /**
+     * Every maven version of the sample cache is parsed the same way as by
+     * the original parser and neighbouring versions compare the same way as
+     * they did originally.
+     */
+    @Test
+    public void testSampleCacheParity() {
+        final List<Object[]> parsed = new ArrayList<>(10_000);
+
+        for (final String version : MavenVersionBenchmark.readMavenVersions()) {
+            final Object[] versions = parseBoth(version);
+
+            if (versions != null) {
+                parsed.add(versions);
+            }
+        }
+
+        assertTrue(parsed.size() > 1_000);
+        assertSameOrder(parsed);
+
+        parsed.sort((o1, o2) -> ((MavenVersionBenchmark.LegacyVersion) o1[0]).
+                compareTo((MavenVersionBenchmark.LegacyVersion) o2[0]));
+        assertSameOrder(parsed);
+    }
+
+    /**
+     * Edge cases are parsed and compared the same way as by the original
+     * parser.
+     */
+    @Test
+    public void testEdgeCases() {
+        final List<Object[]> parsed = new ArrayList<>(EDGE_VERSIONS.length);
+
+        for (final String version : EDGE_VERSIONS) {
+            final Object[] versions = parseBoth(version);
+
+            if (versions != null) {
+                parsed.add(versions);
+            }
+        }
+
+        assertSameOrder(parsed);
+
+        for (final Object[] versions1 : parsed) {
+            for (final Object[] versions2 : parsed) {
+                assertSameOrder(Arrays.asList(versions1, versions2));
+            }
+        }
+    }
+
+    /**
+     * Versions with a number that does not fit into the sort key do not have
+     * the key and they still compare by numbers.
+     */
+    @Test
+    public void testSortKey() {
+        assertNotEquals(MavenVersion.NO_SORT_KEY,
+                new MavenVersion("2097151.2097151.2097151").getSortKey());
+
+        for (final String version : new String[]{"2097152", "1.2097152",
+            "1.1.2097152", "20040616", "2147483647"}) {
+            assertEquals(version, MavenVersion.NO_SORT_KEY,
+                    new MavenVersion(version).getSortKey());
+        }
+
+        assertTrue(new MavenVersion("2097151.9").compareTo(
+                new MavenVersion("2097152")) < 0);
+        assertTrue(new MavenVersion("1.2097152").compareTo(
+                new MavenVersion("1.2097151.5")) > 0);
+        assertTrue(new MavenVersion("20040616").compareTo(
+                new MavenVersion("20040616-beta")) < 0);
+        assertEquals(0, new MavenVersion("1.0.2097152").compareTo(
+                new MavenVersion("1.0.2097152")));
+
+        try {
+            new MavenVersion("2147483648");
+            fail("Version number above int range is not valid");
+        } catch (final NumberFormatException ex) {
+            // expected
+        }
+    }
+}
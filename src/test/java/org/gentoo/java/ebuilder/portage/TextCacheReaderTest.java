@@ -0,0 +1,175 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link TextCacheReader}.
+ *
+ * @author fordfrog
+ */
+public class TextCacheReaderTest {
+
+    /**
+     * Cache lines that cover trailing empty fields, missing fields and empty
+     * fields in the middle of the line.
+     */
+    private static final List<String> LINES = Arrays.asList(
+            "dev-java:a:1.0:0::org.a:a:1.0:java-pkg-2,java-pkg-simple",
+            "dev-java:b:2.0:2:::::java-pkg-2",
+            "dev-java:c:3.0:0:java:org.c:c:3.0-rc1:java-pkg-opt-2",
+            "dev-java:d:4.0:0::org.d:d:4.0:",
+            "dev-java:e:5.0:0::::",
+            "dev-java:f:6.0:0",
+            "dev-java:g:7.0:0:test",
+            "dev-java:h:8.0:1::org.h:h:8.0:java-pkg-2:extra",
+            "dev-java:i:9.0:0::org.i:i:9.0::",
+            ":j:1.0:0::org.j:j:1.0:java-pkg-2",
+            "dev-java:k:1.0:0::org.é:ké:1.0:java-pkg-2");
+    /**
+     * Temporary folder for cache files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fields of records are split the same way as
+     * {@link CacheItem#CacheItem(java.lang.String)} splits the line, that
+     * is trailing empty fields are dropped like by
+     * {@link String#split(java.lang.String)}.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testSplitParity() throws IOException {
+        final TextCacheReader reader = new TextCacheReader(
+                writeCache(String.join("\n", LINES) + "\n", "1.1",
+                        "#stamp=1"));
+        final List<CacheItem> cacheItems = reader.readCacheItems(1);
+
+        assertEquals("1.1", reader.getVersion());
+        assertEquals(Arrays.asList("#stamp=1"), reader.getHeaders());
+        assertEquals(LINES.size(), cacheItems.size());
+
+        for (int i = 0; i < LINES.size(); i++) {
+            BinaryCacheTest.assertSameItem(new CacheItem(LINES.get(i)), cacheItems.get(i));
+        }
+    }
+
+    /**
+     * Lines terminated by "\r\n" or by '\r' are read the same way as lines
+     * terminated by '\n', like {@link java.io.BufferedReader#readLine()}
+     * reads them.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testLineTerminators() throws IOException {
+        final List<CacheItem> expected = new TextCacheReader(writeCache(
+                String.join("\n", LINES) + "\n", "1.1", "#stamp=1")).
+                readCacheItems(1);
+
+        for (final String terminator : new String[]{"\r\n", "\r"}) {
+            final TextCacheReader reader = new TextCacheReader(writeCache(
+                    String.join(terminator, LINES) + terminator
+                    + terminator, "1.1" + terminator + "#stamp=1",
+                    null));
+            final List<CacheItem> cacheItems = reader.readCacheItems(1);
+
+            assertEquals("1.1", reader.getVersion());
+            assertEquals(Arrays.asList("#stamp=1"), reader.getHeaders());
+            assertEquals(expected.size(), cacheItems.size());
+
+            for (int i = 0; i < expected.size(); i++) {
+                BinaryCacheTest.assertSameItem(expected.get(i), cacheItems.get(i));
+            }
+        }
+    }
+
+    /**
+     * Cache file without version line contains only records.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testWithoutVersion() throws IOException {
+        final TextCacheReader reader = new TextCacheReader(writeCache(
+                String.join("\r\n", LINES), null, null));
+
+        assertNull(reader.getVersion());
+        assertEquals(LINES.size(), reader.readCacheItems(1).size());
+    }
+
+    /**
+     * Records parsed in parallel chunks are the same and in the same order
+     * as records parsed sequentially, also when chunk boundary falls between
+     * '\r' and '\n'.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Test
+    public void testParallelChunks() throws IOException {
+        for (final String terminator : new String[]{"\n", "\r\n"}) {
+            final StringBuilder sbContent = new StringBuilder(2_000_000);
+
+            for (int i = 0; i < 30_000; i++) {
+                sbContent.append(LINES.get(i % LINES.size()).
+                        replace(":1.0:", ":1." + i + ':'));
+                sbContent.append(terminator);
+            }
+
+            final TextCacheReader reader = new TextCacheReader(writeCache(
+                    sbContent.toString(), "1.1", null));
+            final List<CacheItem> sequential = reader.readCacheItems(1);
+            final List<CacheItem> parallel = reader.readCacheItems(4);
+
+            assertEquals(30_000, sequential.size());
+            assertEquals(sequential.size(), parallel.size());
+
+            for (int i = 0; i < sequential.size(); i++) {
+                BinaryCacheTest.assertSameItem(sequential.get(i), parallel.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes cache file.
+     *
+     * @param records records
+     * @param version version line or null
+     * @param header  header line or null
+     *
+     * @return cache file path
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    private Path writeCache(final String records, final String version,
+            final String header) throws IOException {
+        final List<String> parts = new ArrayList<>(3);
+
+        if (version != null) {
+            parts.add(version);
+        }
+
+        if (header != null) {
+            parts.add(header);
+        }
+
+        final String prefix = String.join("\n", parts);
+        final Path result = folder.newFile().toPath();
+        Files.write(result, ((prefix.isEmpty() ? "" : prefix + "\n")
+                + records).getBytes(StandardCharsets.UTF_8));
+
+        return result;
+    }
+}
@@ -0,0 +1,223 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of portage tree walk and package stamps. The original walker
+ * based on {@link File#listFiles()} and the original package stamp that
+ * reads size and modification time of every file separately are compared
+ * with the current implementation. Run it with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     org.openjdk.jmh.Main TreeWalkBenchmark
+ * </pre>
+ *
+ * @author fordfrog
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class TreeWalkBenchmark {
+
+    /**
+     * Creates synthetic portage tree with md5-cache.
+     *
+     * @param tree       tree path
+     * @param categories number of categories
+     * @param packages   number of packages in every category
+     * @param ebuilds    number of ebuilds in every package
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    static void createTree(final Path tree, final int categories,
+            final int packages, final int ebuilds) throws IOException {
+        for (int c = 0; c < categories; c++) {
+            final String category = "cat-" + c;
+            final Path md5Cache
+                    = tree.resolve("metadata").resolve("md5-cache").
+                            resolve(category);
+            Files.createDirectories(md5Cache);
+
+            for (int p = 0; p < packages; p++) {
+                final String pkg = "pkg" + p;
+                final Path pkgPath = tree.resolve(category).resolve(pkg);
+                Files.createDirectories(pkgPath);
+                Files.write(pkgPath.resolve("metadata.xml"), new byte[10]);
+
+                for (int e = 0; e < ebuilds; e++) {
+                    final String pf = pkg + "-1." + e;
+                    Files.write(pkgPath.resolve(pf + ".ebuild"),
+                            new byte[100 + e]);
+                    Files.write(md5Cache.resolve(pf), new byte[200 + e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Original package stamp hash that reads every attribute of every file
+     * separately.
+     *
+     * @param pkg package path
+     *
+     * @return package stamp hash
+     */
+    static long getLegacyStampHash(final Path pkg) {
+        final String[] ebuilds = pkg.toFile().list(
+                (final File dir, final String name) -> name.endsWith(".ebuild"));
+
+        if (ebuilds == null) {
+            return 0;
+        }
+
+        Arrays.sort(ebuilds);
+
+        final File md5Cache = pkg.getParent().resolveSibling("metadata").
+                resolve("md5-cache").resolve(pkg.getParent().getFileName()).
+                toFile();
+        long hash = ebuilds.length;
+
+        for (final String ebuild : ebuilds) {
+            final File file = pkg.resolve(ebuild).toFile();
+            final File metadata = new File(md5Cache,
+                    ebuild.substring(0, ebuild.length() - ".ebuild".length()));
+
+            hash = 31 * hash + ebuild.hashCode();
+            hash = 31 * hash + file.length();
+            hash = 31 * hash + file.lastModified();
+            hash = 31 * hash + metadata.length();
+            hash = 31 * hash + metadata.lastModified();
+        }
+
+        return hash;
+    }
+
+    /**
+     * Synthetic portage tree.
+     */
+    private Path tree;
+
+    /**
+     * Creates synthetic portage tree.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        tree = Files.createTempDirectory("tree-walk");
+        createTree(tree, 20, 100, 3);
+    }
+
+    /**
+     * Removes synthetic portage tree.
+     *
+     * @throws IOException Thrown if I/O problem occurred.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        try (final Stream<Path> paths = Files.walk(tree)) {
+            paths.sorted(Comparator.reverseOrder()).
+                    forEach((path) -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Walks the tree with the original walker.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void legacyWalk(final Blackhole blackhole) {
+        for (final File category : tree.toFile().listFiles(File::isDirectory)) {
+            if (category.getName().equals("metadata")) {
+                continue;
+            }
+
+            for (final File pkg : category.listFiles(File::isDirectory)) {
+                for (final File ebuild : pkg.listFiles((final File file)
+                        -> file.isFile()
+                        && file.getName().endsWith(".ebuild"))) {
+                    blackhole.consume(ebuild);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the tree with the current walker.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void walk(final Blackhole blackhole) {
+        for (final Path category : PortageParser.listCategories(tree)) {
+            for (final Path pkg : PortageParser.listPackages(category)) {
+                for (final Path ebuild : PortageParser.listEbuilds(pkg)) {
+                    blackhole.consume(ebuild);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes tree stamp and then package stamps again during the scan, the
+     * same as before package stamps were reused, with the original package
+     * stamp.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void legacyStamps(final Blackhole blackhole) {
+        long hash = 0;
+
+        for (final Path category : PortageParser.listCategories(tree)) {
+            for (final Path pkg : PortageParser.listPackages(category)) {
+                hash = 31 * hash + getLegacyStampHash(pkg);
+            }
+        }
+
+        blackhole.consume(hash);
+
+        for (final Path category : PortageParser.listCategories(tree)) {
+            for (final Path pkg : PortageParser.listPackages(category)) {
+                blackhole.consume(Long.toHexString(getLegacyStampHash(pkg)));
+            }
+        }
+    }
+
+    /**
+     * Computes tree stamp and reuses package stamps during the scan.
+     *
+     * @param blackhole blackhole
+     */
+    @Benchmark
+    public void stamps(final Blackhole blackhole) {
+        final Map<String, String> packageStamps = new HashMap<>(4_000);
+        blackhole.consume(CacheShards.getStamp(tree, packageStamps));
+
+        for (final Path category : PortageParser.listCategories(tree)) {
+            for (final Path pkg : PortageParser.listPackages(category)) {
+                blackhole.consume(packageStamps.get(pkg.toString()));
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.gentoo.java.ebuilder.portage;
+
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests of {@link VersionRange}.
+ *
+ * @author fordfrog
+ */
+public class VersionRangeTest {
+
+    /**
+     * Range strings start with bracket.
+     */
+    @Test
+    public void testIsRange() {
+        assertTrue(VersionRange.isRange("[1.0,2.0)"));
+        assertTrue(VersionRange.isRange("(,1.0]"));
+        assertFalse(VersionRange.isRange("1.0"));
+        assertFalse(VersionRange.isRange(""));
+    }
+
+    /**
+     * Single restriction with both bounds.
+     */
+    @Test
+    public void testSingleRestriction() {
+        final List<VersionRange.Restriction> restrictions
+                = new VersionRange("[1.0, 2.0)").getRestrictions();
+
+        assertEquals(1, restrictions.size());
+        assertEquals("1.0", restrictions.get(0).getLower().getVersion());
+        assertTrue(restrictions.get(0).isLowerInclusive());
+        assertEquals("2.0", restrictions.get(0).getUpper().getVersion());
+        assertFalse(restrictions.get(0).isUpperInclusive());
+    }
+
+    /**
+     * Open bounds are null.
+     */
+    @Test
+    public void testOpenBounds() {
+        final VersionRange.Restriction lowerOpen
+                = new VersionRange("(,1.5]").getRestrictions().get(0);
+        assertNull(lowerOpen.getLower());
+        assertEquals("1.5", lowerOpen.getUpper().getVersion());
+        assertTrue(lowerOpen.isUpperInclusive());
+
+        final VersionRange.Restriction upperOpen
+                = new VersionRange("(1.5,)").getRestrictions().get(0);
+        assertEquals("1.5", upperOpen.getLower().getVersion());
+        assertFalse(upperOpen.isLowerInclusive());
+        assertNull(upperOpen.getUpper());
+    }
+
+    /**
+     * Exact version pin contains only the version.
+     */
+    @Test
+    public void testExactPin() {
+        final VersionRange range = new VersionRange("[1.2]");
+
+        assertTrue(range.contains(MavenVersion.of("1.2")));
+        assertTrue(range.contains(MavenVersion.of("1.2.0")));
+        assertFalse(range.contains(MavenVersion.of("1.2.1")));
+        assertFalse(range.contains(MavenVersion.of("1.1")));
+        assertEquals("1.2", range.getBoundVersion().getVersion());
+    }
+
+    /**
+     * Version is in the range if any of the restrictions contains it.
+     */
+    @Test
+    public void testMultipleRestrictions() {
+        final VersionRange range = new VersionRange("[1.0,2.0),[3.0,)");
+
+        assertEquals(2, range.getRestrictions().size());
+        assertTrue(range.contains(MavenVersion.of("1.0")));
+        assertTrue(range.contains(MavenVersion.of("1.9.9")));
+        assertFalse(range.contains(MavenVersion.of("2.0")));
+        assertFalse(range.contains(MavenVersion.of("2.5")));
+        assertTrue(range.contains(MavenVersion.of("3.0")));
+        assertTrue(range.contains(MavenVersion.of("99")));
+        assertFalse(range.contains(MavenVersion.of("0.9")));
+    }
+
+    /**
+     * Exclusive bounds do not contain the bound versions.
+     */
+    @Test
+    public void testExclusiveBounds() {
+        final VersionRange range = new VersionRange("(1.0,2.0)");
+
+        assertFalse(range.contains(MavenVersion.of("1.0")));
+        assertTrue(range.contains(MavenVersion.of("1.0.1")));
+        assertFalse(range.contains(MavenVersion.of("2.0")));
+    }
+
+    /**
+     * Bound version is the lower bound of the first restriction, or its upper
+     * bound if the lower one is open.
+     */
+    @Test
+    public void testBoundVersion() {
+        assertEquals("1.0", new VersionRange("[1.0,2.0),[3.0,)").
+                getBoundVersion().getVersion());
+        assertEquals("2.0", new VersionRange("(,2.0]").getBoundVersion().
+                getVersion());
+        assertEquals(1, MavenVersion.of("[1.5,2.0)").getMajorVersion());
+        assertEquals(5, MavenVersion.of("[1.5,2.0)").getMinorVersion());
+
+        try {
+            new VersionRange("(,)").getBoundVersion();
+            fail("Range without bounds has bound version");
+        } catch (final RuntimeException ex) {
+            assertTrue(ex.getMessage().contains("does not have any bound"));
+        }
+    }
+
+    /**
+     * Invalid ranges are rejected.
+     */
+    @Test
+    public void testInvalid() {
+        for (final String range : new String[]{"[1.0", "[1.0,2.0", "(1.0)",
+            "[1.0)", "[2.0,1.0]", "[1.0],", "[1.0]x", "[]", "[1,2,3]",
+            "[1.0]  [2.0]"}) {
+            try {
+                new VersionRange(range);
+                fail("Invalid range " + range + " was accepted");
+            } catch (final RuntimeException ex) {
+                assertEquals("Maven version range " + range
+                        + " is not valid.", ex.getMessage());
+            }
+        }
+    }
+}